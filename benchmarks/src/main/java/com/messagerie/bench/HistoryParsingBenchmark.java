@@ -0,0 +1,77 @@
+package com.messagerie.bench;
+
+import com.messagerie.protocol.Frame;
+import com.messagerie.protocol.Framing;
+import com.messagerie.protocol.Protocol;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client side of HISTORY_DATA: the non-UI part of ChatController.handleHistoryData / renderHistory, i.e. the
+ * received line parsed into a Frame, the payload decoded with Protocol.decodeHistory and each record's id read.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HistoryParsingBenchmark {
+
+    @Param({"1", "2", "3"})
+    public int protocolVersion;
+
+    @Param({"50", "200"})
+    public int messageCount;
+
+    private byte[] line;
+    private final Frame frame = new Frame();
+
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < messageCount; i++) {
+            String sender = i % 2 == 0 ? "alice" : "bob";
+            String content = "Message numéro " + i + " :: avec | séparateurs et accents, longueur moyenne d'un échange.";
+            if (protocolVersion >= Protocol.VERSION_3) {
+                // Une réaction tous les cinq messages
+                StringBuilder reactions = new StringBuilder();
+                if (i % 5 == 0) Protocol.appendReaction(reactions, "👍", 2, i % 2 == 0);
+                Protocol.appendHistoryRecord(sb, sender, content, "2024-05-01T10:15:30.123456", 1000L + i, "LU", reactions);
+            } else if (protocolVersion >= Protocol.VERSION_2) {
+                Protocol.appendHistoryRecord(sb, sender, content, "2024-05-01T10:15:30.123456", 1000L + i, "LU");
+            } else {
+                Protocol.appendLegacyHistoryRecord(sb, sender, content, "2024-05-01T10:15:30.123456", 1000L + i, "LU");
+            }
+        }
+        String payload = protocolVersion >= Protocol.VERSION_2 ? sb.toString() : Protocol.encodePayload(sb.toString());
+        byte[] encoded = Framing.TEXT.encode(Protocol.HISTORY_DATA, payload);
+        line = Arrays.copyOf(encoded, encoded.length - 1); // sans le \n, comme FrameReader
+    }
+
+    @Benchmark
+    public long parse(Blackhole bh) {
+        frame.parseText(line, 0, line.length);
+        long oldest = Long.MAX_VALUE;
+        for (String[] fields : Protocol.decodeHistory(frame.field(1), protocolVersion)) {
+            bh.consume(fields[0]);
+            bh.consume(fields[1]);
+            long id = Long.parseLong(fields[3]);
+            if (id < oldest) oldest = id;
+        }
+        return oldest;
+    }
+}
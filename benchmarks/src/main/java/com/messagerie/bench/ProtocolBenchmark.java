@@ -0,0 +1,128 @@
+package com.messagerie.bench;
+
+import com.messagerie.protocol.BinaryProtocol;
+import com.messagerie.protocol.Frame;
+import com.messagerie.protocol.Framing;
+import com.messagerie.protocol.Protocol;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and parsing of one INCOMING_MSG frame, the most frequent frame on the wire: the former
+ * String.split path (Protocol.parseCommand) against Frame, text framing against binary framing, and the
+ * Base64 helpers still used by protocol version 1. Run with -prof gc to get the allocation rate per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProtocolBenchmark {
+
+    /** Taille du contenu du message (RG7: 1000 caractères max). */
+    @Param({"32", "1000"})
+    public int contentLength;
+
+    private String[] fields;
+    private String line;
+    private byte[] lineBytes;
+    private byte[] binaryFrame;
+    private String content;
+    private String encodedContent;
+    private final Frame frame = new Frame();
+
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder(contentLength);
+        for (int i = 0; i < contentLength; i++) {
+            sb.append(i % 40 == 39 ? '|' : (char) ('a' + i % 26)); // quelques | dans le contenu
+        }
+        content = sb.toString();
+        fields = new String[] {Protocol.INCOMING_MSG, "alice", "2024-05-01T10:15:30.123456", "4242", content};
+        line = Protocol.buildCommand(fields);
+        lineBytes = Framing.TEXT.encode(fields);
+        binaryFrame = BinaryProtocol.encode(fields);
+        encodedContent = Protocol.encodePayload(content);
+    }
+
+    @Benchmark
+    public String buildCommand() {
+        return Protocol.buildCommand(fields);
+    }
+
+    @Benchmark
+    public byte[] encodeText() {
+        return Framing.TEXT.encode(fields);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return BinaryProtocol.encode(fields);
+    }
+
+    @Benchmark
+    public String[] parseCommand() {
+        return Protocol.parseCommand(line, 5);
+    }
+
+    /** String line (as read by BufferedReader.readLine) into a reused Frame, content materialized. */
+    @Benchmark
+    public void parseFrameFromString(Blackhole bh) {
+        frame.parseText(line);
+        bh.consume(frame.opcode());
+        bh.consume(frame.field(4));
+    }
+
+    /** Ligne UTF-8 décodée directement depuis le tampon de lecture (FrameReader, NioConnection). */
+    @Benchmark
+    public void parseFrameFromBytes(Blackhole bh) {
+        frame.parseText(lineBytes, 0, lineBytes.length - 1);
+        bh.consume(frame.opcode());
+        bh.consume(frame.field(4));
+    }
+
+    @Benchmark
+    public void parseBinary(Blackhole bh) {
+        BinaryProtocol.parse(binaryFrame, 0, binaryFrame.length, frame);
+        bh.consume(frame.opcode());
+        bh.consume(frame.field(4));
+    }
+
+    /** Parsing only (no String built for the fields): lower bound of what a handler pays. */
+    @Benchmark
+    public void parseFrameNoMaterialize(Blackhole bh) {
+        frame.parseText(lineBytes, 0, lineBytes.length - 1);
+        bh.consume(frame.opcode());
+        bh.consume(frame.longField(3));
+    }
+
+    @Benchmark
+    public String encodePayload() {
+        return Protocol.encodePayload(content);
+    }
+
+    @Benchmark
+    public String decodePayload() {
+        return Protocol.decodePayload(encodedContent);
+    }
+
+    /** Reference for the UTF-8 cost alone. */
+    @Benchmark
+    public byte[] utf8Bytes() {
+        return line.getBytes(StandardCharsets.UTF_8);
+    }
+}
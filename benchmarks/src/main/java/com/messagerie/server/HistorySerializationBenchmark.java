@@ -0,0 +1,84 @@
+package com.messagerie.server;
+
+import com.messagerie.model.Message;
+import com.messagerie.model.User;
+import com.messagerie.protocol.Framing;
+import com.messagerie.protocol.Protocol;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server side of HISTORY: the records of a conversation serialized the way ClientHandler.handleGetHistory does
+ * (same static helpers), then framed into the bytes queued on the connection. Declared in the server package to
+ * reach those package-private helpers. Compare protocolVersion 1 (Base64) and 2 (length-prefixed) with -prof gc.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HistorySerializationBenchmark {
+
+    @Param({"1", "2", "3"})
+    public int protocolVersion;
+
+    /** Messages dans la conversation (une page: HISTORY_PAGE_SIZE, une page max: HISTORY_MAX_PAGE_SIZE). */
+    @Param({"50", "200"})
+    public int messageCount;
+
+    @Param({"TEXT", "BINARY"})
+    public Framing framing;
+
+    private List<Message> messages;
+
+    @Setup
+    public void setup() {
+        messages = sampleConversation(messageCount);
+    }
+
+    /** HISTORY_DATA payload alone (StringBuilder growth, records, Base64 for v1). */
+    @Benchmark
+    public String serialize() {
+        StringBuilder sb = new StringBuilder();
+        for (Message m : messages) {
+            ClientHandler.appendHistoryRecord(sb, m, protocolVersion);
+        }
+        return ClientHandler.historyPayload(sb, protocolVersion);
+    }
+
+    /** Whole frame as queued by sendMessage(HISTORY_DATA, payload). */
+    @Benchmark
+    public byte[] serializeAndFrame() {
+        return framing.encode(Protocol.HISTORY_DATA, serialize());
+    }
+
+    static List<Message> sampleConversation(int count) {
+        User alice = new User("alice", "x");
+        alice.setId(1L);
+        User bob = new User("bob", "x");
+        bob.setId(2L);
+        List<Message> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            boolean fromAlice = i % 2 == 0;
+            Message m = new Message(fromAlice ? alice : bob, fromAlice ? bob : alice,
+                    "Message numéro " + i + " :: avec | séparateurs et accents, longueur moyenne d'un échange.");
+            m.setId(1000L + i);
+            list.add(m);
+        }
+        return list;
+    }
+}
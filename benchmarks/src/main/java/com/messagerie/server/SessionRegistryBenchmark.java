@@ -0,0 +1,140 @@
+package com.messagerie.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Session lookups under contention: many senders resolving their receiver (handleSendMessage) while other
+ * threads log users in and out (RG3) and one walks every session (broadcast). SessionRegistry against the
+ * former pattern, the same ConcurrentHashMap wrapped in synchronized (connectedClients) blocks. Declared in
+ * the server package to reach the package-private registry; handlers are plain objects (no socket, no DB).
+ * Compare the "send" score of both implementations; -t does not apply, threads are set per group.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class SessionRegistryBenchmark {
+
+    @Param({"REGISTRY", "SYNCHRONIZED"})
+    public String impl;
+
+    /** Utilisateurs connectés au départ. */
+    @Param({"1000"})
+    public int sessionCount;
+
+    private Sessions sessions;
+    private String[] usernames;
+
+    /** What ClientHandler needs from the connected clients, so that both implementations run the same code. */
+    interface Sessions {
+        boolean register(String username, Object handler);
+        boolean unregister(String username, Object handler);
+        Object get(String username);
+        int broadcast();
+    }
+
+    static final class Registry implements Sessions {
+        private final SessionRegistry<Object> registry = new SessionRegistry<>();
+
+        public boolean register(String username, Object handler) { return registry.register(username, handler); }
+        public boolean unregister(String username, Object handler) { return registry.unregister(username, handler); }
+        public Object get(String username) { return registry.get(username); }
+
+        public int broadcast() {
+            int n = 0;
+            for (Object handler : registry.handlers()) n += handler.hashCode() & 1;
+            return n;
+        }
+    }
+
+    /** Avant SessionRegistry: chaque accès passait par le moniteur de la map. */
+    static final class Synchronized implements Sessions {
+        private final Map<String, Object> connectedClients = new ConcurrentHashMap<>();
+
+        public boolean register(String username, Object handler) {
+            synchronized (connectedClients) {
+                if (connectedClients.containsKey(username)) return false;
+                connectedClients.put(username, handler);
+                return true;
+            }
+        }
+
+        public boolean unregister(String username, Object handler) {
+            synchronized (connectedClients) {
+                return connectedClients.remove(username, handler);
+            }
+        }
+
+        public Object get(String username) {
+            synchronized (connectedClients) {
+                return connectedClients.get(username);
+            }
+        }
+
+        public int broadcast() {
+            int n = 0;
+            synchronized (connectedClients) {
+                for (Object handler : connectedClients.values()) n += handler.hashCode() & 1;
+            }
+            return n;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        sessions = "REGISTRY".equals(impl) ? new Registry() : new Synchronized();
+        usernames = new String[sessionCount];
+        for (int i = 0; i < sessionCount; i++) {
+            usernames[i] = "user" + i;
+            sessions.register(usernames[i], new Object());
+        }
+    }
+
+    /** handleSendMessage: receiver lookup. */
+    @Benchmark
+    @Group("delivery")
+    @GroupThreads(8)
+    public Object send() {
+        return sessions.get(usernames[ThreadLocalRandom.current().nextInt(usernames.length)]);
+    }
+
+    /** A user logs out then in again (handleLogin / disconnect). */
+    @Benchmark
+    @Group("delivery")
+    @GroupThreads(2)
+    public boolean reconnect() {
+        String username = usernames[ThreadLocalRandom.current().nextInt(usernames.length)];
+        Object handler = sessions.get(username);
+        if (handler != null && sessions.unregister(username, handler)) {
+            return sessions.register(username, new Object());
+        }
+        return false;
+    }
+
+    /** One pass over every connected client (broadcast). */
+    @Benchmark
+    @Group("delivery")
+    @GroupThreads(1)
+    public int broadcast() {
+        return sessions.broadcast();
+    }
+}
@@ -1,5 +1,11 @@
 package com.messagerie.client;
 
+import com.messagerie.config.AppConfig;
+import com.messagerie.protocol.BinaryProtocol;
+import com.messagerie.protocol.Frame;
+import com.messagerie.protocol.FrameReader;
+import com.messagerie.protocol.Framing;
+import com.messagerie.protocol.Opcode;
 import com.messagerie.protocol.Protocol;
 
 import java.io.*;
@@ -8,32 +14,69 @@ import java.util.function.Consumer;
 
 public class ChatClient {
 
+    /** Attente max de la réponse à la poignée de main binaire. */
+    private static final int HANDSHAKE_TIMEOUT_MS = 5000;
+
     private Socket socket;
-    private BufferedReader in;
-    private PrintWriter out;
+    private FrameReader in;
+    private OutputStream out;
+    private volatile Framing framing = Framing.TEXT;
     private Thread listenerThread;
-    private Consumer<String> messageHandler;
+    private Consumer<Frame> messageHandler;
     private Runnable onDisconnect;
     private volatile boolean connected = false;
+    private volatile int protocolVersion = Protocol.VERSION_1;
+    private volatile boolean awaitingHello;
 
     public void connect(String host, int port) throws IOException {
         socket = new Socket(host, port);
-        in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
-        out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"), true);
+        in = new FrameReader(socket.getInputStream());
+        out = new BufferedOutputStream(socket.getOutputStream());
+        try {
+            framing = AppConfig.isClientBinaryFraming() ? negotiateFraming() : Framing.TEXT;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
         connected = true;
 
+        // Négociation de version; un ancien serveur répond ERROR et on reste en version 1
+        awaitingHello = true;
+        send(Protocol.HELLO, String.valueOf(Protocol.CURRENT_VERSION));
+
         listenerThread = new Thread(this::listenForMessages);
         listenerThread.setDaemon(true);
         listenerThread.start();
     }
 
+    /**
+     * Sends BinaryProtocol.MAGIC: a v2 server echoes it, an older one answers with an ERROR line
+     * (consumed here) and the connection stays in text framing.
+     */
+    private Framing negotiateFraming() throws IOException {
+        out.write(BinaryProtocol.MAGIC);
+        out.flush();
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+        try {
+            int first = in.peek();
+            if (first < 0) throw new EOFException("Connexion fermée par le serveur");
+            if (first == (BinaryProtocol.MAGIC[0] & 0xFF)) {
+                if (!in.readMagic()) throw new IOException("Poignée de main binaire invalide");
+                in.setFraming(Framing.BINARY);
+                return Framing.BINARY;
+            }
+            in.skipLine(); // ERROR|Commande inconnue d'un serveur texte
+            return Framing.TEXT;
+        } finally {
+            socket.setSoTimeout(0);
+        }
+    }
+
     private void listenForMessages() {
+        Frame frame = new Frame();
         try {
-            String line;
-            while (connected && (line = in.readLine()) != null) {
-                if (messageHandler != null) {
-                    messageHandler.accept(line);
-                }
+            while (connected && in.read(frame)) {
+                dispatch(frame);
             }
         } catch (IOException e) {
             if (connected) {
@@ -45,34 +88,105 @@ public class ChatClient {
         }
     }
 
-    public void send(String message) {
+    private void dispatch(Frame frame) {
+        if (awaitingHello && handleHelloReply(frame)) {
+            return;
+        }
+        if (messageHandler != null) {
+            // Copie: le handler peut la traiter plus tard (Platform.runLater) alors que frame est réutilisée
+            messageHandler.accept(frame.copy());
+        }
+    }
+
+    private boolean handleHelloReply(Frame frame) {
+        if (frame.opcode() == Opcode.HELLO_OK) {
+            awaitingHello = false;
+            try {
+                protocolVersion = frame.intField(1);
+            } catch (RuntimeException e) {
+                protocolVersion = Protocol.VERSION_1;
+            }
+            return true;
+        }
+        if (frame.opcode() == Opcode.ERROR) {
+            awaitingHello = false; // HELLO inconnu: ancien serveur
+            return true;
+        }
+        return false;
+    }
+
+    /** Sends one frame {command, field1, ...} in the negotiated framing. */
+    public void send(String... fields) {
         if (out != null && connected) {
-            out.println(message);
+            byte[] frame = framing.encode(fields);
+            try {
+                synchronized (out) {
+                    out.write(frame);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // la perte de connexion est signalée par le thread d'écoute
+            }
         }
     }
 
     public void login(String username, String password) {
-        send(Protocol.buildCommand(Protocol.LOGIN, username, password));
+        send(Protocol.LOGIN, username, password);
     }
 
     public void register(String username, String password) {
-        send(Protocol.buildCommand(Protocol.REGISTER, username, password));
+        send(Protocol.REGISTER, username, password);
     }
 
     public void sendMessage(String receiverUsername, String content) {
-        send(Protocol.buildCommand(Protocol.SEND_MSG, receiverUsername, content));
+        send(Protocol.SEND_MSG, receiverUsername, content);
     }
 
     public void requestUserList() {
-        send(Protocol.buildCommand(Protocol.GET_USERS));
+        send(Protocol.GET_USERS);
+    }
+
+    /** Presence changes since {@code sinceVersion} (PRESENCE_DELTA), or a USER_LIST snapshot if the server no longer has them. */
+    public void requestUserList(long sinceVersion) {
+        send(Protocol.GET_USERS, String.valueOf(sinceVersion));
+    }
+
+    /** Live presence of these users too (USER_STATUS_CHANGE), not only of conversation partners. */
+    public void subscribePresence(String... usernames) {
+        send(Protocol.PRESENCE_SUB, String.join(",", usernames));
     }
 
     public void requestHistory(String otherUsername) {
-        send(Protocol.buildCommand(Protocol.GET_HISTORY, otherUsername));
+        send(Protocol.GET_HISTORY, otherUsername);
+    }
+
+    /** Latest page when cursorId is null, otherwise the page BEFORE/AFTER cursorId (see Protocol.GET_HISTORY). */
+    public void requestHistoryPage(String otherUsername, int limit, String direction, Long cursorId) {
+        if (cursorId == null) {
+            send(Protocol.GET_HISTORY, otherUsername, String.valueOf(limit));
+        } else {
+            send(Protocol.GET_HISTORY, otherUsername, String.valueOf(limit), direction, String.valueOf(cursorId));
+        }
+    }
+
+    /** Read watermark: every message received from otherUsername up to upToMessageId has been read. */
+    public void markRead(String otherUsername, long upToMessageId) {
+        send(Protocol.MSG_READ, otherUsername, String.valueOf(upToMessageId));
+    }
+
+    /** Adds (or removes) the connected user's reaction; answered by REACTION_ADDED if it changed. */
+    public void react(long messageId, String emoji, boolean add) {
+        send(Protocol.ADD_REACTION, String.valueOf(messageId), "", emoji,
+                add ? Protocol.REACTION_ADD : Protocol.REACTION_REMOVE);
+    }
+
+    /** Admin: server metrics, answered by STATS_DATA|name=value,... */
+    public void requestStats() {
+        send(Protocol.STATS);
     }
 
     public void logout() {
-        send(Protocol.buildCommand(Protocol.LOGOUT));
+        send(Protocol.LOGOUT);
         disconnect();
     }
 
@@ -87,7 +201,7 @@ public class ChatClient {
         }
     }
 
-    public void setMessageHandler(Consumer<String> handler) {
+    public void setMessageHandler(Consumer<Frame> handler) {
         this.messageHandler = handler;
     }
 
@@ -95,6 +209,16 @@ public class ChatClient {
         this.onDisconnect = onDisconnect;
     }
 
+    /** Version négociée avec le serveur (Protocol.VERSION_1 tant que HELLO_OK n'est pas reçu). */
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    /** Framing en usage sur la connexion (BINARY si le serveur a accepté la poignée de main). */
+    public Framing getFraming() {
+        return framing;
+    }
+
     public boolean isConnected() {
         return connected;
     }
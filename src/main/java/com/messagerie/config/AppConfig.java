@@ -2,11 +2,15 @@ package com.messagerie.config;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.HashSet;
 import java.util.Properties;
+import java.util.Set;
 
 /**
  * Centralised configuration from config.properties with optional env var overrides.
- * Env: JDBC_URL, JDBC_USER, JDBC_PASSWORD, MESSAGERIE_HOST, MESSAGERIE_PORT.
+ * Env: JDBC_URL, JDBC_USER, JDBC_PASSWORD, SERVER_HOST, SERVER_PORT, SERVER_MODE, ...
+ * (the key in upper case with dots replaced by underscores). A JVM system property with the key itself
+ * (-Ddb.profile=h2-mem) wins over both, for in-process runs such as the load generator.
  */
 public final class AppConfig {
 
@@ -24,6 +28,8 @@ public final class AppConfig {
     }
 
     private static String get(String key, String defaultValue) {
+        String sys = System.getProperty(key);
+        if (sys != null && !sys.isBlank()) return sys.trim();
         String envKey = key.replace(".", "_").toUpperCase();
         String env = System.getenv(envKey);
         if (env != null && !env.isBlank()) return env.trim();
@@ -31,8 +37,56 @@ public final class AppConfig {
         return value != null ? value.trim() : defaultValue;
     }
 
+    /** Base de données utilisée par le serveur (db.profile). */
+    public enum DbProfile {
+        /** MySQL (défaut), schéma mis à jour au démarrage. */
+        MYSQL("com.mysql.cj.jdbc.Driver", "org.hibernate.dialect.MySQLDialect", "update"),
+        /** H2 en mémoire, base vide à chaque démarrage : tests et benchmarks sans service externe. */
+        H2_MEM("org.h2.Driver", "org.hibernate.dialect.H2Dialect", "create-drop"),
+        /** H2 dans un fichier local (db.h2.path), conservé entre deux démarrages. */
+        H2_FILE("org.h2.Driver", "org.hibernate.dialect.H2Dialect", "update");
+
+        private final String driver;
+        private final String dialect;
+        private final String ddl;
+
+        DbProfile(String driver, String dialect, String ddl) {
+            this.driver = driver;
+            this.dialect = dialect;
+            this.ddl = ddl;
+        }
+    }
+
+    /** "mysql" (défaut), "h2-mem" ou "h2-file". */
+    public static DbProfile getDbProfile() {
+        String profile = get("db.profile", "mysql").toUpperCase().replace('-', '_');
+        try {
+            return DbProfile.valueOf(profile);
+        } catch (IllegalArgumentException e) {
+            return DbProfile.MYSQL;
+        }
+    }
+
+    /** URL JDBC du profil : jdbc.url pour MySQL, construite pour H2 (mode MySQL, mêmes requêtes). */
     public static String getJdbcUrl() {
-        return get("jdbc.url", "jdbc:mysql://localhost:3306/messagerie?useSSL=false&serverTimezone=UTC&allowPublicKeyRetrieval=true");
+        return switch (getDbProfile()) {
+            case H2_MEM -> "jdbc:h2:mem:" + get("db.h2.name", "messagerie") + ";MODE=MySQL;DB_CLOSE_DELAY=-1";
+            case H2_FILE -> "jdbc:h2:file:" + get("db.h2.path", "./data/messagerie") + ";MODE=MySQL";
+            case MYSQL -> get("jdbc.url", "jdbc:mysql://localhost:3306/messagerie?useSSL=false&serverTimezone=UTC&allowPublicKeyRetrieval=true&rewriteBatchedStatements=true");
+        };
+    }
+
+    public static String getJdbcDriver() {
+        return getDbProfile().driver;
+    }
+
+    public static String getHibernateDialect() {
+        return getDbProfile().dialect;
+    }
+
+    /** hibernate.hbm2ddl.auto : celle du profil, sauf si db.ddl est renseignée (update, create, create-drop, validate, none). */
+    public static String getDdlStrategy() {
+        return get("db.ddl", getDbProfile().ddl);
     }
 
     public static String getJdbcUser() {
@@ -47,13 +101,203 @@ public final class AppConfig {
         return get("server.host", "localhost");
     }
 
-    public static int getServerPort() {
-        String p = get("server.port", "12345");
+    private static int getInt(String key, int defaultValue) {
+        String v = get(key, String.valueOf(defaultValue));
         try {
-            return Integer.parseInt(p);
+            return Integer.parseInt(v);
         } catch (NumberFormatException e) {
-            return 12345;
+            return defaultValue;
+        }
+    }
+
+    public static int getServerPort() {
+        return getInt("server.port", 12345);
+    }
+
+    /** "threaded" (un thread par client, défaut), "virtual" (un virtual thread par client) ou "nio" (boucles Selector). */
+    public static String getServerMode() {
+        return get("server.mode", "threaded");
+    }
+
+    /** Nombre de boucles Selector en mode nio. */
+    public static int getNioSelectorThreads() {
+        return Math.max(1, getInt("server.nio.selectors", Math.max(1, Runtime.getRuntime().availableProcessors() / 2)));
+    }
+
+    /** Threads exécutant les commandes (accès BDD) en mode nio, pour ne jamais bloquer un Selector. */
+    public static int getNioWorkerThreads() {
+        return Math.max(1, getInt("server.nio.workers", Runtime.getRuntime().availableProcessors() * 2));
+    }
+
+    /** Nombre max de trames en attente d'écriture par client. */
+    public static int getOutboundQueueCapacity() {
+        return Math.max(2, getInt("server.outbound.capacity", 1024));
+    }
+
+    /** DROP_LOSSY (défaut) ou DISCONNECT, voir OutboundQueue.OverflowPolicy. */
+    public static String getOutboundOverflowPolicy() {
+        String policy = get("server.outbound.overflow", "DROP_LOSSY").toUpperCase();
+        return "DISCONNECT".equals(policy) ? policy : "DROP_LOSSY";
+    }
+
+    /** Écriture groupée des messages : nombre max de messages par transaction. */
+    public static int getGroupCommitSize() {
+        return Math.max(1, getInt("db.groupcommit.size", 200));
+    }
+
+    /** Écriture groupée des messages : attente max (ms) après le premier message d'un groupe. */
+    public static int getGroupCommitDelayMillis() {
+        return Math.max(0, getInt("db.groupcommit.delay.ms", 2));
+    }
+
+    /** Pool JDBC : nombre max de connexions. */
+    public static int getPoolMaxSize() {
+        return Math.max(1, getInt("db.pool.size", 20));
+    }
+
+    /** Pool JDBC : connexions inactives gardées ouvertes (défaut = taille max, pool fixe). */
+    public static int getPoolMinIdle() {
+        return Math.max(0, getInt("db.pool.min.idle", getPoolMaxSize()));
+    }
+
+    /** Pool JDBC : attente max (ms) d'une connexion libre avant erreur. */
+    public static int getPoolConnectionTimeoutMillis() {
+        return Math.max(250, getInt("db.pool.connection.timeout.ms", 5000));
+    }
+
+    /** Pool JDBC : fermeture (ms) des connexions inactives au-delà de min.idle. */
+    public static int getPoolIdleTimeoutMillis() {
+        return Math.max(0, getInt("db.pool.idle.timeout.ms", 600_000));
+    }
+
+    /** Pool JDBC : durée de vie max (ms) d'une connexion, à garder sous le wait_timeout de MySQL. */
+    public static int getPoolMaxLifetimeMillis() {
+        return Math.max(0, getInt("db.pool.max.lifetime.ms", 1_800_000));
+    }
+
+    /** Pool JDBC : signale une connexion empruntée plus longtemps que ce délai (ms) ; 0 = désactivé. */
+    public static int getPoolLeakDetectionMillis() {
+        return Math.max(0, getInt("db.pool.leak.detection.ms", 0));
+    }
+
+    /** Cache des requêtes préparées par connexion (pilote MySQL) ; 0 = désactivé. */
+    public static int getPreparedStatementCacheSize() {
+        return Math.max(0, getInt("db.pool.stmt.cache.size", 250));
+    }
+
+    /** Utilisateurs autorisés à demander STATS ; vide (défaut) = tout utilisateur connecté depuis la machine du serveur. */
+    public static Set<String> getAdminUsers() {
+        Set<String> admins = new HashSet<>();
+        for (String name : get("server.admin.users", "").split(",")) {
+            if (!name.isBlank()) admins.add(name.trim());
         }
+        return admins;
+    }
+
+    /** Cluster : identifiant de ce nœud ; vide = serveur seul (pas de cluster). */
+    public static String getClusterNode() {
+        String node = get("cluster.node", "");
+        return node.isBlank() ? null : node;
+    }
+
+    /** Cluster : transport entre nœuds, "tcp" (cluster.port / cluster.peers) ou "inproc" (nœuds d'une même JVM). */
+    public static String getClusterTransport() {
+        return get("cluster.transport", "tcp");
+    }
+
+    /** Cluster : port TCP sur lequel ce nœud reçoit les autres nœuds. */
+    public static int getClusterPort() {
+        return getInt("cluster.port", 12400);
+    }
+
+    /** Cluster : adresse sur laquelle ce nœud écoute les autres nœuds (localhost par défaut, jamais toutes les interfaces sans le demander). */
+    public static String getClusterBindAddress() {
+        return get("cluster.bind", "127.0.0.1");
+    }
+
+    /** Cluster : secret partagé présenté par chaque nœud à la connexion (NODE_HELLO) ; obligatoire en tcp. */
+    public static String getClusterSecret() {
+        return get("cluster.secret", "");
+    }
+
+    /** Cluster : nœuds du cluster, "node1=hôte:port,node2=hôte:port,..." (l'entrée de ce nœud est ignorée). */
+    public static String getClusterPeers() {
+        return get("cluster.peers", "");
+    }
+
+    /** Cluster : lignes en attente au plus par nœud destinataire ; au-delà elles sont perdues (cluster.dropped). */
+    public static int getClusterQueueSize() {
+        return Math.max(16, getInt("cluster.queue.size", 10000));
+    }
+
+    /** Annuaire des utilisateurs en mémoire : 0 = tous les utilisateurs, sinon nombre max d'entrées (LRU approché). */
+    public static int getUserCacheMaxEntries() {
+        return Math.max(0, getInt("users.cache.max", 0));
+    }
+
+    /** Présence : nombre de changements gardés pour les resynchronisations par delta (USERLIST|version). */
+    public static int getPresenceLogSize() {
+        return Math.max(16, getInt("presence.log.size", 4096));
+    }
+
+    /** Présence : changements d'un même utilisateur regroupés pendant cette fenêtre (ms) avant diffusion. */
+    public static int getPresenceCoalesceMillis() {
+        return Math.max(0, getInt("presence.coalesce.ms", 500));
+    }
+
+    /** Présence : abonnements explicites (PRESENCE_SUB) gardés au plus par client. */
+    public static int getPresenceMaxSubscriptions() {
+        return Math.max(0, getInt("presence.max.subscriptions", 500));
+    }
+
+    /** Saisie en cours : un TYPING_START répété dans cette fenêtre (ms) n'est pas relayé à nouveau. */
+    public static int getTypingCoalesceMillis() {
+        return Math.max(0, getInt("typing.coalesce.ms", 3000));
+    }
+
+    /** Saisie en cours : TYPING_STOP envoyé par le serveur si aucun TYPING_START ne prolonge l'indicateur (ms). */
+    public static int getTypingExpiryMillis() {
+        return Math.max(1000, getInt("typing.expiry.ms", 6000));
+    }
+
+    /** Saisie en cours : indicateurs relayés au plus par seconde et par expéditeur. */
+    public static int getTypingRatePerSecond() {
+        return Math.max(1, getInt("typing.rate.per.sec", 5));
+    }
+
+    /** Journal serveur : niveau minimal (DEBUG, INFO, WARN, ERROR). */
+    public static String getLogLevel() {
+        return get("log.level", "INFO");
+    }
+
+    /** Journal serveur : écriture sur la sortie standard. */
+    public static boolean isLogConsole() {
+        return Boolean.parseBoolean(get("log.console", "true"));
+    }
+
+    /** Journal serveur : fichier tournant ; vide (défaut) = pas de fichier. */
+    public static String getLogFile() {
+        return get("log.file", "");
+    }
+
+    /** Journal serveur : taille max (Mo) du fichier avant rotation. */
+    public static long getLogFileMaxBytes() {
+        return Math.max(1, getInt("log.file.max.mb", 10)) * 1024L * 1024L;
+    }
+
+    /** Journal serveur : nombre de fichiers archivés gardés (log.file.1 .. log.file.N). */
+    public static int getLogFileCount() {
+        return Math.max(1, getInt("log.file.count", 5));
+    }
+
+    /** Journal serveur : lignes en attente d'écriture (puissance de 2) ; au-delà, les lignes sont perdues. */
+    public static int getLogBufferSize() {
+        return Math.max(64, getInt("log.buffer.size", 8192));
+    }
+
+    /** Trames côté client : "binary" (défaut, repli automatique en texte face à un ancien serveur) ou "text". */
+    public static boolean isClientBinaryFraming() {
+        return !"text".equalsIgnoreCase(get("client.framing", "binary"));
     }
 
     private AppConfig() {}
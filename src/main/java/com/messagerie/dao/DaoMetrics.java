@@ -0,0 +1,59 @@
+package com.messagerie.dao;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Time spent in each DAO call (connection wait included), to see where server time goes under load.
+ * One slot per Operation recorded with LongAdder / LongAccumulator only: many handler threads record at
+ * once without contending on a lock. Read by the server metrics registry (STATS, JMX).
+ */
+public final class DaoMetrics {
+
+    public enum Operation {
+        USER_REGISTER, USER_AUTHENTICATE, USER_UPDATE_STATUS, USER_UPDATE_LAST_SEEN,
+        USER_FIND_BY_USERNAME, USER_FIND_BY_ID, USER_FIND_ALL,
+        MESSAGE_SAVE, MESSAGE_BATCH_INSERT, MESSAGE_CONVERSATION, MESSAGE_CONVERSATION_PAGE,
+        MESSAGE_PENDING, MESSAGE_UPDATE_STATUS, MESSAGE_MARK_RECEIVED, MESSAGE_MARK_READ, MESSAGE_PARTNERS,
+        MESSAGE_LAST_RECEIVED,
+        REACTION_TOGGLE, REACTION_FIND
+    }
+
+    private static final Operation[] OPERATIONS = Operation.values();
+    private static final LongAdder[] calls = new LongAdder[OPERATIONS.length];
+    private static final LongAdder[] totalNanos = new LongAdder[OPERATIONS.length];
+    private static final LongAccumulator[] maxNanos = new LongAccumulator[OPERATIONS.length];
+
+    static {
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            calls[i] = new LongAdder();
+            totalNanos[i] = new LongAdder();
+            maxNanos[i] = new LongAccumulator(Math::max, 0);
+        }
+    }
+
+    /** Records one call that started at {@code startNanos} (System.nanoTime()). */
+    static void record(Operation op, long startNanos) {
+        long elapsed = System.nanoTime() - startNanos;
+        int i = op.ordinal();
+        calls[i].increment();
+        totalNanos[i].add(elapsed);
+        maxNanos[i].accumulate(elapsed);
+    }
+
+    public static long getCalls(Operation op) {
+        return calls[op.ordinal()].sum();
+    }
+
+    public static double getMeanMicros(Operation op) {
+        long n = calls[op.ordinal()].sum();
+        return n == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalNanos[op.ordinal()].sum()) / (double) n;
+    }
+
+    public static long getMaxMicros(Operation op) {
+        return TimeUnit.NANOSECONDS.toMicros(maxNanos[op.ordinal()].get());
+    }
+
+    private DaoMetrics() {}
+}
@@ -1,6 +1,8 @@
 package com.messagerie.dao;
 
 import com.messagerie.config.AppConfig;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
 
 import jakarta.persistence.EntityManagerFactory;
 import jakarta.persistence.Persistence;
@@ -13,14 +15,20 @@ import java.util.logging.Logger;
 public class HibernateUtil {
 
     private static final Logger LOG = Logger.getLogger(HibernateUtil.class.getName());
+    private static final PoolMetrics poolMetrics = new PoolMetrics();
+    private static final HikariDataSource dataSource;
     private static final EntityManagerFactory emf;
 
     static {
         try {
+            dataSource = createDataSource();
+            poolMetrics.attach(dataSource.getHikariPoolMXBean());
             Map<String, Object> overrides = new HashMap<>();
-            overrides.put("jakarta.persistence.jdbc.url", AppConfig.getJdbcUrl());
-            overrides.put("jakarta.persistence.jdbc.user", AppConfig.getJdbcUser());
-            overrides.put("jakarta.persistence.jdbc.password", AppConfig.getJdbcPassword());
+            // Hibernate emprunte ses connexions au pool au lieu de son provider intégré
+            overrides.put("hibernate.connection.datasource", dataSource);
+            // Dialecte et stratégie DDL du profil de base (AppConfig.getDbProfile)
+            overrides.put("hibernate.dialect", AppConfig.getHibernateDialect());
+            overrides.put("hibernate.hbm2ddl.auto", AppConfig.getDdlStrategy());
             emf = Persistence.createEntityManagerFactory("messageriePU", overrides);
         } catch (Exception e) {
             LOG.log(Level.SEVERE, "Erreur initialisation Hibernate: " + e.getMessage(), e);
@@ -28,13 +36,47 @@ public class HibernateUtil {
         }
     }
 
+    private static HikariDataSource createDataSource() {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("messagerie-pool");
+        config.setDriverClassName(AppConfig.getJdbcDriver());
+        config.setJdbcUrl(AppConfig.getJdbcUrl());
+        config.setUsername(AppConfig.getJdbcUser());
+        config.setPassword(AppConfig.getJdbcPassword());
+        config.setMaximumPoolSize(AppConfig.getPoolMaxSize());
+        config.setMinimumIdle(Math.min(AppConfig.getPoolMinIdle(), AppConfig.getPoolMaxSize()));
+        config.setConnectionTimeout(AppConfig.getPoolConnectionTimeoutMillis());
+        config.setIdleTimeout(AppConfig.getPoolIdleTimeoutMillis());
+        config.setMaxLifetime(AppConfig.getPoolMaxLifetimeMillis());
+        config.setLeakDetectionThreshold(AppConfig.getPoolLeakDetectionMillis());
+        config.setMetricsTrackerFactory(poolMetrics);
+
+        int stmtCache = AppConfig.getPreparedStatementCacheSize();
+        if (stmtCache > 0 && AppConfig.getDbProfile() == AppConfig.DbProfile.MYSQL) {
+            // Cache côté pilote des requêtes préparées (parsing évité à chaque DAO); requêtes préparées
+            // côté client pour garder rewriteBatchedStatements sur les INSERT groupés
+            config.addDataSourceProperty("cachePrepStmts", "true");
+            config.addDataSourceProperty("prepStmtCacheSize", String.valueOf(stmtCache));
+            config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+        }
+        return new HikariDataSource(config);
+    }
+
     public static EntityManagerFactory getEntityManagerFactory() {
         return emf;
     }
 
+    /** Utilization and wait-time metrics of the JDBC connection pool. */
+    public static PoolMetrics getPoolMetrics() {
+        return poolMetrics;
+    }
+
     public static void shutdown() {
         if (emf != null && emf.isOpen()) {
             emf.close();
         }
+        if (dataSource != null && !dataSource.isClosed()) {
+            dataSource.close();
+        }
     }
 }
@@ -5,12 +5,24 @@ import com.messagerie.model.MessageStatus;
 import com.messagerie.model.User;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.EntityTransaction;
+import jakarta.persistence.TypedQuery;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 public class MessageDAO {
 
+    /** Read watermark: every message {@code senderId} sent to {@code readerId} up to {@code upToId} is read. */
+    public record ReadMark(Long readerId, Long senderId, long upToId) {}
+
     public Message save(Message message) {
+        long start = System.nanoTime();
         EntityManager em = HibernateUtil.getEntityManagerFactory().createEntityManager();
         EntityTransaction tx = em.getTransaction();
         try {
@@ -24,50 +36,155 @@ public class MessageDAO {
             return null;
         } finally {
             em.close();
+            DaoMetrics.record(DaoMetrics.Operation.MESSAGE_SAVE, start);
         }
     }
 
+    /** Group commit (see MessageWriteBehind): completes with the saved message once durable, or null on failure. */
+    public CompletableFuture<Message> saveAsync(Message message) {
+        return MessageWriteBehind.getInstance().submit(message);
+    }
+
     // RG8: historique par ordre chronologique
     public List<Message> getConversation(Long userId1, Long userId2) {
+        long start = System.nanoTime();
         EntityManager em = HibernateUtil.getEntityManagerFactory().createEntityManager();
         try {
+            // Index (conversation_key, id): les ids croissent avec l'ordre d'insertion
             return em.createQuery(
-                    "SELECT m FROM Message m WHERE " +
-                    "(m.sender.id = :u1 AND m.receiver.id = :u2) OR " +
-                    "(m.sender.id = :u2 AND m.receiver.id = :u1) " +
-                    "ORDER BY m.dateEnvoi ASC", Message.class)
-                    .setParameter("u1", userId1)
-                    .setParameter("u2", userId2)
+                    "SELECT m FROM Message m WHERE m.conversationKey = :key ORDER BY m.id ASC", Message.class)
+                    .setParameter("key", Message.conversationKey(userId1, userId2))
                     .getResultList();
         } finally {
             em.close();
+            DaoMetrics.record(DaoMetrics.Operation.MESSAGE_CONVERSATION, start);
+        }
+    }
+
+    /**
+     * Keyset pagination on the (conversation_key, id) index: at most {@code limit} messages strictly before
+     * {@code beforeId} (or the latest ones when both cursors are null), or strictly after {@code afterId}.
+     * Returned oldest first (RG8); ids grow with insertion order so they give the chronological order.
+     */
+    public List<Message> getConversationPage(Long userId1, Long userId2, Long beforeId, Long afterId, int limit) {
+        long start = System.nanoTime();
+        EntityManager em = HibernateUtil.getEntityManagerFactory().createEntityManager();
+        try {
+            boolean forward = afterId != null;
+            String jpql = "SELECT m FROM Message m WHERE m.conversationKey = :key" +
+                    (forward ? " AND m.id > :cursor ORDER BY m.id ASC"
+                             : (beforeId != null ? " AND m.id < :cursor" : "") + " ORDER BY m.id DESC");
+            TypedQuery<Message> query = em.createQuery(jpql, Message.class)
+                    .setParameter("key", Message.conversationKey(userId1, userId2))
+                    .setMaxResults(limit);
+            if (forward) query.setParameter("cursor", afterId);
+            else if (beforeId != null) query.setParameter("cursor", beforeId);
+            List<Message> page = new ArrayList<>(query.getResultList());
+            if (!forward) Collections.reverse(page);
+            return page;
+        } finally {
+            em.close();
+            DaoMetrics.record(DaoMetrics.Operation.MESSAGE_CONVERSATION_PAGE, start);
+        }
+    }
+
+    /** Id of the last message {@code senderId} sent to {@code receiverId}, 0 if none (bound of a read watermark). */
+    public long getLastReceivedId(Long senderId, Long receiverId) {
+        long start = System.nanoTime();
+        EntityManager em = HibernateUtil.getEntityManagerFactory().createEntityManager();
+        try {
+            // Index (conversation_key, id), le destinataire écartant les messages de l'autre sens
+            Long id = em.createQuery("SELECT MAX(m.id) FROM Message m WHERE m.conversationKey = :key " +
+                            "AND m.receiver.id = :receiverId", Long.class)
+                    .setParameter("key", Message.conversationKey(senderId, receiverId))
+                    .setParameter("receiverId", receiverId)
+                    .getSingleResult();
+            return id != null ? id : 0;
+        } finally {
+            em.close();
+            DaoMetrics.record(DaoMetrics.Operation.MESSAGE_LAST_RECEIVED, start);
+        }
+    }
+
+    /** Usernames of everyone {@code userId} has exchanged at least one message with, in either direction. */
+    public Set<String> getConversationPartners(Long userId) {
+        long start = System.nanoTime();
+        EntityManager em = HibernateUtil.getEntityManagerFactory().createEntityManager();
+        try {
+            // Deux requêtes plutôt qu'un OR: chacune reste sur l'index de sa clé étrangère
+            Set<String> partners = new HashSet<>(em.createQuery(
+                    "SELECT DISTINCT m.receiver.username FROM Message m WHERE m.sender.id = :id", String.class)
+                    .setParameter("id", userId)
+                    .getResultList());
+            partners.addAll(em.createQuery(
+                    "SELECT DISTINCT m.sender.username FROM Message m WHERE m.receiver.id = :id", String.class)
+                    .setParameter("id", userId)
+                    .getResultList());
+            return partners;
+        } finally {
+            em.close();
+            DaoMetrics.record(DaoMetrics.Operation.MESSAGE_PARTNERS, start);
         }
     }
 
-    // RG6: messages en attente pour un utilisateur hors ligne
+    // RG6: messages en attente pour un utilisateur hors ligne (index receiver_id, statut, id)
     public List<Message> getPendingMessages(Long receiverId) {
+        long start = System.nanoTime();
         EntityManager em = HibernateUtil.getEntityManagerFactory().createEntityManager();
         try {
             return em.createQuery(
-                    "SELECT m FROM Message m WHERE m.receiver.id = :receiverId AND m.statut = :statut ORDER BY m.dateEnvoi ASC",
+                    "SELECT m FROM Message m WHERE m.receiver.id = :receiverId AND m.statut = :statut ORDER BY m.id ASC",
                     Message.class)
                     .setParameter("receiverId", receiverId)
                     .setParameter("statut", MessageStatus.ENVOYE)
                     .getResultList();
         } finally {
             em.close();
+            DaoMetrics.record(DaoMetrics.Operation.MESSAGE_PENDING, start);
         }
     }
 
+    /** Moves the message forward to {@code status} (ENVOYE -> RECU -> LU), never back: a late RECU keeps LU. */
     public void updateStatus(Long messageId, MessageStatus status) {
+        long start = System.nanoTime();
         EntityManager em = HibernateUtil.getEntityManagerFactory().createEntityManager();
         EntityTransaction tx = em.getTransaction();
         try {
             tx.begin();
-            Message msg = em.find(Message.class, messageId);
-            if (msg != null) {
-                msg.setStatut(status);
-                em.merge(msg);
+            em.createQuery("UPDATE Message m SET m.statut = :status WHERE m.id = :id AND m.statut IN :previous")
+                    .setParameter("status", status)
+                    .setParameter("id", messageId)
+                    .setParameter("previous", Arrays.asList(MessageStatus.values()).subList(0, status.ordinal()))
+                    .executeUpdate();
+            tx.commit();
+        } catch (Exception e) {
+            if (tx.isActive()) tx.rollback();
+            e.printStackTrace();
+        } finally {
+            em.close();
+            DaoMetrics.record(DaoMetrics.Operation.MESSAGE_UPDATE_STATUS, start);
+        }
+    }
+
+    /**
+     * Read receipts, in a single transaction: one range UPDATE per conversation on the (conversation_key, id)
+     * index, whatever the number of messages it covers.
+     */
+    public void markRead(Collection<ReadMark> marks) {
+        if (marks.isEmpty()) return;
+        long start = System.nanoTime();
+        EntityManager em = HibernateUtil.getEntityManagerFactory().createEntityManager();
+        EntityTransaction tx = em.getTransaction();
+        try {
+            tx.begin();
+            for (ReadMark mark : marks) {
+                em.createQuery("UPDATE Message m SET m.statut = :lu WHERE m.conversationKey = :key " +
+                                "AND m.id <= :upTo AND m.receiver.id = :readerId AND m.statut <> :lu")
+                        .setParameter("lu", MessageStatus.LU)
+                        .setParameter("key", Message.conversationKey(mark.readerId(), mark.senderId()))
+                        .setParameter("upTo", mark.upToId())
+                        .setParameter("readerId", mark.readerId())
+                        .executeUpdate();
             }
             tx.commit();
         } catch (Exception e) {
@@ -75,10 +192,35 @@ public class MessageDAO {
             e.printStackTrace();
         } finally {
             em.close();
+            DaoMetrics.record(DaoMetrics.Operation.MESSAGE_MARK_READ, start);
+        }
+    }
+
+    /** Marks the given messages RECU in one UPDATE, those still ENVOYE only (a message already LU stays LU). */
+    public void markReceived(Collection<Long> messageIds) {
+        if (messageIds.isEmpty()) return;
+        long start = System.nanoTime();
+        EntityManager em = HibernateUtil.getEntityManagerFactory().createEntityManager();
+        EntityTransaction tx = em.getTransaction();
+        try {
+            tx.begin();
+            em.createQuery("UPDATE Message m SET m.statut = :newStatus WHERE m.id IN :ids AND m.statut = :oldStatus")
+                    .setParameter("newStatus", MessageStatus.RECU)
+                    .setParameter("ids", messageIds)
+                    .setParameter("oldStatus", MessageStatus.ENVOYE)
+                    .executeUpdate();
+            tx.commit();
+        } catch (Exception e) {
+            if (tx.isActive()) tx.rollback();
+            e.printStackTrace();
+        } finally {
+            em.close();
+            DaoMetrics.record(DaoMetrics.Operation.MESSAGE_MARK_RECEIVED, start);
         }
     }
 
     public void markAsReceived(Long receiverId) {
+        long start = System.nanoTime();
         EntityManager em = HibernateUtil.getEntityManagerFactory().createEntityManager();
         EntityTransaction tx = em.getTransaction();
         try {
@@ -94,6 +236,7 @@ public class MessageDAO {
             e.printStackTrace();
         } finally {
             em.close();
+            DaoMetrics.record(DaoMetrics.Operation.MESSAGE_MARK_RECEIVED, start);
         }
     }
 }
@@ -0,0 +1,195 @@
+package com.messagerie.dao;
+
+import com.messagerie.config.AppConfig;
+import com.messagerie.model.Message;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityTransaction;
+import org.hibernate.Session;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Group commit for chat messages: messages submitted by every handler are collected by one writer thread
+ * and inserted as a JDBC batch inside a single transaction, so one commit (one fsync) covers a whole group.
+ * A group is written as soon as it holds db.groupcommit.size messages or db.groupcommit.delay.ms after its
+ * first message. The returned future completes once the transaction has committed (null on failure, like
+ * MessageDAO.save).
+ */
+public final class MessageWriteBehind {
+
+    private static final Logger LOG = Logger.getLogger(MessageWriteBehind.class.getName());
+
+    // JDBC direct: avec IDENTITY, Hibernate désactive le batching des INSERT
+    private static final String INSERT_SQL =
+            "INSERT INTO messages (sender_id, receiver_id, conversation_key, contenu, dateEnvoi, statut) VALUES (?, ?, ?, ?, ?, ?)";
+
+    private static MessageWriteBehind instance;
+
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final int maxBatch;
+    private final long maxDelayNanos;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private final LongAdder committedMessages = new LongAdder();
+    private final LongAdder committedBatches = new LongAdder();
+    private final LongAdder failedMessages = new LongAdder();
+
+    private record Pending(Message message, CompletableFuture<Message> future) {}
+
+    MessageWriteBehind(int maxBatch, long maxDelayMillis) {
+        this.maxBatch = maxBatch;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.writer = new Thread(this::writeLoop, "message-write-behind");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public static synchronized MessageWriteBehind getInstance() {
+        if (instance == null) {
+            instance = new MessageWriteBehind(AppConfig.getGroupCommitSize(), AppConfig.getGroupCommitDelayMillis());
+        }
+        return instance;
+    }
+
+    /** Flushes what is queued and stops the writer; called before HibernateUtil.shutdown(). */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            instance.stop();
+            instance = null;
+        }
+    }
+
+    public CompletableFuture<Message> submit(Message message) {
+        CompletableFuture<Message> future = new CompletableFuture<>();
+        if (!running) {
+            future.complete(null);
+            return future;
+        }
+        Pending pending = new Pending(message, future);
+        queue.add(pending);
+        // stop() entre la lecture de running et add(): l'écrivain a pu sortir sans voir ce message
+        if (!running && queue.remove(pending)) future.complete(null);
+        return future;
+    }
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < maxBatch) {
+                    queue.drainTo(batch, maxBatch - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= maxBatch || remaining <= 0) break;
+                    Pending next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                if (!running) queue.drainTo(batch, maxBatch);
+            }
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<Pending> batch) {
+        long start = System.nanoTime();
+        EntityManager em = HibernateUtil.getEntityManagerFactory().createEntityManager();
+        EntityTransaction tx = em.getTransaction();
+        try {
+            tx.begin();
+            em.unwrap(Session.class).doWork(connection -> {
+                try (PreparedStatement ps = connection.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS)) {
+                    for (Pending p : batch) {
+                        Message m = p.message();
+                        ps.setLong(1, m.getSender().getId());
+                        ps.setLong(2, m.getReceiver().getId());
+                        ps.setString(3, Message.conversationKey(m.getSender().getId(), m.getReceiver().getId()));
+                        ps.setString(4, m.getContenu());
+                        ps.setTimestamp(5, Timestamp.valueOf(m.getDateEnvoi()));
+                        ps.setString(6, m.getStatut().name());
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                    try (ResultSet keys = ps.getGeneratedKeys()) {
+                        for (Pending p : batch) {
+                            // Id manquant: échec avant le commit, sinon un message stocké serait annoncé MSG_FAIL
+                            if (!keys.next()) {
+                                throw new SQLException("Clés générées incomplètes pour le lot de " + batch.size() + " messages");
+                            }
+                            p.message().setId(keys.getLong(1));
+                        }
+                    }
+                }
+            });
+            tx.commit();
+            committedMessages.add(batch.size());
+            committedBatches.increment();
+            for (Pending p : batch) {
+                p.future().complete(p.message());
+            }
+        } catch (Exception e) {
+            if (tx.isActive()) tx.rollback();
+            LOG.log(Level.SEVERE, "Échec de l'écriture groupée de " + batch.size() + " messages", e);
+            failedMessages.add(batch.size());
+            for (Pending p : batch) {
+                p.message().setId(null);
+                p.future().complete(null);
+            }
+        } finally {
+            em.close();
+            DaoMetrics.record(DaoMetrics.Operation.MESSAGE_BATCH_INSERT, start);
+        }
+    }
+
+    private void stop() {
+        running = false;
+        writer.interrupt();
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Restes non écrits (écrivain bloqué au-delà du délai): échec plutôt qu'un appelant suspendu à jamais
+        for (Pending p; (p = queue.poll()) != null; ) {
+            failedMessages.increment();
+            p.future().complete(null);
+        }
+    }
+
+    public long getCommittedMessages() {
+        return committedMessages.sum();
+    }
+
+    public long getCommittedBatches() {
+        return committedBatches.sum();
+    }
+
+    public long getFailedMessages() {
+        return failedMessages.sum();
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+}
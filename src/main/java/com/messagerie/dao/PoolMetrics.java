@@ -0,0 +1,119 @@
+package com.messagerie.dao;
+
+import com.zaxxer.hikari.HikariPoolMXBean;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Connection pool metrics, to size db.pool.size under load: utilization (active / total connections,
+ * threads waiting) read from the pool, and cumulative time spent waiting for / holding a connection,
+ * recorded by the pool itself through the MetricsTrackerFactory hook.
+ */
+public final class PoolMetrics implements MetricsTrackerFactory {
+
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder acquireNanos = new LongAdder();
+    private final LongAccumulator maxAcquireNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder usageMillis = new LongAdder();
+    private final LongAccumulator maxUsageMillis = new LongAccumulator(Math::max, 0);
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder connectionsCreated = new LongAdder();
+    private volatile HikariPoolMXBean pool;
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionCreatedMillis(long connectionCreatedMillis) {
+                connectionsCreated.increment();
+            }
+
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                acquisitions.increment();
+                acquireNanos.add(elapsedAcquiredNanos);
+                maxAcquireNanos.accumulate(elapsedAcquiredNanos);
+            }
+
+            @Override
+            public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+                usageMillis.add(elapsedBorrowedMillis);
+                maxUsageMillis.accumulate(elapsedBorrowedMillis);
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                timeouts.increment();
+            }
+        };
+    }
+
+    void attach(HikariPoolMXBean pool) {
+        this.pool = pool;
+    }
+
+    public int getActiveConnections() {
+        HikariPoolMXBean p = pool;
+        return p != null ? p.getActiveConnections() : 0;
+    }
+
+    public int getIdleConnections() {
+        HikariPoolMXBean p = pool;
+        return p != null ? p.getIdleConnections() : 0;
+    }
+
+    public int getTotalConnections() {
+        HikariPoolMXBean p = pool;
+        return p != null ? p.getTotalConnections() : 0;
+    }
+
+    /** Threads blocked in getConnection() right now: > 0 means the pool is the bottleneck. */
+    public int getThreadsAwaitingConnection() {
+        HikariPoolMXBean p = pool;
+        return p != null ? p.getThreadsAwaitingConnection() : 0;
+    }
+
+    /** Active / total connections, between 0 and 1. */
+    public double getUtilization() {
+        int total = getTotalConnections();
+        return total == 0 ? 0 : (double) getActiveConnections() / total;
+    }
+
+    public long getAcquisitions() {
+        return acquisitions.sum();
+    }
+
+    /** Mean time (µs) to obtain a connection since startup. */
+    public double getMeanAcquireMicros() {
+        long n = acquisitions.sum();
+        return n == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(acquireNanos.sum()) / (double) n;
+    }
+
+    public long getMaxAcquireMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxAcquireNanos.get());
+    }
+
+    /** Mean time (ms) a connection is held by its borrower. */
+    public double getMeanUsageMillis() {
+        long n = acquisitions.sum();
+        return n == 0 ? 0 : usageMillis.sum() / (double) n;
+    }
+
+    public long getMaxUsageMillis() {
+        return maxUsageMillis.get();
+    }
+
+    /** getConnection() calls that gave up after db.pool.connection.timeout.ms. */
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    public long getConnectionsCreated() {
+        return connectionsCreated.sum();
+    }
+}
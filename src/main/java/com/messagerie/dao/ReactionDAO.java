@@ -0,0 +1,92 @@
+package com.messagerie.dao;
+
+import com.messagerie.model.Message;
+import com.messagerie.model.Reaction;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityTransaction;
+import jakarta.persistence.LockModeType;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+public class ReactionDAO {
+
+    /**
+     * Outcome of a toggle: the message (for its two participants), the new count for the emoji, and whether
+     * anything changed (adding a reaction twice, or removing one never added, changes nothing).
+     */
+    public record Toggle(Message message, int count, boolean changed) {}
+
+    /**
+     * Adds or removes {@code userId}'s reaction on a message, updating the aggregated row in place (row lock,
+     * so both participants may react at once). Only a participant of the conversation may react.
+     * @return null if the message does not exist, the user is not a participant, or the update failed
+     */
+    public Toggle toggle(Long messageId, Long userId, String emoji, boolean add) {
+        long start = System.nanoTime();
+        try {
+            // Deux premières réactions simultanées: la seconde insertion viole la contrainte unique, on relit
+            for (int attempt = 0; attempt < 2; attempt++) {
+                EntityManager em = HibernateUtil.getEntityManagerFactory().createEntityManager();
+                EntityTransaction tx = em.getTransaction();
+                try {
+                    tx.begin();
+                    Message message = em.find(Message.class, messageId);
+                    if (message == null || !(message.getSender().getId().equals(userId)
+                            || message.getReceiver().getId().equals(userId))) {
+                        tx.rollback();
+                        return null;
+                    }
+                    List<Reaction> rows = em.createQuery(
+                            "SELECT r FROM Reaction r WHERE r.messageId = :messageId AND r.emoji = :emoji", Reaction.class)
+                            .setParameter("messageId", messageId)
+                            .setParameter("emoji", emoji)
+                            .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                            .getResultList();
+                    Reaction reaction = rows.isEmpty() ? null : rows.get(0);
+                    boolean present = reaction != null && reaction.hasUser(userId);
+                    if (present == add) {
+                        tx.commit();
+                        return new Toggle(message, reaction != null ? reaction.getCount() : 0, false);
+                    }
+                    if (add) {
+                        if (reaction == null) {
+                            reaction = new Reaction(messageId, emoji);
+                            em.persist(reaction);
+                        }
+                        reaction.addUser(userId);
+                    } else {
+                        reaction.removeUser(userId);
+                        if (reaction.getCount() == 0) em.remove(reaction);
+                    }
+                    tx.commit();
+                    return new Toggle(message, reaction.getCount(), true);
+                } catch (Exception e) {
+                    if (tx.isActive()) tx.rollback();
+                    if (attempt == 1) e.printStackTrace();
+                } finally {
+                    em.close();
+                }
+            }
+            return null;
+        } finally {
+            DaoMetrics.record(DaoMetrics.Operation.REACTION_TOGGLE, start);
+        }
+    }
+
+    /** Reactions of several messages (e.g. one history page) in a single query on the (message_id, emoji) index. */
+    public List<Reaction> findByMessageIds(Collection<Long> messageIds) {
+        if (messageIds.isEmpty()) return new ArrayList<>();
+        long start = System.nanoTime();
+        EntityManager em = HibernateUtil.getEntityManagerFactory().createEntityManager();
+        try {
+            return em.createQuery("SELECT r FROM Reaction r WHERE r.messageId IN :ids ORDER BY r.id", Reaction.class)
+                    .setParameter("ids", messageIds)
+                    .getResultList();
+        } finally {
+            em.close();
+            DaoMetrics.record(DaoMetrics.Operation.REACTION_FIND, start);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.messagerie.dao;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityTransaction;
+import org.hibernate.Session;
+
+import java.sql.PreparedStatement;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Data migrations that hbm2ddl=update cannot do (it only adds columns and indexes).
+ * Run once at server startup, after Hibernate has created the schema; each step is idempotent.
+ */
+public final class SchemaMigration {
+
+    private static final Logger LOG = Logger.getLogger(SchemaMigration.class.getName());
+
+    /** Ids traités par transaction: des verrous courts, pas de transaction géante sur une grosse table. */
+    private static final long BACKFILL_CHUNK = 10_000;
+    /** Essais d'une tranche avant d'abandonner le démarrage. */
+    private static final int BACKFILL_ATTEMPTS = 3;
+
+    // SQL portable (MySQL, H2): CASE + CONCAT plutôt que LEAST/GREATEST ou ||
+    private static final String BACKFILL_SQL =
+            "UPDATE messages SET conversation_key = CASE WHEN sender_id <= receiver_id" +
+            " THEN CONCAT(sender_id, ':', receiver_id) ELSE CONCAT(receiver_id, ':', sender_id) END" +
+            " WHERE id >= ? AND id < ? AND conversation_key IS NULL";
+
+    private SchemaMigration() {}
+
+    public static void run() {
+        backfillConversationKeys();
+    }
+
+    /**
+     * Fills messages.conversation_key for rows written before the column existed, walking the id range in
+     * chunks of BACKFILL_CHUNK ids, one transaction each. New rows get their key on insert.
+     * A chunk that still fails after BACKFILL_ATTEMPTS tries stops the startup: its rows would be missing
+     * from every history, which is keyed.
+     * @return number of rows updated
+     * @throws IllegalStateException if a chunk cannot be filled
+     */
+    static long backfillConversationKeys() {
+        long[] range = pendingRange();
+        if (range == null) return 0;
+        long updated = 0;
+        for (long from = range[0]; from <= range[1]; from += BACKFILL_CHUNK) {
+            updated += backfillChunkWithRetry(from, from + BACKFILL_CHUNK);
+        }
+        LOG.info("conversation_key renseignée pour " + updated + " messages existants.");
+        return updated;
+    }
+
+    /** {min id, max id} of the rows without conversation key, or null if there is none. */
+    private static long[] pendingRange() {
+        EntityManager em = HibernateUtil.getEntityManagerFactory().createEntityManager();
+        try {
+            Object[] row = (Object[]) em.createQuery(
+                    "SELECT MIN(m.id), MAX(m.id) FROM Message m WHERE m.conversationKey IS NULL")
+                    .getSingleResult();
+            if (row[0] == null) return null;
+            return new long[] {((Number) row[0]).longValue(), ((Number) row[1]).longValue()};
+        } finally {
+            em.close();
+        }
+    }
+
+    private static long backfillChunkWithRetry(long fromId, long toId) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return backfillChunk(fromId, toId);
+            } catch (RuntimeException e) {
+                LOG.log(Level.SEVERE, "Migration conversation_key impossible pour les ids [" + fromId + ", " + toId
+                        + "), essai " + attempt + "/" + BACKFILL_ATTEMPTS, e);
+                if (attempt == BACKFILL_ATTEMPTS) {
+                    // Démarrer quand même servirait des historiques incomplets
+                    throw new IllegalStateException("Migration conversation_key interrompue aux ids ["
+                            + fromId + ", " + toId + "), relancer le serveur une fois la base rétablie", e);
+                }
+            }
+            try {
+                Thread.sleep(attempt * 1000L); // verrou ou pool momentanément indisponible
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Migration conversation_key interrompue", e);
+            }
+        }
+    }
+
+    private static long backfillChunk(long fromId, long toId) {
+        EntityManager em = HibernateUtil.getEntityManagerFactory().createEntityManager();
+        EntityTransaction tx = em.getTransaction();
+        long[] updated = {0};
+        try {
+            tx.begin();
+            em.unwrap(Session.class).doWork(connection -> {
+                try (PreparedStatement ps = connection.prepareStatement(BACKFILL_SQL)) {
+                    ps.setLong(1, fromId);
+                    ps.setLong(2, toId);
+                    updated[0] = ps.executeUpdate();
+                }
+            });
+            tx.commit();
+            return updated[0];
+        } catch (RuntimeException e) {
+            if (tx.isActive()) tx.rollback();
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+}
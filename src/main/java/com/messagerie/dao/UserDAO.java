@@ -7,11 +7,14 @@ import jakarta.persistence.EntityTransaction;
 import jakarta.persistence.NoResultException;
 import org.mindrot.jbcrypt.BCrypt;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 
 public class UserDAO {
 
     public User register(String username, String password) {
+        long start = System.nanoTime();
         EntityManager em = HibernateUtil.getEntityManagerFactory().createEntityManager();
         EntityTransaction tx = em.getTransaction();
         try {
@@ -36,10 +39,12 @@ public class UserDAO {
             return null;
         } finally {
             em.close();
+            DaoMetrics.record(DaoMetrics.Operation.USER_REGISTER, start);
         }
     }
 
     public User authenticate(String username, String password) {
+        long start = System.nanoTime();
         EntityManager em = HibernateUtil.getEntityManagerFactory().createEntityManager();
         try {
             User user = em.createQuery("SELECT u FROM User u WHERE u.username = :username", User.class)
@@ -54,10 +59,12 @@ public class UserDAO {
             return null;
         } finally {
             em.close();
+            DaoMetrics.record(DaoMetrics.Operation.USER_AUTHENTICATE, start);
         }
     }
 
     public void updateStatus(Long userId, UserStatus status) {
+        long start = System.nanoTime();
         EntityManager em = HibernateUtil.getEntityManagerFactory().createEntityManager();
         EntityTransaction tx = em.getTransaction();
         try {
@@ -73,10 +80,36 @@ public class UserDAO {
             e.printStackTrace();
         } finally {
             em.close();
+            DaoMetrics.record(DaoMetrics.Operation.USER_UPDATE_STATUS, start);
+        }
+    }
+
+    /** "Last seen" times for several users, in a single transaction. */
+    public void updateLastSeen(Map<Long, LocalDateTime> lastSeenByUserId) {
+        if (lastSeenByUserId.isEmpty()) return;
+        long start = System.nanoTime();
+        EntityManager em = HibernateUtil.getEntityManagerFactory().createEntityManager();
+        EntityTransaction tx = em.getTransaction();
+        try {
+            tx.begin();
+            for (Map.Entry<Long, LocalDateTime> e : lastSeenByUserId.entrySet()) {
+                em.createQuery("UPDATE User u SET u.derniereConnexion = :t WHERE u.id = :id")
+                        .setParameter("t", e.getValue())
+                        .setParameter("id", e.getKey())
+                        .executeUpdate();
+            }
+            tx.commit();
+        } catch (Exception e) {
+            if (tx.isActive()) tx.rollback();
+            e.printStackTrace();
+        } finally {
+            em.close();
+            DaoMetrics.record(DaoMetrics.Operation.USER_UPDATE_LAST_SEEN, start);
         }
     }
 
     public User findByUsername(String username) {
+        long start = System.nanoTime();
         EntityManager em = HibernateUtil.getEntityManagerFactory().createEntityManager();
         try {
             return em.createQuery("SELECT u FROM User u WHERE u.username = :username", User.class)
@@ -86,16 +119,44 @@ public class UserDAO {
             return null;
         } finally {
             em.close();
+            DaoMetrics.record(DaoMetrics.Operation.USER_FIND_BY_USERNAME, start);
+        }
+    }
+
+    public User findById(Long id) {
+        long start = System.nanoTime();
+        EntityManager em = HibernateUtil.getEntityManagerFactory().createEntityManager();
+        try {
+            return em.find(User.class, id);
+        } finally {
+            em.close();
+            DaoMetrics.record(DaoMetrics.Operation.USER_FIND_BY_ID, start);
+        }
+    }
+
+    /** First {@code max} users by id (preload of a bounded UserDirectory). */
+    public List<User> findAll(int max) {
+        long start = System.nanoTime();
+        EntityManager em = HibernateUtil.getEntityManagerFactory().createEntityManager();
+        try {
+            return em.createQuery("SELECT u FROM User u ORDER BY u.id", User.class)
+                    .setMaxResults(max)
+                    .getResultList();
+        } finally {
+            em.close();
+            DaoMetrics.record(DaoMetrics.Operation.USER_FIND_ALL, start);
         }
     }
 
     public List<User> findAll() {
+        long start = System.nanoTime();
         EntityManager em = HibernateUtil.getEntityManagerFactory().createEntityManager();
         try {
             return em.createQuery("SELECT u FROM User u ORDER BY u.username", User.class)
                     .getResultList();
         } finally {
             em.close();
+            DaoMetrics.record(DaoMetrics.Operation.USER_FIND_ALL, start);
         }
     }
 
@@ -0,0 +1,158 @@
+package com.messagerie.dao;
+
+import com.messagerie.config.AppConfig;
+import com.messagerie.model.User;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process user directory in front of UserDAO, keyed by username and by id, so that hot paths
+ * (MSG, HISTORY) resolve users without a DB round trip. Loaded at server startup and updated on register.
+ *
+ * With users.cache.max = 0 (default) every user is kept. Otherwise the directory holds at most that many
+ * entries, filled on demand, and evicts an approximately least recently used one (sampled, no global lock).
+ * Cached users are detached entities: only id and username are meant to be used from them.
+ */
+public final class UserDirectory {
+
+    private static final int EVICTION_SAMPLES = 8;
+
+    private static UserDirectory instance;
+
+    private final UserDAO userDAO = new UserDAO();
+    private final Map<String, Entry> byUsername = new ConcurrentHashMap<>();
+    private final Map<Long, Entry> byId = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private volatile boolean complete;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private static final class Entry {
+        final User user;
+        volatile long lastAccess;
+
+        Entry(User user) {
+            this.user = user;
+            this.lastAccess = System.nanoTime();
+        }
+    }
+
+    UserDirectory(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public static synchronized UserDirectory getInstance() {
+        if (instance == null) {
+            instance = new UserDirectory(AppConfig.getUserCacheMaxEntries());
+        }
+        return instance;
+    }
+
+    /** Loads the user table (or its first users.cache.max users in bounded mode); returns the number cached. */
+    public int preload() {
+        List<User> users = maxEntries > 0 ? userDAO.findAll(maxEntries) : userDAO.findAll();
+        for (User u : users) {
+            put(u);
+        }
+        complete = maxEntries == 0;
+        return byUsername.size();
+    }
+
+    public User findByUsername(String username) {
+        Entry e = byUsername.get(username);
+        if (e != null) {
+            hits.increment();
+            e.lastAccess = System.nanoTime();
+            return e.user;
+        }
+        misses.increment();
+        User user = userDAO.findByUsername(username);
+        if (user != null) put(user);
+        return user;
+    }
+
+    public User findById(Long id) {
+        Entry e = byId.get(id);
+        if (e != null) {
+            hits.increment();
+            e.lastAccess = System.nanoTime();
+            return e.user;
+        }
+        misses.increment();
+        User user = userDAO.findById(id);
+        if (user != null) put(user);
+        return user;
+    }
+
+    /** RG1/RG9 via UserDAO.register; the new user is cached on success. */
+    public User register(String username, String password) {
+        User user = userDAO.register(username, password);
+        if (user != null) put(user);
+        return user;
+    }
+
+    /** Adds or refreshes a user (e.g. the entity returned by authenticate). */
+    public void put(User user) {
+        Entry e = new Entry(user);
+        byUsername.put(user.getUsername(), e);
+        byId.put(user.getId(), e);
+        if (maxEntries > 0 && byUsername.size() > maxEntries) {
+            evictOne();
+        }
+    }
+
+    /** Approximate LRU: the oldest of a few entries taken from the map's iteration order. */
+    private void evictOne() {
+        Entry victim = null;
+        Iterator<Entry> it = byUsername.values().iterator();
+        for (int i = 0; i < EVICTION_SAMPLES && it.hasNext(); i++) {
+            Entry candidate = it.next();
+            if (victim == null || candidate.lastAccess < victim.lastAccess) {
+                victim = candidate;
+            }
+        }
+        if (victim != null && byUsername.remove(victim.user.getUsername(), victim)) {
+            byId.remove(victim.user.getId(), victim);
+            evictions.increment();
+        }
+    }
+
+    /** True when every user is cached (unbounded mode after preload), so all() needs no DB access. */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /** Every cached user, sorted by username. */
+    public List<User> all() {
+        List<User> list = new ArrayList<>(byUsername.size());
+        for (Entry e : byUsername.values()) {
+            list.add(e.user);
+        }
+        list.sort(Comparator.comparing(User::getUsername));
+        return list;
+    }
+
+    public int size() {
+        return byUsername.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+}
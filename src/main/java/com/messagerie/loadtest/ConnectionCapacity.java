@@ -0,0 +1,238 @@
+package com.messagerie.loadtest;
+
+import com.messagerie.protocol.Protocol;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Connection capacity of each server mode: for every mode (server.mode), starts a ChatServer in a child JVM
+ * (in-memory H2, so that only the server is measured), then opens idle connections step by step, each one
+ * completing the HELLO handshake so that its handler is running. After every step it reports what the child
+ * process holds: resident memory (RSS), threads, and heap after a full GC, with the cost per connection
+ * over the baseline. A mode stops at the target count or at the first connection refused or lost (thread,
+ * memory or descriptor limit reached).
+ *
+ * RSS and threads are read from /proc (Linux); heap after GC needs jcmd next to the java binary. Each
+ * connection also holds a descriptor in this JVM: raise ulimit -n for targets near its limit.
+ *
+ * Options (--key=value): modes (comma-separated, default threaded,virtual), connections (target per mode),
+ * step, port, heap (child -Xmx), xss (child -Xss, stack of platform threads; empty = JVM default).
+ *
+ * mvn exec:java@capacity -Dexec.args="--connections=10000 --step=2000"
+ */
+public final class ConnectionCapacity {
+
+    /** Dernière ligne de GC.class_histogram: "Total <instances> <octets>". */
+    private static final Pattern HISTOGRAM_TOTAL = Pattern.compile("Total\\s+\\d+\\s+(\\d+)");
+
+    private final String[] modes;
+    private final int target;
+    private final int step;
+    private final int port;
+    private final String heap;
+    private final String xss;
+
+    /** One measurement of the child process. */
+    private record Sample(int connections, long rssKb, int threads, long heapKb) {}
+
+    ConnectionCapacity(Map<String, String> options) {
+        this.modes = options.getOrDefault("modes", "threaded,virtual").split(",");
+        this.target = Integer.parseInt(options.getOrDefault("connections", "10000"));
+        this.step = Math.max(1, Integer.parseInt(options.getOrDefault("step", "1000")));
+        this.port = Integer.parseInt(options.getOrDefault("port", "12500"));
+        this.heap = options.getOrDefault("heap", "512m");
+        this.xss = options.getOrDefault("xss", "");
+    }
+
+    public static void main(String[] args) throws Exception {
+        new ConnectionCapacity(LoadGenerator.parseOptions(args)).run();
+    }
+
+    void run() throws Exception {
+        List<String> summary = new ArrayList<>();
+        for (String mode : modes) {
+            summary.add(measure(mode.trim()));
+        }
+        System.out.println();
+        System.out.println("=== Résumé (" + target + " connexions visées, -Xmx" + heap + ") ===");
+        summary.forEach(System.out::println);
+    }
+
+    private String measure(String mode) throws Exception {
+        System.out.println("=== Mode " + mode + " ===");
+        Process server = startServer(mode);
+        List<Socket> sockets = new ArrayList<>(target);
+        try {
+            awaitServer(server);
+            Sample baseline = sample(server, 0);
+            print(baseline, baseline);
+            Sample last = baseline;
+            String stop = "objectif atteint";
+            while (sockets.size() < target) {
+                int goal = Math.min(target, sockets.size() + step);
+                try {
+                    while (sockets.size() < goal) {
+                        sockets.add(open());
+                    }
+                } catch (IOException e) {
+                    stop = "arrêt à " + sockets.size() + " connexions: " + e.getMessage();
+                    break;
+                }
+                last = sample(server, sockets.size());
+                print(last, baseline);
+                if (!server.isAlive()) {
+                    stop = "serveur arrêté";
+                    break;
+                }
+            }
+            if (!"objectif atteint".equals(stop)) System.out.println("  " + stop);
+            return String.format("%-9s %6d connexions, %s par connexion (RSS), %s (tas après GC), %d threads (%s)",
+                    mode, last.connections(), perConnection(last.rssKb(), baseline.rssKb(), last.connections()),
+                    perConnection(last.heapKb(), baseline.heapKb(), last.connections()), last.threads(), stop);
+        } finally {
+            for (Socket s : sockets) {
+                try {
+                    s.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+            server.destroy();
+            if (!server.waitFor(10, TimeUnit.SECONDS)) server.destroyForcibly();
+        }
+    }
+
+    private Process startServer(String mode) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command().orElse("java"));
+        command.add("-Xmx" + heap);
+        if (!xss.isBlank()) command.add("-Xss" + xss);
+        command.add("-cp");
+        command.add(classPath());
+        command.add("-Dserver.mode=" + mode);
+        command.add("-Dserver.port=" + port);
+        command.add("-Ddb.profile=h2-mem");
+        command.add("-Dlog.level=WARN");
+        command.add("-Dlog.file=");
+        command.add("com.messagerie.server.ChatServer");
+        return new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+    }
+
+    /** Class path of this program: under mvn exec:java, the project's loader, not java.class.path (Maven's). */
+    private static String classPath() {
+        if (Thread.currentThread().getContextClassLoader() instanceof URLClassLoader loader) {
+            StringBuilder sb = new StringBuilder();
+            for (URL url : loader.getURLs()) {
+                try {
+                    if (sb.length() > 0) sb.append(File.pathSeparatorChar);
+                    sb.append(Path.of(url.toURI()));
+                } catch (URISyntaxException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            if (sb.length() > 0) return sb.toString();
+        }
+        return System.getProperty("java.class.path");
+    }
+
+    private void awaitServer(Process server) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(120);
+        while (System.nanoTime() < deadline) {
+            try {
+                new Socket("localhost", port).close();
+                Thread.sleep(500); // laisse le serveur traiter la fermeture de la sonde avant la mesure de base
+                return;
+            } catch (IOException e) {
+                if (!server.isAlive()) throw new IllegalStateException("Le serveur s'est arrêté au démarrage");
+                Thread.sleep(200);
+            }
+        }
+        throw new IllegalStateException("Le serveur ne répond pas sur le port " + port);
+    }
+
+    /** One idle connection whose handler has answered HELLO (so its thread, or its task, is in place). */
+    private Socket open() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress("localhost", port), 5000);
+            socket.setSoTimeout(10_000);
+            OutputStream out = socket.getOutputStream();
+            out.write((Protocol.HELLO + Protocol.SEPARATOR + Protocol.CURRENT_VERSION + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            int c;
+            while ((c = in.read()) != '\n') {
+                if (c < 0) throw new IOException("connexion fermée par le serveur");
+            }
+            return socket;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private Sample sample(Process server, int connections) {
+        long heapKb = heapAfterGc(server.pid());
+        long rssKb = -1;
+        int threads = -1;
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc", String.valueOf(server.pid()), "status"))) {
+                if (line.startsWith("VmRSS:")) rssKb = Long.parseLong(line.replaceAll("\\D", ""));
+                else if (line.startsWith("Threads:")) threads = Integer.parseInt(line.replaceAll("\\D", ""));
+            }
+        } catch (IOException | NumberFormatException e) {
+            // pas de /proc (hors Linux): seul le tas est mesuré
+        }
+        return new Sample(connections, rssKb, threads, heapKb);
+    }
+
+    /** Live heap in Ko: jcmd GC.class_histogram (full GC first, whatever the collector); -1 without jcmd. */
+    private static long heapAfterGc(long pid) {
+        String jcmd = ProcessHandle.current().info().command()
+                .map(java -> Path.of(java).resolveSibling("jcmd").toString()).orElse("jcmd");
+        try {
+            Matcher m = HISTOGRAM_TOTAL.matcher(run(jcmd, String.valueOf(pid), "GC.class_histogram"));
+            return m.find() ? Long.parseLong(m.group(1)) / 1024 : -1;
+        } catch (IOException e) {
+            return -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+    }
+
+    private static String run(String... command) throws IOException, InterruptedException {
+        Process p = new ProcessBuilder(command).redirectErrorStream(true).start();
+        String output = new String(p.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        p.waitFor();
+        return output;
+    }
+
+    private static void print(Sample s, Sample baseline) {
+        System.out.printf("  %6d connexions  RSS %7d Ko (%s/connexion)  tas %7d Ko (%s/connexion)  %5d threads%n",
+                s.connections(), s.rssKb(), perConnection(s.rssKb(), baseline.rssKb(), s.connections()),
+                s.heapKb(), perConnection(s.heapKb(), baseline.heapKb(), s.connections()), s.threads());
+    }
+
+    private static String perConnection(long valueKb, long baselineKb, int connections) {
+        if (connections == 0 || valueKb < 0 || baselineKb < 0) return "-";
+        return String.format("%.1f Ko", (valueKb - baselineKb) / (double) connections);
+    }
+}
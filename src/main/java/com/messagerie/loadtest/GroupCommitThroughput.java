@@ -0,0 +1,134 @@
+package com.messagerie.loadtest;
+
+import com.messagerie.config.AppConfig;
+import com.messagerie.dao.HibernateUtil;
+import com.messagerie.dao.MessageDAO;
+import com.messagerie.dao.MessageWriteBehind;
+import com.messagerie.dao.UserDAO;
+import com.messagerie.model.Message;
+import com.messagerie.model.User;
+import com.messagerie.server.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Message insert throughput with and without group commit, on the database alone (no server, no socket).
+ * For each thread count, as many threads as handlers of the threaded server save messages in a loop for
+ * --duration seconds: "single" with MessageDAO.save (one transaction per message, the path before group
+ * commit), "group" with MessageDAO.saveAsync(...).join() (MessageWriteBehind, one transaction per group).
+ * Reports messages per second, the latency of one save and, for "group", the messages per commit.
+ *
+ * By default an H2 file under target/ (db.profile / db.h2.path to change it); the group size and delay are
+ * those of db.groupcommit.size / db.groupcommit.delay.ms.
+ *
+ * Options (--key=value): threads (comma-separated, default 1,8,64), modes (default single,group),
+ * duration and warmup (seconds per run).
+ *
+ * mvn exec:java@groupcommit -Dexec.args="--threads=1,8,64 --duration=10"
+ */
+public final class GroupCommitThroughput {
+
+    private final String[] threads;
+    private final String[] modes;
+    private final int durationSeconds;
+    private final int warmupSeconds;
+    private final MessageDAO messageDAO = new MessageDAO();
+    private User sender;
+    private User receiver;
+
+    /** Result of one run. */
+    private record Run(String mode, int threads, long messages, long failed, double seconds, long batches,
+                       LatencyHistogram latency) {}
+
+    GroupCommitThroughput(Map<String, String> options) {
+        this.threads = options.getOrDefault("threads", "1,8,64").split(",");
+        this.modes = options.getOrDefault("modes", "single,group").split(",");
+        this.durationSeconds = Integer.parseInt(options.getOrDefault("duration", "10"));
+        this.warmupSeconds = Integer.parseInt(options.getOrDefault("warmup", "2"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        // Base jetable par défaut; -Ddb.profile / -Ddb.h2.path l'emportent
+        if (System.getProperty("db.profile") == null) {
+            System.setProperty("db.profile", "h2-file");
+            if (System.getProperty("db.h2.path") == null) System.setProperty("db.h2.path", "./target/group-commit/messagerie");
+        }
+        try {
+            new GroupCommitThroughput(LoadGenerator.parseOptions(args)).run();
+        } finally {
+            MessageWriteBehind.shutdown();
+            HibernateUtil.shutdown();
+        }
+    }
+
+    void run() throws InterruptedException {
+        System.out.println("Base: " + AppConfig.getJdbcUrl() + ", pool " + AppConfig.getPoolMaxSize()
+                + " connexions, groupe " + AppConfig.getGroupCommitSize() + " messages / "
+                + AppConfig.getGroupCommitDelayMillis() + " ms");
+        sender = user("groupcommit-a");
+        receiver = user("groupcommit-b");
+        List<Run> runs = new ArrayList<>();
+        for (String t : threads) {
+            for (String mode : modes) {
+                int n = Integer.parseInt(t.trim());
+                measure(mode.trim(), n, warmupSeconds);
+                Run run = measure(mode.trim(), n, durationSeconds);
+                print(run);
+                runs.add(run);
+            }
+        }
+        System.out.println();
+        System.out.println("=== Résumé (" + durationSeconds + " s par mesure) ===");
+        runs.forEach(GroupCommitThroughput::print);
+    }
+
+    private User user(String username) {
+        UserDAO userDAO = new UserDAO();
+        User user = userDAO.findByUsername(username);
+        return user != null ? user : userDAO.register(username, "-"); // compte de mesure, jamais connecté
+    }
+
+    private Run measure(String mode, int threadCount, int seconds) throws InterruptedException {
+        boolean group = switch (mode) {
+            case "single" -> false;
+            case "group" -> true;
+            default -> throw new IllegalArgumentException("Mode inconnu: " + mode + " (single ou group)");
+        };
+        LatencyHistogram latency = new LatencyHistogram();
+        LongAdder saved = new LongAdder();
+        LongAdder failed = new LongAdder();
+        long batchesBefore = MessageWriteBehind.getInstance().getCommittedBatches();
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(seconds);
+        ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            pool.execute(() -> {
+                while (System.nanoTime() < deadline) {
+                    Message message = new Message(sender, receiver, "Message de mesure");
+                    long t0 = System.nanoTime();
+                    Message stored = group ? messageDAO.saveAsync(message).join() : messageDAO.save(message);
+                    latency.recordNanos(System.nanoTime() - t0);
+                    if (stored != null) saved.increment();
+                    else failed.increment();
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(seconds + 60L, TimeUnit.SECONDS);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        long batches = group ? MessageWriteBehind.getInstance().getCommittedBatches() - batchesBefore : saved.sum();
+        return new Run(mode, threadCount, saved.sum(), failed.sum(), elapsed, batches, latency);
+    }
+
+    private static void print(Run r) {
+        System.out.printf("%-6s %3d threads: %8.0f messages/s (%d, %d échecs), %5.1f messages par commit, %s%n",
+                r.mode(), r.threads(), r.messages() / r.seconds(), r.messages(), r.failed(),
+                r.batches() == 0 ? 0.0 : r.messages() / (double) r.batches(), r.latency().summary());
+    }
+}
@@ -0,0 +1,347 @@
+package com.messagerie.loadtest;
+
+import com.messagerie.config.AppConfig;
+import com.messagerie.server.ChatServer;
+import com.messagerie.server.LatencyHistogram;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Headless load generator for capacity planning: N synthetic users (SyntheticUser, one ChatClient each)
+ * register and log in, then send messages at a fixed total rate (open loop) with a weighted size
+ * distribution, request history and toggle presence. Reports throughput and p50/p99/p999 end-to-end
+ * delivery latency, measured from the scheduled send time so that a saturated server is not hidden
+ * (coordinated omission).
+ *
+ * Options (--key=value): host, port, users, rate (messages/s), duration (s), warmup (s),
+ * sizes (e.g. 32:60,200:30,1000:10 = size:weight), history-rate and presence-rate (per second),
+ * senders (sending threads), connect-parallelism, prefix, password, embedded (start a ChatServer in this JVM,
+ * on the database given by --db: h2-mem by default, so that no external service is needed), nodes (users
+ * spread over the servers listening on port, port + 1, ...; with embedded, a cluster of that many nodes
+ * linked in process, so that messages and presence cross nodes).
+ *
+ * mvn exec:java@load -Dexec.args="--users=500 --rate=2000 --duration=60"
+ * mvn exec:java@load -Dexec.args="--embedded --users=200 --rate=1000"   (server and in-memory H2 in this JVM)
+ * mvn exec:java@load -Dexec.args="--embedded --nodes=3 --users=300"      (3-node cluster in this JVM)
+ */
+public final class LoadGenerator {
+
+    private static final int REPORT_INTERVAL_SECONDS = 5;
+    private static final int MAX_CONTENT_LENGTH = 1000; // RG7
+
+    final LongAdder sent = new LongAdder();
+    final LongAdder acked = new LongAdder();
+    final LongAdder failed = new LongAdder();
+    final LongAdder errors = new LongAdder();
+    final LongAdder delivered = new LongAdder();
+    final LongAdder historyRequests = new LongAdder();
+    final LongAdder reconnects = new LongAdder();
+    final LongAdder presenceSnapshots = new LongAdder();
+    final LongAdder presenceDeltas = new LongAdder();
+    final LongAdder presenceUpdates = new LongAdder();
+    private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+    private final LatencyHistogram historyLatency = new LatencyHistogram();
+
+    private final Map<String, String> options;
+    private final String host;
+    private final int port;
+    private final int nodes;
+    private final int[] sizes;
+    private final int[] cumulativeWeights;
+    private final List<SyntheticUser> users = new ArrayList<>();
+    private volatile long measureFrom = Long.MAX_VALUE;
+    private long startedAt;
+
+    LoadGenerator(Map<String, String> options) {
+        this.options = options;
+        this.host = option("host", AppConfig.getServerHost());
+        this.port = Integer.parseInt(option("port", String.valueOf(AppConfig.getServerPort())));
+        this.nodes = Math.max(1, intOption("nodes", 1));
+        String[] entries = option("sizes", "32:60,200:30,1000:10").split(",");
+        sizes = new int[entries.length];
+        cumulativeWeights = new int[entries.length];
+        int total = 0;
+        for (int i = 0; i < entries.length; i++) {
+            String[] sizeWeight = entries[i].trim().split(":");
+            sizes[i] = Math.min(MAX_CONTENT_LENGTH, Math.max(1, Integer.parseInt(sizeWeight[0])));
+            total += sizeWeight.length > 1 ? Math.max(0, Integer.parseInt(sizeWeight[1])) : 1;
+            cumulativeWeights[i] = total;
+        }
+        if (total == 0) throw new IllegalArgumentException("sizes: poids tous nuls");
+    }
+
+    private String option(String key, String defaultValue) {
+        return options.getOrDefault(key, defaultValue);
+    }
+
+    private int intOption(String key, int defaultValue) {
+        return Integer.parseInt(option(key, String.valueOf(defaultValue)));
+    }
+
+    private double doubleOption(String key, double defaultValue) {
+        return Double.parseDouble(option(key, String.valueOf(defaultValue)));
+    }
+
+    void run() throws Exception {
+        if (Boolean.parseBoolean(option("embedded", "false"))) startEmbeddedServer();
+        startedAt = System.nanoTime();
+        connectUsers(intOption("users", 100), intOption("connect-parallelism", 32));
+        if (users.size() < 2) throw new IllegalStateException("Il faut au moins deux utilisateurs connectés");
+
+        double rate = doubleOption("rate", 100);
+        double historyRate = doubleOption("history-rate", 1);
+        double presenceRate = doubleOption("presence-rate", 0);
+        long duration = TimeUnit.SECONDS.toNanos(intOption("duration", 60));
+        long warmup = TimeUnit.SECONDS.toNanos(intOption("warmup", 5));
+        ExecutorService senders = Executors.newFixedThreadPool(intOption("senders", 8));
+
+        System.out.printf("Charge: %d utilisateurs, %.0f msg/s, %.1f historiques/s, %.2f bascules de présence/s, %d s (+%d s de chauffe)%n",
+                users.size(), rate, historyRate, presenceRate, TimeUnit.NANOSECONDS.toSeconds(duration),
+                TimeUnit.NANOSECONDS.toSeconds(warmup));
+        long start = System.nanoTime();
+        measureFrom = start + warmup;
+        long end = measureFrom + duration;
+        Schedule messages = new Schedule(rate, start);
+        Schedule history = new Schedule(historyRate, start);
+        Schedule presence = new Schedule(presenceRate, start);
+        long nextReport = start + TimeUnit.SECONDS.toNanos(REPORT_INTERVAL_SECONDS);
+
+        // Boucle ouverte: chaque envoi part à son heure prévue, même si les précédents sont en retard
+        long now;
+        while ((now = System.nanoTime()) < end) {
+            while (messages.due(now)) {
+                long scheduled = messages.next();
+                senders.execute(() -> sendOne(scheduled));
+            }
+            while (history.due(now)) {
+                history.next();
+                senders.execute(this::requestHistory);
+            }
+            while (presence.due(now)) {
+                presence.next();
+                senders.execute(this::togglePresence);
+            }
+            if (now >= nextReport) {
+                report(now - start);
+                nextReport += TimeUnit.SECONDS.toNanos(REPORT_INTERVAL_SECONDS);
+            }
+            LockSupport.parkNanos(Math.max(10_000, Math.min(1_000_000,
+                    Math.min(messages.nextAt, Math.min(history.nextAt, presence.nextAt)) - now)));
+        }
+        senders.shutdown();
+        senders.awaitTermination(30, TimeUnit.SECONDS);
+        Thread.sleep(1000); // laisser arriver les derniers messages
+        printSummary(TimeUnit.NANOSECONDS.toSeconds(duration));
+        printServerStats();
+        users.forEach(SyntheticUser::disconnect);
+    }
+
+    /** Fixed-rate clock; rate 0 never fires. */
+    private static final class Schedule {
+        private final long interval;
+        long nextAt;
+
+        Schedule(double perSecond, long start) {
+            this.interval = perSecond > 0 ? (long) (1e9 / perSecond) : 0;
+            this.nextAt = perSecond > 0 ? start : Long.MAX_VALUE;
+        }
+
+        boolean due(long now) {
+            return nextAt <= now;
+        }
+
+        long next() {
+            long scheduled = nextAt;
+            nextAt += Math.max(1, interval);
+            return scheduled;
+        }
+    }
+
+    private void connectUsers(int count, int parallelism) throws InterruptedException {
+        String prefix = option("prefix", "load");
+        String password = option("password", "load-test");
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, parallelism));
+        AtomicInteger connected = new AtomicInteger();
+        List<SyntheticUser> all = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            SyntheticUser user = new SyntheticUser(prefix + i, password, this);
+            int userPort = port + i % nodes; // toujours le même nœud pour un utilisateur
+            all.add(user);
+            pool.execute(() -> {
+                try {
+                    user.connect(host, userPort);
+                    int n = connected.incrementAndGet();
+                    if (n % 100 == 0) System.out.println(n + " utilisateurs connectés...");
+                } catch (IOException e) {
+                    System.err.println(e.getMessage());
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.HOURS);
+        for (SyntheticUser user : all) {
+            if (user.isOnline()) users.add(user);
+        }
+        System.out.printf("%d/%d utilisateurs connectés en %.1f s%n", users.size(), count,
+                (System.nanoTime() - startedAt) / 1e9);
+    }
+
+    private void sendOne(long scheduledAt) {
+        SyntheticUser sender = randomOnlineUser(null);
+        SyntheticUser receiver = randomOnlineUser(sender);
+        if (sender == null || receiver == null) return;
+        sender.sendMessage(receiver.username, content(scheduledAt, randomSize()));
+        sent.increment();
+    }
+
+    private void requestHistory() {
+        SyntheticUser user = randomOnlineUser(null);
+        SyntheticUser other = randomOnlineUser(user);
+        if (user == null || other == null) return;
+        user.requestHistory(other.username);
+        historyRequests.increment();
+    }
+
+    private void togglePresence() {
+        SyntheticUser user = randomOnlineUser(null);
+        if (user == null) return;
+        try {
+            user.reconnect(host, user.port());
+            reconnects.increment();
+        } catch (IOException e) {
+            errors.increment();
+        }
+    }
+
+    private SyntheticUser randomOnlineUser(SyntheticUser exclude) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int attempt = 0; attempt < 16; attempt++) {
+            SyntheticUser user = users.get(random.nextInt(users.size()));
+            if (user != exclude && user.isOnline()) return user;
+        }
+        return null;
+    }
+
+    private int randomSize() {
+        int pick = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (pick < cumulativeWeights[i]) return sizes[i];
+        }
+        return sizes[sizes.length - 1];
+    }
+
+    /** "LT<scheduled nanoTime> " padded to {@code size} characters (longer if size is below the header). */
+    static String content(long scheduledAt, int size) {
+        StringBuilder sb = new StringBuilder(Math.max(size, 24));
+        sb.append(SyntheticUser.CONTENT_PREFIX).append(scheduledAt).append(' ');
+        while (sb.length() < size) sb.append((char) ('a' + sb.length() % 26));
+        return sb.toString();
+    }
+
+    void recordDelivery(long latencyNanos, long sentAt) {
+        if (sentAt < startedAt) return; // message en attente d'une exécution précédente
+        delivered.increment();
+        if (sentAt >= measureFrom) deliveryLatency.recordNanos(latencyNanos);
+    }
+
+    void recordHistory(long latencyNanos, long requestedAt) {
+        if (requestedAt >= measureFrom) historyLatency.recordNanos(latencyNanos);
+    }
+
+    private void report(long elapsedNanos) {
+        System.out.printf("[%3d s] envoyés=%d acquittés=%d livrés=%d échecs=%d | livraison %s%n",
+                TimeUnit.NANOSECONDS.toSeconds(elapsedNanos), sent.sum(), acked.sum(), delivered.sum(),
+                failed.sum(), deliveryLatency.summary());
+    }
+
+    private void printSummary(long measuredSeconds) {
+        long seconds = Math.max(1, measuredSeconds);
+        System.out.println("=== Résultat ===");
+        System.out.printf("Messages: %d envoyés, %d acquittés (MSG_OK), %d échecs (MSG_FAIL), %d livrés, %d erreurs%n",
+                sent.sum(), acked.sum(), failed.sum(), delivered.sum(), errors.sum());
+        System.out.printf("Débit mesuré: %.0f messages livrés/s sur %d s%n",
+                (double) deliveryLatency.count() / seconds, seconds);
+        System.out.println("Latence de livraison (" + deliveryLatency.count() + "): " + deliveryLatency.summary());
+        System.out.println("Historique (" + historyLatency.count() + "/" + historyRequests.sum() + "): "
+                + historyLatency.summary());
+        System.out.println("Bascules de présence: " + reconnects.sum() + " (resynchronisations: "
+                + presenceDeltas.sum() + " par delta, " + presenceSnapshots.sum() + " listes complètes; "
+                + presenceUpdates.sum() + " changements de statut reçus)");
+    }
+
+    /** Server side view (STATS), available to loopback clients or to users listed in server.admin.users. */
+    private void printServerStats() {
+        SyntheticUser user = randomOnlineUser(null);
+        String stats = user != null ? user.fetchStats(5) : null;
+        if (stats == null) {
+            System.out.println("Métriques serveur: STATS refusé ou sans réponse.");
+            return;
+        }
+        System.out.println("=== Métriques serveur ===");
+        for (String entry : stats.split(",")) {
+            System.out.println("  " + entry);
+        }
+    }
+
+    /**
+     * Starts ChatServer in a daemon thread and waits until it accepts connections; with --nodes, one node per
+     * port, started one after the other, linked by the in-process cluster transport.
+     */
+    private void startEmbeddedServer() throws InterruptedException {
+        // Lu par AppConfig (propriétés système prioritaires) quand le serveur s'initialise
+        System.setProperty("db.profile", option("db", "h2-mem"));
+        System.setProperty("server.port", String.valueOf(port));
+        // Journal serveur réduit aux avertissements: une ligne par message fausserait la mesure
+        if (System.getProperty("log.level") == null) System.setProperty("log.level", "WARN");
+        for (int i = 0; i < nodes; i++) {
+            ChatServer node = nodes == 1 ? new ChatServer() : new ChatServer(port + i, "node" + (i + 1), "inproc");
+            Thread server = new Thread(node::start, nodes == 1 ? "embedded-server" : "embedded-node" + (i + 1));
+            server.setDaemon(true);
+            server.start();
+            awaitServer(server, port + i);
+        }
+        if (nodes > 1) System.out.println("Cluster de " + nodes + " nœuds démarré (ports " + port + " à " + (port + nodes - 1) + ").");
+    }
+
+    private void awaitServer(Thread server, int serverPort) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(120);
+        while (System.nanoTime() < deadline) {
+            try {
+                new Socket(host, serverPort).close();
+                return;
+            } catch (IOException e) {
+                if (!server.isAlive()) throw new IllegalStateException("Le serveur embarqué s'est arrêté");
+                Thread.sleep(200);
+            }
+        }
+        throw new IllegalStateException("Le serveur embarqué ne répond pas sur le port " + serverPort);
+    }
+
+    static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) throw new IllegalArgumentException("Option inattendue: " + arg);
+            int eq = arg.indexOf('=');
+            if (eq < 0) options.put(arg.substring(2), "true");
+            else options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        return options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new LoadGenerator(parseOptions(args)).run();
+        System.exit(0);
+    }
+}
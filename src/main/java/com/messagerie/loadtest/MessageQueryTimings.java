@@ -0,0 +1,336 @@
+package com.messagerie.loadtest;
+
+import com.messagerie.config.AppConfig;
+import com.messagerie.dao.HibernateUtil;
+import com.messagerie.dao.SchemaMigration;
+import com.messagerie.model.Message;
+import com.messagerie.server.LatencyHistogram;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * History and pending-message query times on a seeded messages table, before and after the conversation key.
+ *
+ * Seeds --rows messages between --users users over --conversations pairs, in the shape of a table written
+ * before the key existed: conversation_key NULL, only the foreign-key indexes. Times the former queries
+ * (sender/receiver OR filter, pending sorted by date), then runs the real upgrade path (SchemaMigration
+ * backfill, the two indexes of Message, ANALYZE) and times the keyed queries on the same rows. Each query is
+ * preceded by its EXPLAIN. Queries are the SQL of the MessageDAO queries, run over plain JDBC so that only
+ * the database is measured, every row being read.
+ *
+ * The database must be empty: by default an H2 file under target/ (db.profile / db.h2.path to change it,
+ * e.g. a MySQL schema created for the occasion).
+ *
+ * Options (--key=value): rows, users, conversations, pending (share of ENVOYE rows), samples (queries timed
+ * per kind), page (rows of a history page), seed (random seed), after-only (true: times the keyed queries
+ * again on a base this program already seeded and migrated, with the same users and conversations).
+ *
+ * mvn exec:java@queries -Dexec.args="--rows=10000000"
+ */
+public final class MessageQueryTimings {
+
+    private static final int INSERT_BATCH = 10_000;
+    private static final int WARMUP_QUERIES = 20;
+
+    private static final String INSERT_USER =
+            "INSERT INTO users (username, password, status, dateCreation) VALUES (?, ?, 'OFFLINE', ?)";
+    private static final String INSERT_MESSAGE =
+            "INSERT INTO messages (sender_id, receiver_id, contenu, dateEnvoi, statut) VALUES (?, ?, ?, ?, ?)";
+
+    // Requêtes d'avant la clé de conversation
+    private static final String LEGACY_HISTORY = "SELECT * FROM messages WHERE (sender_id = ? AND receiver_id = ?)"
+            + " OR (sender_id = ? AND receiver_id = ?) ORDER BY dateEnvoi ASC";
+    private static final String LEGACY_PAGE = "SELECT * FROM messages WHERE ((sender_id = ? AND receiver_id = ?)"
+            + " OR (sender_id = ? AND receiver_id = ?)) ORDER BY id DESC LIMIT ?";
+    private static final String LEGACY_PENDING =
+            "SELECT * FROM messages WHERE receiver_id = ? AND statut = 'ENVOYE' ORDER BY dateEnvoi ASC";
+
+    // Requêtes de MessageDAO sur la clé de conversation
+    private static final String KEYED_HISTORY = "SELECT * FROM messages WHERE conversation_key = ? ORDER BY id ASC";
+    private static final String KEYED_PAGE = "SELECT * FROM messages WHERE conversation_key = ? ORDER BY id DESC LIMIT ?";
+    private static final String KEYED_PENDING =
+            "SELECT * FROM messages WHERE receiver_id = ? AND statut = 'ENVOYE' ORDER BY id ASC";
+    // H2 garde l'index de la clé étrangère (receiver_id seul), plus étroit; MySQL le fond dans idx_messages_pending
+    private static final String KEYED_PENDING_FORCED = "SELECT * FROM messages USE INDEX (idx_messages_pending)"
+            + " WHERE receiver_id = ? AND statut = 'ENVOYE' ORDER BY id ASC";
+
+    private static final String[] INDEXES = {
+            "idx_messages_conversation (conversation_key, id)",
+            "idx_messages_pending (receiver_id, statut, id)"
+    };
+
+    private final long rows;
+    private final int users;
+    private final int conversations;
+    private final double pendingShare;
+    private final int samples;
+    private final int page;
+    private final long seed;
+    private final boolean afterOnly;
+    private long firstUserId;
+
+    MessageQueryTimings(Map<String, String> options) {
+        this.rows = Long.parseLong(options.getOrDefault("rows", "10000000"));
+        this.users = Integer.parseInt(options.getOrDefault("users", "10000"));
+        this.conversations = Integer.parseInt(options.getOrDefault("conversations", "100000"));
+        this.pendingShare = Double.parseDouble(options.getOrDefault("pending", "0.01"));
+        this.samples = Integer.parseInt(options.getOrDefault("samples", "200"));
+        this.page = Integer.parseInt(options.getOrDefault("page", "50"));
+        this.seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        this.afterOnly = Boolean.parseBoolean(options.getOrDefault("after-only", "false"));
+    }
+
+    public static void main(String[] args) {
+        // Base jetable par défaut; -Ddb.profile / -Ddb.h2.path l'emportent
+        if (System.getProperty("db.profile") == null) {
+            System.setProperty("db.profile", "h2-file");
+            if (System.getProperty("db.h2.path") == null) System.setProperty("db.h2.path", "./target/query-timings/messagerie");
+        }
+        try {
+            new MessageQueryTimings(LoadGenerator.parseOptions(args)).run();
+        } finally {
+            HibernateUtil.shutdown();
+        }
+    }
+
+    void run() {
+        System.out.println("Base: " + AppConfig.getJdbcUrl());
+        HibernateUtil.getEntityManagerFactory(); // schéma créé ou mis à jour par Hibernate
+        if (afterOnly) {
+            HibernateUtil.shutdown();
+            findFirstUser();
+            measureKeyed();
+            return;
+        }
+        jdbc(connection -> {
+            try (Statement st = connection.createStatement(); ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM messages")) {
+                rs.next();
+                if (rs.getLong(1) > 0) throw new IllegalStateException("La table messages n'est pas vide: base neuve requise");
+            }
+        });
+        for (String index : INDEXES) {
+            jdbc(connection -> execute(connection, dropIndex(index.substring(0, index.indexOf(' ')))));
+        }
+
+        long start = System.nanoTime();
+        seedUsers();
+        seedMessages();
+        System.out.printf("%n%d messages insérés (%d utilisateurs, %d conversations) en %.0f s%n",
+                rows, users, conversations, seconds(start));
+        analyze();
+
+        System.out.println("\n=== Avant: filtre sender/receiver, index des clés étrangères seulement ===");
+        measure("Historique complet", LEGACY_HISTORY, Kind.HISTORY, true);
+        measure("Page d'historique", LEGACY_PAGE, Kind.PAGE, true);
+        measure("Messages en attente", LEGACY_PENDING, Kind.PENDING, true);
+
+        start = System.nanoTime();
+        SchemaMigration.run();
+        System.out.printf("%nMigration conversation_key (SchemaMigration): %.0f s%n", seconds(start));
+        // Plus rien ne passe par le pool: H2 ne retient un index créé à chaud qu'à la réouverture de la base
+        // (au redémarrage du serveur, en production), que les connexions suivantes déclenchent
+        HibernateUtil.shutdown();
+        for (String index : INDEXES) {
+            long indexStart = System.nanoTime();
+            jdbc(connection -> execute(connection, "CREATE INDEX " + index.replace(" (", " ON messages (")));
+            System.out.printf("CREATE INDEX %s: %.0f s%n", index, seconds(indexStart));
+        }
+        analyze();
+        measureKeyed();
+    }
+
+    private void measureKeyed() {
+        System.out.println("\n=== Après: clé de conversation et index composites ===");
+        measure("Historique complet", KEYED_HISTORY, Kind.HISTORY, false);
+        measure("Page d'historique", KEYED_PAGE, Kind.PAGE, false);
+        measure("Messages en attente", KEYED_PENDING, Kind.PENDING, false);
+        measure("Messages en attente, index forcé", KEYED_PENDING_FORCED, Kind.PENDING, false);
+    }
+
+    private enum Kind { HISTORY, PAGE, PENDING }
+
+    private void seedUsers() {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        for (int from = 0; from < users; from += INSERT_BATCH) {
+            int end = Math.min(users, from + INSERT_BATCH);
+            int first = from;
+            jdbc(connection -> {
+                try (PreparedStatement ps = connection.prepareStatement(INSERT_USER)) {
+                    for (int i = first; i < end; i++) {
+                        ps.setString(1, "seed" + i);
+                        ps.setString(2, "-"); // comptes de mesure: personne ne s'y connecte
+                        ps.setTimestamp(3, now);
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+            });
+        }
+        findFirstUser();
+    }
+
+    private void findFirstUser() {
+        jdbc(connection -> {
+            try (Statement st = connection.createStatement();
+                 ResultSet rs = st.executeQuery("SELECT MIN(id) FROM users WHERE username LIKE 'seed%'")) {
+                rs.next();
+                firstUserId = rs.getLong(1);
+            }
+        });
+    }
+
+    /** Ids croissants avec la date d'envoi, comme en production; un message au hasard parmi les conversations. */
+    private void seedMessages() {
+        SplittableRandom random = new SplittableRandom(seed);
+        LocalDateTime origin = LocalDateTime.now().minusSeconds(rows);
+        long start = System.nanoTime();
+        for (long from = 0; from < rows; from += INSERT_BATCH) {
+            long end = Math.min(rows, from + INSERT_BATCH);
+            long first = from;
+            jdbc(connection -> {
+                try (PreparedStatement ps = connection.prepareStatement(INSERT_MESSAGE)) {
+                    for (long i = first; i < end; i++) {
+                        long[] pair = pair(random.nextInt(conversations));
+                        boolean forward = random.nextBoolean();
+                        ps.setLong(1, forward ? pair[0] : pair[1]);
+                        ps.setLong(2, forward ? pair[1] : pair[0]);
+                        ps.setString(3, "Message de charge n°" + i);
+                        ps.setTimestamp(4, Timestamp.valueOf(origin.plusSeconds(i)));
+                        ps.setString(5, random.nextDouble() < pendingShare ? "ENVOYE" : "LU");
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+            });
+            if ((end / INSERT_BATCH) % 100 == 0) {
+                System.out.printf("  %d / %d messages (%.0f s)%n", end, rows, seconds(start));
+            }
+        }
+    }
+
+    /** Participants of conversation {@code index}: a fixed pair of distinct users. */
+    private long[] pair(int index) {
+        int a = index % users;
+        int b = (a + 1 + (index / users) % (users - 1)) % users;
+        return new long[] {firstUserId + a, firstUserId + b};
+    }
+
+    private void measure(String label, String sql, Kind kind, boolean legacy) {
+        SplittableRandom random = new SplittableRandom(seed + kind.ordinal());
+        System.out.println("\n" + label + ": " + sql);
+        jdbc(connection -> {
+            try (PreparedStatement explain = connection.prepareStatement("EXPLAIN " + sql)) {
+                bind(explain, kind, legacy, 0);
+                try (ResultSet rs = explain.executeQuery()) {
+                    int columns = rs.getMetaData().getColumnCount();
+                    while (rs.next()) {
+                        StringBuilder line = new StringBuilder("  EXPLAIN ");
+                        for (int c = 1; c <= columns; c++) {
+                            if (c > 1) line.append(" | ");
+                            line.append(rs.getString(c));
+                        }
+                        System.out.println(line.toString().replace("\n", "\n          "));
+                    }
+                }
+            }
+        });
+        LatencyHistogram histogram = new LatencyHistogram();
+        long[] rowsRead = {0};
+        jdbc(connection -> {
+            try (PreparedStatement ps = connection.prepareStatement(sql)) {
+                for (int i = 0; i < WARMUP_QUERIES + samples; i++) {
+                    bind(ps, kind, legacy, random.nextInt(kind == Kind.PENDING ? users : conversations));
+                    long start = System.nanoTime();
+                    long n = 0;
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            rs.getString("contenu");
+                            n++;
+                        }
+                    }
+                    if (i >= WARMUP_QUERIES) {
+                        histogram.recordNanos(System.nanoTime() - start);
+                        rowsRead[0] += n;
+                    }
+                }
+            }
+        });
+        System.out.printf("  %d requêtes, %.1f lignes en moyenne: %s (moyenne %.2f ms)%n",
+                samples, rowsRead[0] / (double) samples, histogram.summary(), histogram.meanMicros() / 1000.0);
+    }
+
+    private void bind(PreparedStatement ps, Kind kind, boolean legacy, int index) throws SQLException {
+        if (kind == Kind.PENDING) {
+            ps.setLong(1, firstUserId + index);
+            return;
+        }
+        long[] pair = pair(index);
+        int next;
+        if (legacy) {
+            ps.setLong(1, pair[0]);
+            ps.setLong(2, pair[1]);
+            ps.setLong(3, pair[1]);
+            ps.setLong(4, pair[0]);
+            next = 5;
+        } else {
+            ps.setString(1, Message.conversationKey(pair[0], pair[1]));
+            next = 2;
+        }
+        if (kind == Kind.PAGE) ps.setInt(next, page);
+    }
+
+    private static void analyze() {
+        jdbc(connection -> execute(connection,
+                AppConfig.getDbProfile() == AppConfig.DbProfile.MYSQL ? "ANALYZE TABLE messages" : "ANALYZE"));
+    }
+
+    private static String dropIndex(String name) {
+        return AppConfig.getDbProfile() == AppConfig.DbProfile.MYSQL
+                ? "DROP INDEX " + name + " ON messages"
+                : "DROP INDEX IF EXISTS " + name;
+    }
+
+    private static void execute(Connection connection, String sql) throws SQLException {
+        try (Statement st = connection.createStatement()) {
+            st.execute(sql);
+        }
+    }
+
+    /** Work done over one JDBC connection. */
+    private interface SqlWork {
+        void run(Connection connection) throws SQLException;
+    }
+
+    /**
+     * One transaction on a connection of its own, outside the pool: once Hibernate is shut down, an H2 file
+     * database is reopened by the next call.
+     */
+    private static void jdbc(SqlWork work) {
+        try (Connection connection = DriverManager.getConnection(
+                AppConfig.getJdbcUrl(), AppConfig.getJdbcUser(), AppConfig.getJdbcPassword())) {
+            connection.setAutoCommit(false);
+            try {
+                work.run(connection);
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    private static double seconds(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1e9;
+    }
+}
@@ -0,0 +1,184 @@
+package com.messagerie.loadtest;
+
+import com.messagerie.client.ChatClient;
+import com.messagerie.protocol.Frame;
+import com.messagerie.protocol.Opcode;
+import com.messagerie.protocol.Protocol;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One simulated user: a headless ChatClient whose frames are counted by the LoadGenerator instead of
+ * being rendered. Messages it receives carry their send timestamp (see LoadGenerator.content), which
+ * gives the end-to-end delivery latency since every user lives in the same JVM.
+ */
+final class SyntheticUser {
+
+    /** Préfixe du contenu des messages de charge: "LT<nanoTime> xxxx...". */
+    static final String CONTENT_PREFIX = "LT";
+
+    private static final long AUTH_TIMEOUT_SECONDS = 30;
+
+    final String username;
+    private final String password;
+    private final LoadGenerator generator;
+    private volatile ChatClient client;
+    private volatile boolean online;
+    private volatile CompletableFuture<Opcode> pendingReply;
+    private volatile long historyRequestedAt;
+    private volatile CompletableFuture<String> pendingStats;
+    /**
+     * Version de présence de la dernière liste reçue (complète ou delta) et des changements suivants; après une
+     * reconnexion, seuls les changements depuis sont demandés. 0 tant qu'aucune liste n'a été reçue.
+     */
+    private volatile long presenceVersion;
+    private volatile int port;
+
+    SyntheticUser(String username, String password, LoadGenerator generator) {
+        this.username = username;
+        this.password = password;
+        this.generator = generator;
+    }
+
+    /** Connects, registers if needed (REGISTER_FAIL when the user exists from a previous run is fine) and logs in. */
+    void connect(String host, int port) throws IOException {
+        this.port = port;
+        ChatClient c = new ChatClient();
+        c.setMessageHandler(this::onFrame);
+        c.setOnDisconnect(() -> online = false);
+        c.connect(host, port);
+        client = c;
+
+        await(() -> c.register(username, password));
+        Opcode login = await(() -> c.login(username, password));
+        if (login != Opcode.LOGIN_OK) {
+            c.disconnect();
+            throw new IOException("Connexion refusée pour " + username + ": " + login);
+        }
+        online = true;
+        if (presenceVersion > 0) c.requestUserList(presenceVersion);
+        else c.requestUserList();
+    }
+
+    private Opcode await(Runnable request) throws IOException {
+        CompletableFuture<Opcode> reply = new CompletableFuture<>();
+        pendingReply = reply;
+        request.run();
+        try {
+            return reply.get(AUTH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new IOException("Pas de réponse du serveur pour " + username, e);
+        } finally {
+            pendingReply = null;
+        }
+    }
+
+    /** Presence toggle: LOGOUT (the others see OFFLINE), then a new connection and LOGIN. */
+    void reconnect(String host, int port) throws IOException {
+        online = false;
+        ChatClient c = client;
+        if (c != null) c.logout();
+        connect(host, port);
+    }
+
+    /** Port of the server (cluster node) this user connects to. */
+    int port() {
+        return port;
+    }
+
+    void sendMessage(String receiver, String content) {
+        client.sendMessage(receiver, content);
+    }
+
+    void requestHistory(String other) {
+        historyRequestedAt = System.nanoTime();
+        client.requestHistoryPage(other, Protocol.HISTORY_PAGE_SIZE, Protocol.HISTORY_LATEST, null);
+    }
+
+    /** Server metrics (STATS_DATA payload), or null if refused or not answered in time. */
+    String fetchStats(long timeoutSeconds) {
+        CompletableFuture<String> reply = new CompletableFuture<>();
+        pendingStats = reply;
+        client.requestStats();
+        try {
+            return reply.get(timeoutSeconds, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            return null;
+        } finally {
+            pendingStats = null;
+        }
+    }
+
+    boolean isOnline() {
+        return online;
+    }
+
+    void disconnect() {
+        online = false;
+        ChatClient c = client;
+        if (c != null) c.disconnect();
+    }
+
+    /** Listener thread of the ChatClient. */
+    private void onFrame(Frame frame) {
+        Opcode opcode = frame.opcode();
+        if (opcode == null) return;
+        switch (opcode) {
+            case INCOMING_MSG -> onIncoming(frame);
+            case MSG_OK -> generator.acked.increment();
+            case MSG_FAIL -> generator.failed.increment();
+            case HISTORY_END, HISTORY_DATA -> {
+                long requested = historyRequestedAt;
+                if (requested != 0) generator.recordHistory(System.nanoTime() - requested, requested);
+            }
+            case LOGIN_OK, LOGIN_FAIL, REGISTER_OK, REGISTER_FAIL, ALREADY_CONNECTED -> {
+                CompletableFuture<Opcode> reply = pendingReply;
+                if (reply != null) reply.complete(opcode);
+            }
+            case USER_LIST -> {
+                generator.presenceSnapshots.increment();
+                if (frame.size() > 2) notePresenceVersion(frame.field(2));
+            }
+            case PRESENCE_DELTA -> {
+                generator.presenceDeltas.increment();
+                notePresenceVersion(frame.field(1));
+            }
+            // Réservé aux contacts: ne dit rien des autres utilisateurs, la version de resynchronisation reste celle des listes
+            case USER_STATUS_CHANGE -> generator.presenceUpdates.increment();
+            case STATS_DATA -> {
+                CompletableFuture<String> reply = pendingStats;
+                if (reply != null) reply.complete(frame.size() > 1 ? frame.field(1) : "");
+            }
+            case ERROR -> {
+                CompletableFuture<String> reply = pendingStats;
+                if (reply != null) reply.complete(null); // STATS refusé
+                else generator.errors.increment();
+            }
+            default -> { }
+        }
+    }
+
+    private void notePresenceVersion(String field) {
+        try {
+            presenceVersion = Math.max(presenceVersion, Long.parseLong(field));
+        } catch (NumberFormatException e) {
+            // ancien serveur sans version: liste complète à chaque connexion
+        }
+    }
+
+    private void onIncoming(Frame frame) {
+        if (frame.size() < 5) return;
+        long receivedAt = System.nanoTime();
+        String content = frame.field(4);
+        if (!content.startsWith(CONTENT_PREFIX)) return;
+        int end = content.indexOf(' ');
+        try {
+            long sentAt = Long.parseLong(content, CONTENT_PREFIX.length(), end < 0 ? content.length() : end, 10);
+            generator.recordDelivery(receivedAt - sentAt, sentAt);
+        } catch (NumberFormatException e) {
+            // message d'un autre outil ou d'une autre exécution
+        }
+    }
+}
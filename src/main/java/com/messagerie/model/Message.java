@@ -4,7 +4,12 @@ import jakarta.persistence.*;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "messages")
+@Table(name = "messages", indexes = {
+        // Historique: un seul parcours d'intervalle par conversation, déjà trié par id
+        @Index(name = "idx_messages_conversation", columnList = "conversation_key, id"),
+        // RG6: messages en attente d'un destinataire
+        @Index(name = "idx_messages_pending", columnList = "receiver_id, statut, id")
+})
 public class Message {
 
     @Id
@@ -19,6 +24,10 @@ public class Message {
     @JoinColumn(name = "receiver_id", nullable = false)
     private User receiver;
 
+    /** Paire ordonnée des ids des deux participants, "min:max" (voir conversationKey); dénormalisée pour l'index. */
+    @Column(name = "conversation_key", length = 41)
+    private String conversationKey;
+
     @Column(nullable = false, length = 1000)
     private String contenu;
 
@@ -37,6 +46,20 @@ public class Message {
         this.contenu = contenu;
         this.dateEnvoi = LocalDateTime.now();
         this.statut = MessageStatus.ENVOYE;
+        this.conversationKey = conversationKey(sender.getId(), receiver.getId());
+    }
+
+    /** Same key for both directions of a conversation: "smallerId:largerId". */
+    public static String conversationKey(Long userId1, Long userId2) {
+        return userId1 <= userId2 ? userId1 + ":" + userId2 : userId2 + ":" + userId1;
+    }
+
+    @PrePersist
+    @PreUpdate
+    private void updateConversationKey() {
+        if (sender != null && receiver != null) {
+            conversationKey = conversationKey(sender.getId(), receiver.getId());
+        }
     }
 
     public Long getId() { return id; }
@@ -48,6 +71,8 @@ public class Message {
     public User getReceiver() { return receiver; }
     public void setReceiver(User receiver) { this.receiver = receiver; }
 
+    public String getConversationKey() { return conversationKey; }
+
     public String getContenu() { return contenu; }
     public void setContenu(String contenu) { this.contenu = contenu; }
 
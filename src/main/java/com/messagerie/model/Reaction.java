@@ -0,0 +1,83 @@
+package com.messagerie.model;
+
+import jakarta.persistence.*;
+
+/**
+ * Aggregated reactions of one emoji on one message: a single row holding the count and who reacted,
+ * updated in place when a participant toggles the reaction (no row per toggle).
+ */
+@Entity
+@Table(name = "message_reactions", uniqueConstraints = {
+        // Une ligne par (message, emoji); sert aussi d'index pour charger les réactions d'une page d'historique
+        @UniqueConstraint(name = "uk_reactions_message_emoji", columnNames = {"message_id", "emoji"})
+})
+public class Reaction {
+
+    /** Longueur max d'un emoji (séquences avec sélecteurs de variante / ZWJ comprises). */
+    public static final int MAX_EMOJI_LENGTH = 32;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "message_id", nullable = false)
+    private Long messageId;
+
+    @Column(nullable = false, length = MAX_EMOJI_LENGTH)
+    private String emoji;
+
+    @Column(name = "reaction_count", nullable = false)
+    private int count;
+
+    /** Ids des utilisateurs ayant réagi, séparés par des virgules (conversation à deux: au plus deux). */
+    @Column(name = "user_ids", nullable = false)
+    private String userIds = "";
+
+    public Reaction() {}
+
+    public Reaction(Long messageId, String emoji) {
+        this.messageId = messageId;
+        this.emoji = emoji;
+    }
+
+    public boolean hasUser(Long userId) {
+        return indexOf(userId) >= 0;
+    }
+
+    public void addUser(Long userId) {
+        if (hasUser(userId)) return;
+        userIds = userIds.isEmpty() ? userId.toString() : userIds + "," + userId;
+        count++;
+    }
+
+    public void removeUser(Long userId) {
+        String[] ids = userIds.split(",");
+        int i = indexOf(userId);
+        if (i < 0) return;
+        StringBuilder sb = new StringBuilder();
+        for (int j = 0; j < ids.length; j++) {
+            if (j == i) continue;
+            if (sb.length() > 0) sb.append(',');
+            sb.append(ids[j]);
+        }
+        userIds = sb.toString();
+        count--;
+    }
+
+    private int indexOf(Long userId) {
+        if (userIds.isEmpty()) return -1;
+        String[] ids = userIds.split(",");
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i].equals(userId.toString())) return i;
+        }
+        return -1;
+    }
+
+    public Long getId() { return id; }
+
+    public Long getMessageId() { return messageId; }
+
+    public String getEmoji() { return emoji; }
+
+    public int getCount() { return count; }
+}
@@ -24,6 +24,9 @@ public class User {
     @Column(nullable = false)
     private LocalDateTime dateCreation = LocalDateTime.now();
 
+    // Dernière déconnexion connue; la présence elle-même n'est tenue qu'en mémoire par le serveur
+    private LocalDateTime derniereConnexion;
+
     public User() {}
 
     public User(String username, String password) {
@@ -47,4 +50,7 @@ public class User {
 
     public LocalDateTime getDateCreation() { return dateCreation; }
     public void setDateCreation(LocalDateTime dateCreation) { this.dateCreation = dateCreation; }
+
+    public LocalDateTime getDerniereConnexion() { return derniereConnexion; }
+    public void setDerniereConnexion(LocalDateTime derniereConnexion) { this.derniereConnexion = derniereConnexion; }
 }
@@ -0,0 +1,116 @@
+package com.messagerie.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary framing (wire protocol v2), negotiated when the connection opens: the client sends MAGIC as its
+ * very first bytes and the server echoes it back. A text-only server answers with an ERROR line instead,
+ * and the client keeps talking text; text clients never send a 0x00 byte, so servers keep accepting them.
+ *
+ * Frame: type byte (Opcode.code) + varint payload length + payload; payload = fields, each one a varint
+ * byte length followed by UTF-8 bytes. Fields are never escaped, so content may contain | or newlines.
+ * Frames are read into a Frame (Frame.parseBinary), like text lines.
+ */
+public final class BinaryProtocol {
+
+    /** Handshake: 0x00 (never sent by a text client), "MB", version 2, newline so that a text server reads one line. */
+    public static final byte[] MAGIC = {0x00, 'M', 'B', 0x02, '\n'};
+    public static final int MAX_FRAME_BYTES = 1024 * 1024;
+
+    private BinaryProtocol() {}
+
+    /** True if {@code buf} starts with MAGIC (position unchanged); needs MAGIC.length bytes remaining. */
+    public static boolean isMagic(ByteBuffer buf) {
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buf.get(buf.position() + i) != MAGIC[i]) return false;
+        }
+        return true;
+    }
+
+    public static byte[] encode(String... fields) {
+        Opcode op = Opcode.fromText(fields[0]);
+        if (op == null) throw new IllegalArgumentException("Commande inconnue: " + fields[0]);
+        byte[][] encoded = new byte[fields.length - 1][];
+        int payload = 0;
+        for (int i = 1; i < fields.length; i++) {
+            encoded[i - 1] = fields[i].getBytes(StandardCharsets.UTF_8);
+            payload += varintSize(encoded[i - 1].length) + encoded[i - 1].length;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(1 + varintSize(payload) + payload);
+        buf.put((byte) op.code());
+        putVarint(buf, payload);
+        for (byte[] field : encoded) {
+            putVarint(buf, field.length);
+            buf.put(field);
+        }
+        return buf.array();
+    }
+
+    /**
+     * Looks for one complete frame at the position of {@code buf} (position unchanged).
+     * @return its length in bytes, header included, or -1 if more bytes are needed
+     * @throws IllegalArgumentException if the frame is malformed or too large
+     */
+    public static int completeFrame(ByteBuffer buf) {
+        int start = buf.position();
+        try {
+            if (buf.remaining() < 2) return -1;
+            buf.get(); // type
+            long payload = getVarint(buf);
+            if (payload > MAX_FRAME_BYTES) throw new IllegalArgumentException("Trame trop grande");
+            if (payload < 0 || buf.remaining() < payload) return -1;
+            return buf.position() - start + (int) payload;
+        } finally {
+            buf.position(start);
+        }
+    }
+
+    /**
+     * Parses one whole frame (as delimited by completeFrame) held in {@code buf[off, off + len)}.
+     * @throws IllegalArgumentException if the frame is malformed
+     */
+    public static Frame parse(byte[] buf, int off, int len, Frame frame) {
+        int end = off + len;
+        int pos = off;
+        int type = buf[pos++] & 0xFF;
+        int payload = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (pos >= end || shift > 28) throw new IllegalArgumentException("Trame invalide");
+            int b = buf[pos++] & 0xFF;
+            payload |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) break;
+        }
+        if (payload != end - pos) throw new IllegalArgumentException("Trame invalide");
+        return frame.parseBinary(type, buf, pos, payload);
+    }
+
+    static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static void putVarint(ByteBuffer buf, int value) {
+        while ((value & ~0x7F) != 0) {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    /** @return the value, or -1 if the buffer ends inside the varint */
+    static long getVarint(ByteBuffer buf) {
+        long value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (!buf.hasRemaining()) return -1;
+            int b = buf.get() & 0xFF;
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IllegalArgumentException("Varint invalide");
+    }
+}
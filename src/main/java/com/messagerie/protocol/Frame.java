@@ -0,0 +1,281 @@
+package com.messagerie.protocol;
+
+import java.util.Arrays;
+
+/**
+ * One parsed frame {command, field1, ...}, reusable: parsing copies the characters into an internal buffer
+ * that grows once and is then reused, and only records where each field starts and ends. The command is
+ * resolved to its Opcode during the same pass; a field becomes a String only when field(i) is called.
+ *
+ * Text lines are split on | up to Opcode.maxFields (the last field then keeps its |), binary frames
+ * (BinaryProtocol) are decoded field by field. Not thread-safe: one instance per reading thread, or a
+ * copy() when the frame must outlive the next parse.
+ */
+public final class Frame {
+
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private char[] chars;
+    private int length;
+    private int[] starts;
+    private int[] ends;
+    private int size;
+    private Opcode opcode;
+
+    public Frame() {
+        this(256, 8);
+    }
+
+    private Frame(int capacity, int fields) {
+        chars = new char[Math.max(capacity, 1)];
+        starts = new int[Math.max(fields, 1)];
+        ends = new int[Math.max(fields, 1)];
+    }
+
+    /** Parses a text line (without its newline). */
+    public Frame parseText(CharSequence line) {
+        int n = line.length();
+        ensureChars(n);
+        if (line instanceof String s) {
+            s.getChars(0, n, chars, 0);
+        } else {
+            for (int i = 0; i < n; i++) chars[i] = line.charAt(i);
+        }
+        length = n;
+        split();
+        return this;
+    }
+
+    /** Parses a UTF-8 text line (without its newline) held in {@code buf[off, off + len)}. */
+    public Frame parseText(byte[] buf, int off, int len) {
+        length = 0;
+        decodeUtf8(buf, off, len);
+        split();
+        return this;
+    }
+
+    /**
+     * Parses the payload of a binary frame (see BinaryProtocol) of the given type.
+     * @throws IllegalArgumentException if the payload is malformed
+     */
+    public Frame parseBinary(int type, byte[] buf, int off, int len) {
+        size = 0;
+        length = 0;
+        opcode = Opcode.fromCode(type);
+        String command = opcode != null ? opcode.text() : "#" + type;
+        ensureChars(command.length());
+        command.getChars(0, command.length(), chars, 0);
+        length = command.length();
+        addField(0, length);
+
+        int pos = off;
+        int end = off + len;
+        while (pos < end) {
+            int fieldLen = 0;
+            int shift = 0;
+            while (true) {
+                if (pos >= end || shift > 28) throw new IllegalArgumentException("Champ invalide");
+                int b = buf[pos++] & 0xFF;
+                fieldLen |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) break;
+                shift += 7;
+            }
+            if (fieldLen < 0 || fieldLen > end - pos) throw new IllegalArgumentException("Champ invalide");
+            int start = length;
+            decodeUtf8(buf, pos, fieldLen);
+            addField(start, length);
+            pos += fieldLen;
+        }
+        return this;
+    }
+
+    /** Single pass over the characters: command lookup, then field bounds up to Opcode.maxFields. */
+    private void split() {
+        size = 0;
+        int sep = indexOf('|', 0);
+        int commandEnd = sep < 0 ? length : sep;
+        opcode = Opcode.fromChars(chars, 0, commandEnd);
+        addField(0, commandEnd);
+        int maxFields = opcode != null ? opcode.maxFields() : 0;
+        int start = commandEnd + 1;
+        while (sep >= 0) {
+            if (maxFields > 0 && size == maxFields - 1) {
+                addField(start, length);
+                return;
+            }
+            sep = indexOf('|', start);
+            int end = sep < 0 ? length : sep;
+            addField(start, end);
+            start = end + 1;
+        }
+    }
+
+    private int indexOf(char c, int from) {
+        for (int i = from; i < length; i++) {
+            if (chars[i] == c) return i;
+        }
+        return -1;
+    }
+
+    private void addField(int start, int end) {
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+        }
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+    }
+
+    private void ensureChars(int capacity) {
+        if (capacity > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(capacity, chars.length * 2));
+        }
+    }
+
+    /** Appends the UTF-8 bytes, decoded, at the end of the character buffer (malformed input -> U+FFFD). */
+    private void decodeUtf8(byte[] buf, int off, int len) {
+        ensureChars(length + len); // jamais plus de caractères que d'octets
+        int pos = off;
+        int end = off + len;
+        int out = length;
+        while (pos < end) {
+            int b = buf[pos++];
+            if (b >= 0) {
+                chars[out++] = (char) b;
+                continue;
+            }
+            int extra;
+            int cp;
+            if ((b & 0xE0) == 0xC0) {
+                extra = 1;
+                cp = b & 0x1F;
+            } else if ((b & 0xF0) == 0xE0) {
+                extra = 2;
+                cp = b & 0x0F;
+            } else if ((b & 0xF8) == 0xF0) {
+                extra = 3;
+                cp = b & 0x07;
+            } else {
+                chars[out++] = REPLACEMENT;
+                continue;
+            }
+            if (end - pos < extra) {
+                chars[out++] = REPLACEMENT;
+                break;
+            }
+            boolean valid = true;
+            for (int i = 0; i < extra; i++) {
+                int c = buf[pos + i];
+                if ((c & 0xC0) != 0x80) {
+                    valid = false;
+                    break;
+                }
+                cp = (cp << 6) | (c & 0x3F);
+            }
+            if (!valid) {
+                chars[out++] = REPLACEMENT;
+                continue;
+            }
+            pos += extra;
+            if (cp >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                chars[out++] = Character.highSurrogate(cp);
+                chars[out++] = Character.lowSurrogate(cp);
+            } else {
+                chars[out++] = (char) cp;
+            }
+        }
+        length = out;
+    }
+
+    /** @return the command, or null if it is unknown */
+    public Opcode opcode() {
+        return opcode;
+    }
+
+    /** Number of fields, command included (like the length of the former String[]). */
+    public int size() {
+        return size;
+    }
+
+    public String field(int i) {
+        checkIndex(i);
+        return new String(chars, starts[i], ends[i] - starts[i]);
+    }
+
+    public int length(int i) {
+        checkIndex(i);
+        return ends[i] - starts[i];
+    }
+
+    public boolean isBlank(int i) {
+        checkIndex(i);
+        for (int p = starts[i]; p < ends[i]; p++) {
+            if (!Character.isWhitespace(chars[p])) return false;
+        }
+        return true;
+    }
+
+    public boolean fieldEquals(int i, String value) {
+        checkIndex(i);
+        int len = ends[i] - starts[i];
+        if (len != value.length()) return false;
+        for (int p = 0; p < len; p++) {
+            if (chars[starts[i] + p] != value.charAt(p)) return false;
+        }
+        return true;
+    }
+
+    /** @throws NumberFormatException if the field is not a decimal long */
+    public long longField(int i) {
+        checkIndex(i);
+        int p = starts[i];
+        int end = ends[i];
+        boolean negative = p < end && chars[p] == '-';
+        if (negative) p++;
+        if (p == end) throw new NumberFormatException("Champ numérique vide");
+        long value = 0;
+        for (; p < end; p++) {
+            int d = chars[p] - '0';
+            if (d < 0 || d > 9) throw new NumberFormatException("Champ non numérique");
+            if (value > (Long.MAX_VALUE - d) / 10) throw new NumberFormatException("Valeur trop grande");
+            value = value * 10 + d;
+        }
+        return negative ? -value : value;
+    }
+
+    /** @throws NumberFormatException if the field is not a decimal int */
+    public int intField(int i) {
+        long value = longField(i);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) throw new NumberFormatException("Valeur trop grande");
+        return (int) value;
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size) throw new IndexOutOfBoundsException("Champ " + i + " absent (" + size + " champs)");
+    }
+
+    /** Detached copy, for frames handed to another thread. */
+    public Frame copy() {
+        Frame f = new Frame(length, size);
+        System.arraycopy(chars, 0, f.chars, 0, length);
+        System.arraycopy(starts, 0, f.starts, 0, size);
+        System.arraycopy(ends, 0, f.ends, 0, size);
+        f.length = length;
+        f.size = size;
+        f.opcode = opcode;
+        return f;
+    }
+
+    public String[] toArray() {
+        String[] fields = new String[size];
+        for (int i = 0; i < size; i++) fields[i] = field(i);
+        return fields;
+    }
+
+    /** Text form of the frame (fields joined with |). */
+    @Override
+    public String toString() {
+        return Protocol.buildCommand(toArray());
+    }
+}
@@ -0,0 +1,124 @@
+package com.messagerie.protocol;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads frames from a blocking stream into a reusable Frame: text lines (\n or \r\n) or binary frames,
+ * through one internal byte buffer, so steady-state reading allocates nothing but the fields asked for.
+ */
+public final class FrameReader {
+
+    /** Une ligne texte plus longue est refusée (MSG est limité à 1000 caractères, cf. RG7). */
+    public static final int MAX_LINE_BYTES = 64 * 1024;
+
+    private final InputStream in;
+    private byte[] buf = new byte[8 * 1024];
+    private int pos;
+    private int limit;
+    private Framing framing = Framing.TEXT;
+
+    public FrameReader(InputStream in) {
+        this.in = in;
+    }
+
+    public void setFraming(Framing framing) {
+        this.framing = framing;
+    }
+
+    /** Next byte without consuming it; -1 at end of stream. */
+    public int peek() throws IOException {
+        return fill(1) ? buf[pos] & 0xFF : -1;
+    }
+
+    /** Consumes the handshake (BinaryProtocol.MAGIC); false if the next bytes are something else. */
+    public boolean readMagic() throws IOException {
+        int n = BinaryProtocol.MAGIC.length;
+        if (!fill(n)) return false;
+        boolean match = Arrays.equals(buf, pos, pos + n, BinaryProtocol.MAGIC, 0, n);
+        pos += n;
+        return match;
+    }
+
+    /** Skips the rest of the current text line (e.g. the ERROR answered by a text-only server). */
+    public void skipLine() throws IOException {
+        while (fill(1)) {
+            if (buf[pos++] == '\n') return;
+        }
+    }
+
+    /**
+     * Reads the next frame into {@code frame}.
+     * @return false at end of stream
+     * @throws IOException on I/O error or malformed / oversized frame
+     */
+    public boolean read(Frame frame) throws IOException {
+        return framing == Framing.BINARY ? readBinary(frame) : readText(frame);
+    }
+
+    private boolean readText(Frame frame) throws IOException {
+        int scanned = 0;
+        while (true) {
+            for (int i = pos + scanned; i < limit; i++) {
+                if (buf[i] == '\n') {
+                    int end = i;
+                    if (end > pos && buf[end - 1] == '\r') end--; // même comportement que readLine()
+                    frame.parseText(buf, pos, end - pos);
+                    pos = i + 1;
+                    return true;
+                }
+            }
+            scanned = limit - pos;
+            if (scanned > MAX_LINE_BYTES) throw new IOException("Ligne trop longue");
+            if (!fill(scanned + 1)) {
+                if (limit == pos) return false;
+                frame.parseText(buf, pos, limit - pos); // dernière ligne sans \n
+                pos = limit;
+                return true;
+            }
+        }
+    }
+
+    private boolean readBinary(Frame frame) throws IOException {
+        if (!fill(1)) return false;
+        int header = 1; // octet de type
+        int payload = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (shift > 28) throw new IOException("Varint invalide");
+            if (!fill(header + 1)) throw new EOFException();
+            int b = buf[pos + header++] & 0xFF;
+            payload |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) break;
+        }
+        if (payload < 0 || payload > BinaryProtocol.MAX_FRAME_BYTES) throw new IOException("Trame trop grande");
+        if (!fill(header + payload)) throw new EOFException();
+        try {
+            BinaryProtocol.parse(buf, pos, header + payload, frame);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+        pos += header + payload;
+        return true;
+    }
+
+    /** Makes at least {@code n} unread bytes available; false if the stream ends first. */
+    private boolean fill(int n) throws IOException {
+        if (limit - pos >= n) return true;
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        if (n > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(n, buf.length * 2));
+        }
+        while (limit < n) {
+            int r = in.read(buf, limit, buf.length - limit);
+            if (r < 0) return false;
+            limit += r;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,23 @@
+package com.messagerie.protocol;
+
+import java.nio.charset.StandardCharsets;
+
+/** Wire framing of a connection: text lines (Protocol) or length-prefixed binary frames (BinaryProtocol). */
+public enum Framing {
+    TEXT,
+    BINARY;
+
+    /**
+     * Encodes {command, field1, ...} as it goes on the wire (text lines end with \n). A text field holding \r
+     * or \n is refused (IllegalArgumentException): it would split the line and forge the frames that follow.
+     */
+    public byte[] encode(String... fields) {
+        if (this == BINARY) return BinaryProtocol.encode(fields);
+        for (String field : fields) {
+            if (Protocol.containsLineBreak(field)) {
+                throw new IllegalArgumentException("Fin de ligne dans un champ de " + fields[0]);
+            }
+        }
+        return (Protocol.buildCommand(fields) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+}
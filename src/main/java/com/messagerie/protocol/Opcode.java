@@ -0,0 +1,117 @@
+package com.messagerie.protocol;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Every command of the protocol with its one-byte code (type byte of a binary frame) and, for commands
+ * whose last field may contain |, the number of fields to split a text line into.
+ */
+public enum Opcode {
+
+    // Client -> Server
+    HELLO(1, Protocol.HELLO, 0),
+    LOGIN(2, Protocol.LOGIN, 0),
+    REGISTER(3, Protocol.REGISTER, 0),
+    LOGOUT(4, Protocol.LOGOUT, 0),
+    SEND_MSG(5, Protocol.SEND_MSG, 3),
+    GET_USERS(6, Protocol.GET_USERS, 0),
+    GET_HISTORY(7, Protocol.GET_HISTORY, 0),
+    TYPING_START(8, Protocol.TYPING_START, 0),
+    TYPING_STOP(9, Protocol.TYPING_STOP, 0),
+    ADD_REACTION(10, Protocol.ADD_REACTION, 0),
+    MSG_READ(11, Protocol.MSG_READ, 0),
+    STATS(12, Protocol.STATS, 0),
+    PRESENCE_SUB(13, Protocol.PRESENCE_SUB, 0),
+
+    // Server -> Client
+    HELLO_OK(32, Protocol.HELLO_OK, 0),
+    LOGIN_OK(33, Protocol.LOGIN_OK, 0),
+    LOGIN_FAIL(34, Protocol.LOGIN_FAIL, 2),
+    REGISTER_OK(35, Protocol.REGISTER_OK, 2),
+    REGISTER_FAIL(36, Protocol.REGISTER_FAIL, 2),
+    MSG_OK(37, Protocol.MSG_OK, 0),
+    MSG_FAIL(38, Protocol.MSG_FAIL, 2),
+    INCOMING_MSG(39, Protocol.INCOMING_MSG, 5),
+    USER_LIST(40, Protocol.USER_LIST, 0),
+    HISTORY_DATA(41, Protocol.HISTORY_DATA, 2),
+    HISTORY_BEGIN(42, Protocol.HISTORY_BEGIN, 0),
+    HISTORY_CHUNK(43, Protocol.HISTORY_CHUNK, 4),
+    HISTORY_END(44, Protocol.HISTORY_END, 0),
+    USER_STATUS_CHANGE(45, Protocol.USER_STATUS_CHANGE, 0),
+    ERROR(46, Protocol.ERROR, 2),
+    ALREADY_CONNECTED(47, Protocol.ALREADY_CONNECTED, 2),
+    TYPING_INDICATOR(48, Protocol.TYPING_INDICATOR, 0),
+    REACTION_ADDED(49, Protocol.REACTION_ADDED, 0),
+    MSG_STATUS_UPDATE(50, Protocol.MSG_STATUS_UPDATE, 0),
+    STATS_DATA(51, Protocol.STATS_DATA, 2),
+    PRESENCE_DELTA(52, Protocol.PRESENCE_DELTA, 0);
+
+    private static final Opcode[] BY_CODE = new Opcode[256];
+    private static final Map<String, Opcode> BY_TEXT = new HashMap<>();
+    /** Commandes regroupées par longueur du nom, pour fromChars sans créer de String. */
+    private static final Opcode[][] BY_LENGTH;
+
+    static {
+        int maxLength = 0;
+        for (Opcode op : values()) {
+            BY_CODE[op.code] = op;
+            BY_TEXT.put(op.text, op);
+            maxLength = Math.max(maxLength, op.text.length());
+        }
+        BY_LENGTH = new Opcode[maxLength + 1][];
+        for (int len = 0; len <= maxLength; len++) {
+            int l = len;
+            BY_LENGTH[len] = Arrays.stream(values()).filter(op -> op.text.length() == l).toArray(Opcode[]::new);
+        }
+    }
+
+    private final int code;
+    private final String text;
+    private final int maxFields;
+
+    Opcode(int code, String text, int maxFields) {
+        this.code = code;
+        this.text = text;
+        this.maxFields = maxFields;
+    }
+
+    /** Type byte in binary frames. */
+    public int code() {
+        return code;
+    }
+
+    /** Command name in text frames (first field). */
+    public String text() {
+        return text;
+    }
+
+    /** Number of fields (command included) of a text line, the last one keeping any |; 0 = split on every |. */
+    public int maxFields() {
+        return maxFields;
+    }
+
+    /** @return the opcode, or null if unknown */
+    public static Opcode fromCode(int code) {
+        return code >= 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+    }
+
+    /** @return the opcode, or null if unknown */
+    public static Opcode fromText(String text) {
+        return BY_TEXT.get(text);
+    }
+
+    /** Same as fromText for the characters {@code chars[off, off + len)}, without allocating. */
+    public static Opcode fromChars(char[] chars, int off, int len) {
+        if (len >= BY_LENGTH.length) return null;
+        candidates:
+        for (Opcode op : BY_LENGTH[len]) {
+            for (int i = 0; i < len; i++) {
+                if (op.text.charAt(i) != chars[off + i]) continue candidates;
+            }
+            return op;
+        }
+        return null;
+    }
+}
@@ -1,11 +1,15 @@
 package com.messagerie.protocol;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.List;
 
 /**
  * Text protocol over TCP: one command per line, fields separated by |.
  * Commands that carry user content use limited split or Base64 to avoid | in content breaking parsing.
  * Format: COMMAND|field1|field2|...|payload (payload may contain | when using parseCommand(raw, maxParts)).
+ * The same frames can travel in binary framing instead (see BinaryProtocol), negotiated when the connection opens.
  */
 public class Protocol {
 
@@ -14,19 +18,66 @@ public class Protocol {
     public static final String HISTORY_SEP = ";;";
     public static final String HISTORY_FIELD_SEP = "::";
 
+    /**
+     * Versions du protocole, négociées par HELLO|maxVersion (client) / HELLO_OK|version (serveur).
+     * 1: historique en Base64 (records sender::base64(content)::date::id::status, puis payload re-encodé).
+     * 2: historique compact, chaque champ préfixé par sa longueur (voir appendHistoryRecord), sans Base64.
+     * 3: record compact avec un 6e champ, les réactions agrégées du message (voir appendReaction).
+     */
+    public static final int VERSION_1 = 1;
+    public static final int VERSION_2 = 2;
+    public static final int VERSION_3 = 3;
+    public static final int CURRENT_VERSION = VERSION_3;
+    /** Nombre de champs d'un record d'historique: sender, content, date, id, status. */
+    public static final int HISTORY_RECORD_FIELDS = 5;
+    /** Version 3: mêmes champs suivis des réactions. */
+    public static final int HISTORY_RECORD_FIELDS_V3 = 6;
+
     // Client -> Server commands
+    /** Format: HELLO|maxVersion, envoyé juste après la connexion; un ancien serveur répond ERROR (version 1). */
+    public static final String HELLO = "HELLO";
     public static final String LOGIN = "LOGIN";
     public static final String REGISTER = "REGISTER";
     public static final String LOGOUT = "LOGOUT";
     public static final String SEND_MSG = "MSG";
+    /**
+     * Format: USERLIST (instantané USER_LIST) ou USERLIST|sinceVersion (changements de présence depuis cette
+     * version en PRESENCE_DELTA, ou instantané si le serveur ne les a plus).
+     */
     public static final String GET_USERS = "USERLIST";
+    /**
+     * Format: HISTORY|otherUsername (tout l'historique en une trame HISTORY_DATA, anciens clients) ou
+     * HISTORY|otherUsername|limit[|BEFORE|AFTER|messageId] (réponse en flux HISTORY_BEGIN/CHUNK/END; limit 0 = tout, ou tout
+     * avant / après messageId).
+     */
     public static final String GET_HISTORY = "HISTORY";
+    /**
+     * Format: TYPING_START|receiver / TYPING_STOP|receiver, sans réponse. Le client répète TYPING_START au plus
+     * toutes les TYPING_REFRESH_MILLIS tant que l'utilisateur écrit; sans cela le serveur envoie STOP à expiration.
+     */
     public static final String TYPING_START = "TYPING_START";
     public static final String TYPING_STOP = "TYPING_STOP";
+    /**
+     * Format: ADD_REACTION|messageId|username|emoji[|ADD/REMOVE] (ADD par défaut; username ignoré, c'est
+     * l'utilisateur connecté qui réagit). Réponse: REACTION_ADDED aux deux participants si l'état change.
+     */
     public static final String ADD_REACTION = "ADD_REACTION";
+    /**
+     * Format: MSG_READ|sender|upToMessageId (filigrane cumulatif: tous les messages reçus de sender jusqu'à cet id
+     * sont lus), sans réponse. Envoyé par le client au plus toutes les READ_DEBOUNCE_MILLIS par conversation.
+     */
     public static final String MSG_READ = "MSG_READ";
+    /** Format: STATS (admin: utilisateur listé dans server.admin.users, ou connexion locale si la liste est vide). */
+    public static final String STATS = "STATS";
+    /**
+     * Format: PRESENCE_SUB|user1,user2,... sans réponse : recevoir aussi les USER_STATUS_CHANGE de ces utilisateurs
+     * (par défaut, seulement ceux des interlocuteurs), jusqu'à la déconnexion.
+     */
+    public static final String PRESENCE_SUB = "PRESENCE_SUB";
 
     // Server -> Client responses
+    /** Format: HELLO_OK|version (version retenue = min(client, serveur)) */
+    public static final String HELLO_OK = "HELLO_OK";
     public static final String LOGIN_OK = "LOGIN_OK";
     public static final String LOGIN_FAIL = "LOGIN_FAIL";
     public static final String REGISTER_OK = "REGISTER_OK";
@@ -35,24 +86,111 @@ public class Protocol {
     public static final String MSG_FAIL = "MSG_FAIL";
     /** Format: INCOMING_MSG|sender|date|id|content (content last so it may contain |) */
     public static final String INCOMING_MSG = "INCOMING_MSG";
+    /** Format: USER_LIST|user1:ONLINE,user2:OFFLINE,...|version (version de présence de l'instantané). */
     public static final String USER_LIST = "USER_LIST";
-    /** Format: HISTORY_DATA|base64(payload), payload = msg1;;msg2, each msg = sender::base64(content)::date::id::status (content encodé pour éviter que "::" casse le parsing) */
+    /**
+     * Format v1: HISTORY_DATA|base64(payload), payload = msg1;;msg2, each msg = sender::base64(content)::date::id::status
+     * (content encodé pour éviter que "::" casse le parsing). Format v2: HISTORY_DATA|records (voir appendHistoryRecord).
+     */
     public static final String HISTORY_DATA = "HISTORY_DATA";
+    /**
+     * Réponse à HISTORY|other|limit[...] envoyée en flux: HISTORY_BEGIN|otherUsername|LATEST/BEFORE/AFTER,
+     * puis des HISTORY_CHUNK|otherUsername|seq|records de taille bornée (records encodés selon la version,
+     * du plus ancien au plus récent, en dernier champ car ils peuvent contenir | en version 2),
+     * puis HISTORY_END|otherUsername|chunkCount|hasMore(true/false).
+     */
+    public static final String HISTORY_BEGIN = "HISTORY_BEGIN";
+    public static final String HISTORY_CHUNK = "HISTORY_CHUNK";
+    public static final String HISTORY_END = "HISTORY_END";
+    /**
+     * Format: USER_STATUS_CHANGE|username|ONLINE/OFFLINE|version|previousVersion, envoyé aux seuls interlocuteurs et
+     * abonnés (PRESENCE_SUB). version = version de présence du changement; previousVersion = celle du précédent
+     * changement diffusé pour cet utilisateur (un client qui en connaît un plus ancien en a manqué un).
+     */
     public static final String USER_STATUS_CHANGE = "USER_STATUS_CHANGE";
+    /**
+     * Format: PRESENCE_DELTA|version|user1:ONLINE:v1,user2:OFFLINE:v2,... : dernier statut de chaque utilisateur
+     * changé depuis la version demandée, avec la version de ce changement.
+     */
+    public static final String PRESENCE_DELTA = "PRESENCE_DELTA";
     public static final String ERROR = "ERROR";
     public static final String ALREADY_CONNECTED = "ALREADY_CONNECTED";
     /** Format: TYPING_INDICATOR|username|action (START/STOP) */
     public static final String TYPING_INDICATOR = "TYPING_INDICATOR";
-    /** Format: REACTION_ADDED|messageId|username|emoji */
+    /**
+     * Format: REACTION_ADDED|messageId|username|emoji|ADD/REMOVE|count (delta: username a ajouté ou retiré emoji,
+     * count = nouveau total pour cet emoji sur ce message).
+     */
     public static final String REACTION_ADDED = "REACTION_ADDED";
-    /** Format: MSG_STATUS_UPDATE|messageId|status (RECU/LU) */
+    /**
+     * Format: MSG_STATUS_UPDATE|messageId|status (RECU/LU) pour un message, ou MSG_STATUS_UPDATE|upToId|LU|reader
+     * pour tous les messages envoyés à reader jusqu'à upToId (accusé de lecture cumulatif).
+     */
     public static final String MSG_STATUS_UPDATE = "MSG_STATUS_UPDATE";
+    /** Format: STATS_DATA|name=value,name=value,... (métriques du serveur, voir ServerMetrics.snapshot) */
+    public static final String STATS_DATA = "STATS_DATA";
+
+    public static final String REACTION_ADD = "ADD";
+    public static final String REACTION_REMOVE = "REMOVE";
+
+    /** Délai (ms) de regroupement des accusés de lecture côté client avant l'envoi de MSG_READ. */
+    public static final int READ_DEBOUNCE_MILLIS = 500;
+    /** Intervalle (ms) entre deux USERLIST|version du client : statuts des utilisateurs hors contacts. */
+    public static final int PRESENCE_REFRESH_MILLIS = 30_000;
+    /** Intervalle (ms) entre deux TYPING_START répétés pendant la saisie. */
+    public static final int TYPING_REFRESH_MILLIS = 2000;
+
+    // Curseurs de pagination de l'historique
+    public static final String HISTORY_LATEST = "LATEST";
+    public static final String HISTORY_BEFORE = "BEFORE";
+    public static final String HISTORY_AFTER = "AFTER";
+    public static final int HISTORY_PAGE_SIZE = 50;
+    public static final int HISTORY_MAX_PAGE_SIZE = 200;
+    /** Taille visée (caractères, avant Base64) d'un HISTORY_CHUNK. */
+    public static final int HISTORY_CHUNK_SIZE = 16 * 1024;
+
+    /**
+     * Characters a username may not contain: line ends (text framing) and the separators of USER_LIST,
+     * PRESENCE_DELTA, PRESENCE_SUB and the v1 history payload.
+     */
+    private static final String USERNAME_FORBIDDEN = "\r\n|,:;";
+    /** Characters no inner field may contain: line ends (text framing) and the field separator. */
+    private static final String FIELD_FORBIDDEN = "\r\n|";
+
+    /** True if the username can travel unescaped in every frame and list that carries it. */
+    public static boolean isValidUsername(String username) {
+        return !containsAny(username, USERNAME_FORBIDDEN);
+    }
+
+    /**
+     * True if the value can be an inner field of a frame whose fields are all split on | (maxFields 0, e.g.
+     * REACTION_ADDED), in text framing and once re-parsed by a cluster peer.
+     */
+    public static boolean isValidField(CharSequence value) {
+        return !containsAny(value, FIELD_FORBIDDEN);
+    }
+
+    private static boolean containsAny(CharSequence value, String forbidden) {
+        for (int i = 0; i < value.length(); i++) {
+            if (forbidden.indexOf(value.charAt(i)) >= 0) return true;
+        }
+        return false;
+    }
+
+    /** True if the value contains \r or \n, which would end a text line early (binary framing carries them). */
+    public static boolean containsLineBreak(CharSequence value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\n' || c == '\r') return true;
+        }
+        return false;
+    }
 
     public static String buildCommand(String... parts) {
         return String.join(SEPARATOR, parts);
     }
 
-    /** Full split on |; use parseCommand(raw, maxParts) when the last field may contain |. */
+    /** Full split on |; use parseCommand(raw, maxParts) when the last field may contain |. Hot paths use Frame. */
     public static String[] parseCommand(String raw) {
         return raw.split(SEPARATOR_REGEX, -1);
     }
@@ -65,10 +203,113 @@ public class Protocol {
     }
 
     public static String encodePayload(String payload) {
-        return Base64.getEncoder().encodeToString(payload.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+        return Base64.getEncoder().encodeToString(payload.getBytes(StandardCharsets.UTF_8));
     }
 
     public static String decodePayload(String encoded) {
-        return new String(Base64.getDecoder().decode(encoded), java.nio.charset.StandardCharsets.UTF_8);
+        return new String(Base64.getDecoder().decode(encoded), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Appends one history record to a v2 payload: each field is written as {@code length:value}, so content
+     * never needs escaping (the server refuses a newline in content, which could not travel in a text MSG line). Lengths count UTF-16
+     * chars because both ends work on decoded lines. E.g. "5:alice3:a|b19:2024-01-01T10:00:002:427:ENVOYE".
+     */
+    public static void appendHistoryRecord(StringBuilder sb, String sender, String content, String date, long id, String status) {
+        appendField(sb, sender);
+        appendField(sb, content);
+        appendField(sb, date);
+        appendField(sb, Long.toString(id));
+        appendField(sb, status);
+    }
+
+    /** Version 3: record v2 suivi des réactions du message, encodées par appendReaction (vide si aucune). */
+    public static void appendHistoryRecord(StringBuilder sb, String sender, String content, String date, long id, String status,
+                                           CharSequence reactions) {
+        appendHistoryRecord(sb, sender, content, date, id, status);
+        sb.append(reactions.length()).append(':').append(reactions);
+    }
+
+    /**
+     * Appends one aggregated reaction to a record's reaction field: emoji, count, and 1 if the user the
+     * history is sent to is among those who reacted, 0 otherwise (same length-prefixed fields as a record).
+     */
+    public static void appendReaction(StringBuilder sb, String emoji, int count, boolean mine) {
+        appendField(sb, emoji);
+        appendField(sb, Integer.toString(count));
+        appendField(sb, mine ? "1" : "0");
+    }
+
+    /** Decodes the reaction field of a v3 record into {emoji, count, mine (1/0)} entries. */
+    public static List<String[]> decodeReactions(String reactions) {
+        return decodeLengthPrefixed(reactions, 3);
+    }
+
+    private static void appendField(StringBuilder sb, String value) {
+        sb.append(value.length()).append(':').append(value);
+    }
+
+    /** Appends one v1 record: sender::base64(content)::date::id::status, records separated by ;; (payload Base64-encoded afterwards). */
+    public static void appendLegacyHistoryRecord(StringBuilder sb, String sender, String content, String date, long id, String status) {
+        if (sb.length() > 0) sb.append(HISTORY_SEP);
+        sb.append(sender)
+          .append(HISTORY_FIELD_SEP).append(encodePayload(content))
+          .append(HISTORY_FIELD_SEP).append(date)
+          .append(HISTORY_FIELD_SEP).append(id)
+          .append(HISTORY_FIELD_SEP).append(status);
+    }
+
+    /**
+     * Decodes a history payload as received in HISTORY_DATA / HISTORY_CHUNK for the given protocol version.
+     * Each entry holds {sender, content, date, id, status}, plus the reactions (see decodeReactions) from
+     * version 3; v1 records from very old servers may only have {sender, content, date} (content then not
+     * Base64-encoded).
+     * @throws IllegalArgumentException if the payload is malformed
+     */
+    public static List<String[]> decodeHistory(String payload, int version) {
+        if (version >= VERSION_3) return decodeLengthPrefixed(payload, HISTORY_RECORD_FIELDS_V3);
+        return version >= VERSION_2 ? decodeLengthPrefixed(payload, HISTORY_RECORD_FIELDS) : decodeLegacyHistory(payload);
+    }
+
+    private static List<String[]> decodeLengthPrefixed(String payload, int fields) {
+        List<String[]> records = new ArrayList<>();
+        int pos = 0;
+        int n = payload.length();
+        while (pos < n) {
+            String[] record = new String[fields];
+            for (int f = 0; f < fields; f++) {
+                int colon = payload.indexOf(':', pos);
+                if (colon < 0) throw new IllegalArgumentException("Record d'historique tronqué");
+                int len = Integer.parseInt(payload, pos, colon, 10);
+                int end = colon + 1 + len;
+                if (len < 0 || end > n) throw new IllegalArgumentException("Longueur de champ invalide");
+                record[f] = payload.substring(colon + 1, end);
+                pos = end;
+            }
+            records.add(record);
+        }
+        return records;
+    }
+
+    private static List<String[]> decodeLegacyHistory(String payload) {
+        String decoded = payload.isEmpty() ? "" : decodePayload(payload);
+        List<String[]> records = new ArrayList<>();
+        for (String m : decoded.split(HISTORY_SEP)) {
+            if (m.isBlank()) continue;
+            String[] fields = m.split(HISTORY_FIELD_SEP, -1);
+            if (fields.length >= HISTORY_RECORD_FIELDS) {
+                String content;
+                try {
+                    content = decodePayload(fields[1]);
+                } catch (IllegalArgumentException e) {
+                    content = fields[1]; // fallback si pas du base64
+                }
+                records.add(new String[] {fields[0], content, fields[2], fields[3], fields[4]});
+            } else if (fields.length >= 3) {
+                // Ancien format sans id/statut, contenu non encodé (rétrocompat)
+                records.add(new String[] {fields[0], fields[1], fields[2]});
+            }
+        }
+        return records;
     }
 }
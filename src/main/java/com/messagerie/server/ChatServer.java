@@ -2,43 +2,59 @@ package com.messagerie.server;
 
 import com.messagerie.config.AppConfig;
 import com.messagerie.dao.HibernateUtil;
-import com.messagerie.dao.UserDAO;
+import com.messagerie.dao.PoolMetrics;
+import com.messagerie.dao.SchemaMigration;
+import com.messagerie.dao.MessageWriteBehind;
+import com.messagerie.dao.UserDirectory;
 
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class ChatServer {
 
-    private final int port = AppConfig.getServerPort();
-    private final Map<String, ClientHandler> connectedClients = new ConcurrentHashMap<>();
+    private final int port;
+    private final String clusterNode;
+    private final PresenceRegistry presence;
     private ServerSocket serverSocket;
+    private NioChatServer nioServer;
+
+    /** Server configured by AppConfig: standalone, or cluster node when cluster.node is set. */
+    public ChatServer() {
+        this(AppConfig.getServerPort(), AppConfig.getClusterNode(), AppConfig.getClusterTransport());
+    }
+
+    /**
+     * @param clusterNode id of this node in the cluster, or null for a standalone server
+     * @param clusterTransport "tcp" (cluster.port, cluster.peers) or "inproc" (nodes started in this JVM)
+     */
+    public ChatServer(int port, String clusterNode, String clusterTransport) {
+        this.port = port;
+        this.clusterNode = clusterNode;
+        this.presence = clusterNode == null ? new PresenceRegistry()
+                : new PresenceRegistry(clusterNode, ClusterTransport.create(clusterTransport));
+    }
 
     public void start() {
         // Initialiser Hibernate
         HibernateUtil.getEntityManagerFactory();
+        SchemaMigration.run();
         ServerLogger.logInfo("Base de données initialisée.");
 
-        // RG4: remettre tous les utilisateurs hors ligne au démarrage
-        UserDAO userDAO = new UserDAO();
-        userDAO.setAllOffline();
+        // RG4: la présence est tenue en mémoire (PresenceRegistry), plus besoin de remettre la table à OFFLINE
+        int cachedUsers = UserDirectory.getInstance().preload();
+        ServerLogger.logInfo("Annuaire utilisateurs chargé (" + cachedUsers + " utilisateurs).");
+        ServerMetrics.getInstance().register(presence);
+        presence.router().start();
+        if (clusterNode != null) ServerLogger.logInfo("Nœud " + clusterNode + " du cluster démarré.");
 
         try {
-            serverSocket = new ServerSocket(port);
-            ServerLogger.logInfo("Serveur démarré sur le port " + port);
-            ServerLogger.logInfo("En attente de connexions...");
-
-            while (true) {
-                Socket clientSocket = serverSocket.accept();
-                ServerLogger.logInfo("Nouvelle connexion depuis " + clientSocket.getInetAddress().getHostAddress());
-
-                // RG11: chaque client dans un thread séparé
-                ClientHandler handler = new ClientHandler(clientSocket, connectedClients);
-                Thread thread = new Thread(handler);
-                thread.setDaemon(true);
-                thread.start();
+            if ("nio".equalsIgnoreCase(AppConfig.getServerMode())) {
+                nioServer = new NioChatServer(port, presence,
+                        AppConfig.getNioSelectorThreads(), AppConfig.getNioWorkerThreads());
+                nioServer.run();
+            } else {
+                runThreaded("virtual".equalsIgnoreCase(AppConfig.getServerMode()));
             }
         } catch (IOException e) {
             ServerLogger.logError("Erreur serveur: " + e.getMessage());
@@ -47,6 +63,22 @@ public class ChatServer {
         }
     }
 
+    private void runThreaded(boolean virtualThreads) throws IOException {
+        serverSocket = new ServerSocket(port);
+        Thread.Builder threads = virtualThreads ? Thread.ofVirtual().name("client-", 0) : Thread.ofPlatform().daemon();
+        ServerLogger.logInfo("Serveur (" + (virtualThreads ? "virtual threads" : "threads") + ") démarré sur le port " + port);
+        ServerLogger.logInfo("En attente de connexions...");
+
+        while (true) {
+            Socket clientSocket = serverSocket.accept();
+            ServerLogger.logInfo("Nouvelle connexion depuis " + clientSocket.getInetAddress().getHostAddress());
+
+            // RG11: chaque client dans un thread séparé
+            ClientHandler handler = new ClientHandler(clientSocket, presence);
+            threads.start(handler);
+        }
+    }
+
     private void shutdown() {
         try {
             if (serverSocket != null && !serverSocket.isClosed()) {
@@ -55,8 +87,23 @@ public class ChatServer {
         } catch (IOException e) {
             // ignore
         }
+        if (nioServer != null) {
+            nioServer.close();
+        }
+        presence.shutdown();
+        MessageWriteBehind.shutdown();
+        PoolMetrics pool = HibernateUtil.getPoolMetrics();
+        ServerLogger.logInfo(String.format("Pool JDBC: %d emprunts, attente moy. %.0f µs (max %d µs), %d délais dépassés.",
+                pool.getAcquisitions(), pool.getMeanAcquireMicros(), pool.getMaxAcquireMicros(), pool.getTimeouts()));
         HibernateUtil.shutdown();
         ServerLogger.logInfo("Serveur arrêté.");
+        ServerLogger.shutdown();
+    }
+
+    /** Per-connection outbound queue sized from server.outbound.capacity / server.outbound.overflow. */
+    static OutboundQueue newOutboundQueue() {
+        return new OutboundQueue(AppConfig.getOutboundQueueCapacity(),
+                OutboundQueue.OverflowPolicy.valueOf(AppConfig.getOutboundOverflowPolicy()));
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,38 @@
+package com.messagerie.server;
+
+import java.net.InetAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Transport used by a ClientHandler to talk to its client, independent of the server mode
+ * (blocking socket or NIO channel) and of the framing negotiated by the client (text or binary).
+ */
+interface ClientConnection {
+
+    /**
+     * Queues one frame {command, field1, ...}, encoded with the connection's framing, and returns without
+     * waiting for the client. Lossy frames (presence, typing) may be dropped when the client does not keep up.
+     */
+    void send(String[] fields, boolean lossy);
+
+    void close();
+
+    /**
+     * Closes the connection from another thread than the client's own: that thread (the socket reader, or the
+     * client's task queue in nio) then runs the handler's usual disconnect, as for a client gone away.
+     */
+    void drop();
+
+    /**
+     * Runs {@code continuation} with the result of {@code future} (null if it failed) before any later command
+     * of this client. By default the calling thread waits (one thread per client); a connection served by a
+     * shared pool (nio) releases its worker meanwhile and holds the client's next commands back instead.
+     */
+    default <T> void await(CompletableFuture<T> future, Consumer<T> continuation) {
+        continuation.accept(future.exceptionally(e -> null).join());
+    }
+
+    /** Address of the client (admin commands are allowed from the loopback interface). */
+    InetAddress remoteAddress();
+}
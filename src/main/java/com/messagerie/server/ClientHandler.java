@@ -1,44 +1,82 @@
 package com.messagerie.server;
 
+import com.messagerie.config.AppConfig;
 import com.messagerie.dao.MessageDAO;
+import com.messagerie.dao.ReactionDAO;
 import com.messagerie.dao.UserDAO;
+import com.messagerie.dao.UserDirectory;
 import com.messagerie.model.Message;
 import com.messagerie.model.MessageStatus;
+import com.messagerie.model.Reaction;
 import com.messagerie.model.User;
 import com.messagerie.model.UserStatus;
+import com.messagerie.protocol.BinaryProtocol;
+import com.messagerie.protocol.Frame;
+import com.messagerie.protocol.FrameReader;
+import com.messagerie.protocol.Framing;
+import com.messagerie.protocol.Opcode;
 import com.messagerie.protocol.Protocol;
 
 import java.io.*;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 public class ClientHandler implements Runnable {
 
     private final Socket socket;
-    private final Map<String, ClientHandler> connectedClients;
-    private BufferedReader in;
-    private PrintWriter out;
+    private final SessionRegistry<ClientHandler> connectedClients;
+    private final PresenceRegistry presence;
+    private ClientConnection connection;
     private User currentUser;
     private final UserDAO userDAO = new UserDAO();
+    private final UserDirectory users = UserDirectory.getInstance();
     private final MessageDAO messageDAO = new MessageDAO();
+    private final ReactionDAO reactionDAO = new ReactionDAO();
+    private final ServerMetrics metrics = ServerMetrics.getInstance();
     private volatile boolean running = true;
+    /** Trame en cours, réutilisée: un seul thread lit ou exécute les commandes d'un client à la fois. */
+    private final Frame frame = new Frame();
+    private int protocolVersion = Protocol.VERSION_1;
 
-    public ClientHandler(Socket socket, Map<String, ClientHandler> connectedClients) {
+    ClientHandler(Socket socket, PresenceRegistry presence) {
         this.socket = socket;
-        this.connectedClients = connectedClients;
+        this.presence = presence;
+        this.connectedClients = presence.sessions();
+    }
+
+    /** Mode nio: the connection is owned by a selector loop, which feeds handleText / handleBinary; run() is not used. */
+    ClientHandler(ClientConnection connection, PresenceRegistry presence) {
+        this.socket = null;
+        this.connection = connection;
+        this.presence = presence;
+        this.connectedClients = presence.sessions();
     }
 
     @Override
     public void run() {
         try {
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
-            out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"), true);
+            FrameReader reader = new FrameReader(metrics.countingBytesIn(socket.getInputStream()));
+            // Un client binaire commence par BinaryProtocol.MAGIC (octet 0x00), un client texte jamais
+            boolean binary = reader.peek() == (BinaryProtocol.MAGIC[0] & 0xFF);
+            if (binary && !reader.readMagic()) {
+                ServerLogger.logError("Poignée de main binaire invalide, connexion fermée.");
+                return;
+            }
+            Framing framing = binary ? Framing.BINARY : Framing.TEXT;
+            reader.setFraming(framing);
+            SocketConnection socketConnection = new SocketConnection(socket, ChatServer.newOutboundQueue(), framing);
+            connection = socketConnection;
+            if (binary) {
+                socketConnection.sendRaw(BinaryProtocol.MAGIC);
+            }
 
-            String line;
-            while (running && (line = in.readLine()) != null) {
-                handleCommand(line);
+            while (running && reader.read(frame)) {
+                dispatch();
             }
         } catch (IOException e) {
             ServerLogger.logError("Connexion perdue: " + (currentUser != null ? currentUser.getUsername() : "inconnu"));
@@ -47,253 +85,584 @@ public class ClientHandler implements Runnable {
         }
     }
 
-    private void handleCommand(String raw) {
-        String[] parts = Protocol.parseCommand(raw);
-        if (parts.length == 0) return;
+    /** Mode nio: one UTF-8 text line (without its newline). */
+    void handleText(byte[] buf, int off, int len) {
+        frame.parseText(buf, off, len);
+        dispatch();
+    }
 
-        String command = parts[0];
+    /** Mode nio: one whole binary frame (see BinaryProtocol.completeFrame). */
+    void handleBinary(byte[] buf, int off, int len) {
+        try {
+            BinaryProtocol.parse(buf, off, len, frame);
+        } catch (IllegalArgumentException e) {
+            ServerLogger.logError(e.getMessage() + ", connexion fermée.");
+            disconnect();
+            return;
+        }
+        dispatch();
+    }
 
-        switch (command) {
-            case Protocol.LOGIN -> handleLogin(parts);
-            case Protocol.REGISTER -> handleRegister(parts);
-            case Protocol.SEND_MSG -> handleSendMessage(parseSendMessage(raw));
-            case Protocol.GET_USERS -> handleGetUsers();
-            case Protocol.GET_HISTORY -> handleGetHistory(parts);
-            case Protocol.LOGOUT -> disconnect();
-            default -> sendMessage(Protocol.buildCommand(Protocol.ERROR, "Commande inconnue"));
+    /** Dispatches the frame just parsed into {@code frame}, whatever the framing. */
+    private void dispatch() {
+        Opcode opcode = frame.opcode();
+        if (opcode == null) {
+            metrics.recordUnknownCommand();
+            sendMessage(Protocol.ERROR, "Commande inconnue");
+            return;
         }
+        long start = System.nanoTime();
+        switch (opcode) {
+            case HELLO -> handleHello(frame);
+            case LOGIN -> handleLogin(frame);
+            case REGISTER -> handleRegister(frame);
+            case SEND_MSG -> handleSendMessage(frame);
+            case GET_USERS -> handleGetUsers(frame);
+            case GET_HISTORY -> handleGetHistory(frame);
+            case TYPING_START -> handleTyping(frame, true);
+            case TYPING_STOP -> handleTyping(frame, false);
+            case MSG_READ -> handleRead(frame);
+            case ADD_REACTION -> handleReaction(frame);
+            case STATS -> handleStats();
+            case PRESENCE_SUB -> handlePresenceSubscription(frame);
+            case LOGOUT -> disconnect();
+            default -> sendMessage(Protocol.ERROR, "Commande inconnue");
+        }
+        metrics.recordCommand(opcode, start);
     }
 
-    /** MSG|receiver|content — content may contain |, so parse with limit 3. */
-    private String[] parseSendMessage(String raw) {
-        return Protocol.parseCommand(raw, 3);
+    /** HELLO|maxVersion: the client's highest version; both sides then use min(client, server). */
+    private void handleHello(Frame frame) {
+        int requested;
+        try {
+            requested = frame.size() > 1 ? frame.intField(1) : Protocol.VERSION_1;
+        } catch (NumberFormatException e) {
+            requested = Protocol.VERSION_1;
+        }
+        protocolVersion = Math.max(Protocol.VERSION_1, Math.min(requested, Protocol.CURRENT_VERSION));
+        sendMessage(Protocol.HELLO_OK, String.valueOf(protocolVersion));
     }
 
-    private void handleLogin(String[] parts) {
-        if (parts.length < 3) {
-            sendMessage(Protocol.buildCommand(Protocol.LOGIN_FAIL, "Paramètres manquants"));
+    private void handleLogin(Frame frame) {
+        if (frame.size() < 3) {
+            sendMessage(Protocol.LOGIN_FAIL, "Paramètres manquants");
             return;
         }
-        String username = parts[1];
-        String password = parts[2];
+        String username = frame.field(1);
+        String password = frame.field(2);
 
         User user = userDAO.authenticate(username, password);
         if (user == null) {
-            sendMessage(Protocol.buildCommand(Protocol.LOGIN_FAIL, "Identifiants incorrects"));
+            sendMessage(Protocol.LOGIN_FAIL, "Identifiants incorrects");
             return;
         }
 
-        // RG3: connexion unique
-        synchronized (connectedClients) {
-            if (connectedClients.containsKey(username)) {
-                sendMessage(Protocol.buildCommand(Protocol.ALREADY_CONNECTED, "Cet utilisateur est déjà connecté"));
-                return;
-            }
-            connectedClients.put(username, this);
+        // RG3: connexion unique (putIfAbsent atomique, pas de moniteur qui épinglerait un virtual thread)
+        if (!connectedClients.register(username, this)) {
+            sendMessage(Protocol.ALREADY_CONNECTED, "Cet utilisateur est déjà connecté");
+            return;
         }
+        // Cluster: connecté à un autre nœud (deux connexions simultanées: voir ClusterRouter)
+        if (presence.router().isRemote(username)) {
+            connectedClients.unregister(username, this);
+            sendMessage(Protocol.ALREADY_CONNECTED, "Cet utilisateur est déjà connecté");
+            return;
+        }
+        presence.router().loggedIn(username);
 
         this.currentUser = user;
-        // RG4: statut ONLINE
-        userDAO.updateStatus(user.getId(), UserStatus.ONLINE);
+        users.put(user);
+        // Présence: surveiller ses interlocuteurs avant d'annoncer sa connexion
+        presence.fanout().connected(username, messageDAO.getConversationPartners(user.getId()));
+        // RG4: statut ONLINE (en mémoire: l'enregistrement dans connectedClients fait foi)
         ServerLogger.logConnection(username);
 
-        sendMessage(Protocol.buildCommand(Protocol.LOGIN_OK, String.valueOf(user.getId()), username));
+        sendMessage(Protocol.LOGIN_OK, String.valueOf(user.getId()), username);
 
         // Notifier les autres utilisateurs du changement de statut
-        broadcastStatusChange(username, "ONLINE");
+        broadcastStatusChange(username, UserStatus.ONLINE);
 
         // RG6: livrer les messages en attente
         deliverPendingMessages();
     }
 
-    private void handleRegister(String[] parts) {
-        if (parts.length < 3) {
-            sendMessage(Protocol.buildCommand(Protocol.REGISTER_FAIL, "Paramètres manquants"));
+    private void handleRegister(Frame frame) {
+        if (frame.size() < 3) {
+            sendMessage(Protocol.REGISTER_FAIL, "Paramètres manquants");
             return;
         }
-        String username = parts[1];
-        String password = parts[2];
+        String username = frame.field(1);
+        String password = frame.field(2);
 
         if (username.isBlank() || password.isBlank()) {
-            sendMessage(Protocol.buildCommand(Protocol.REGISTER_FAIL, "Le nom d'utilisateur et le mot de passe ne peuvent pas être vides"));
+            sendMessage(Protocol.REGISTER_FAIL, "Le nom d'utilisateur et le mot de passe ne peuvent pas être vides");
+            return;
+        }
+        // Le nom circule tel quel dans les trames texte et les listes (USER_LIST, PRESENCE_DELTA...)
+        if (!Protocol.isValidUsername(username)) {
+            sendMessage(Protocol.REGISTER_FAIL, "Le nom d'utilisateur ne peut pas contenir de retour à la ligne ni | , : ;");
             return;
         }
 
         // RG1: username unique (vérifié dans le DAO)
-        User user = userDAO.register(username, password);
+        User user = users.register(username, password);
         if (user == null) {
-            sendMessage(Protocol.buildCommand(Protocol.REGISTER_FAIL, "Ce nom d'utilisateur est déjà pris"));
+            sendMessage(Protocol.REGISTER_FAIL, "Ce nom d'utilisateur est déjà pris");
             return;
         }
 
         ServerLogger.logInfo("Nouvel utilisateur inscrit: " + username);
-        sendMessage(Protocol.buildCommand(Protocol.REGISTER_OK, "Inscription réussie"));
+        sendMessage(Protocol.REGISTER_OK, "Inscription réussie");
+        // Nouvel utilisateur dans la liste des autres clients (changement de présence versionné, OFFLINE)
+        presence.router().registered(username);
+        broadcastStatusChange(username, UserStatus.OFFLINE);
     }
 
-    private void handleSendMessage(String[] parts) {
+    private void handleSendMessage(Frame frame) {
         // RG2: doit être authentifié
         if (currentUser == null) {
-            sendMessage(Protocol.buildCommand(Protocol.MSG_FAIL, "Vous devez être connecté"));
+            sendMessage(Protocol.MSG_FAIL, "Vous devez être connecté");
             return;
         }
 
-        if (parts.length < 3) {
-            sendMessage(Protocol.buildCommand(Protocol.MSG_FAIL, "Paramètres manquants"));
+        if (frame.size() < 3) {
+            sendMessage(Protocol.MSG_FAIL, "Paramètres manquants");
             return;
         }
 
-        String receiverUsername = parts[1];
-        String contenu = parts[2]; // may contain | when parsed with limit 3
+        String receiverUsername = frame.field(1);
+        String contenu = frame.field(2); // may contain | when parsed with limit 3
 
         // RG7: contenu non vide et max 1000 caractères
         if (contenu.isBlank()) {
-            sendMessage(Protocol.buildCommand(Protocol.MSG_FAIL, "Le message ne peut pas être vide"));
+            sendMessage(Protocol.MSG_FAIL, "Le message ne peut pas être vide");
             return;
         }
         if (contenu.length() > 1000) {
-            sendMessage(Protocol.buildCommand(Protocol.MSG_FAIL, "Le message ne doit pas dépasser 1000 caractères"));
+            sendMessage(Protocol.MSG_FAIL, "Le message ne doit pas dépasser 1000 caractères");
+            return;
+        }
+        // Trame binaire: un retour à la ligne couperait la ligne INCOMING_MSG d'un destinataire en mode texte
+        if (Protocol.containsLineBreak(contenu)) {
+            sendMessage(Protocol.MSG_FAIL, "Le message ne peut pas contenir de retour à la ligne");
             return;
         }
 
-        // RG5: le destinataire doit exister
-        User receiver = userDAO.findByUsername(receiverUsername);
+        // RG5: le destinataire doit exister (annuaire en mémoire, pas d'aller-retour BDD)
+        User receiver = users.findByUsername(receiverUsername);
         if (receiver == null) {
-            sendMessage(Protocol.buildCommand(Protocol.MSG_FAIL, "Destinataire introuvable"));
+            sendMessage(Protocol.MSG_FAIL, "Destinataire introuvable");
             return;
         }
 
-        // Recharger le sender depuis la BDD pour éviter les entités détachées
-        User sender = userDAO.findByUsername(currentUser.getUsername());
-
-        Message message = new Message(sender, receiver, contenu);
-        message = messageDAO.save(message);
+        // Écriture groupée: MSG_OK n'est envoyé qu'une fois la transaction du groupe validée, sans bloquer de
+        // worker en mode nio (await). Entités détachées: seuls leurs ids sont utilisés par l'INSERT.
+        String senderUsername = currentUser.getUsername();
+        connection.await(messageDAO.saveAsync(new Message(currentUser, receiver, contenu)),
+                message -> messageSaved(message, senderUsername, receiverUsername, contenu));
+    }
 
+    /** Second half of MSG, once the group commit is over: the frame being parsed is no longer this message's. */
+    private void messageSaved(Message message, String senderUsername, String receiverUsername, String contenu) {
         if (message == null) {
-            sendMessage(Protocol.buildCommand(Protocol.MSG_FAIL, "Erreur lors de l'envoi"));
+            sendMessage(Protocol.MSG_FAIL, "Erreur lors de l'envoi");
             return;
         }
 
-        ServerLogger.logMessage(currentUser.getUsername(), receiverUsername);
-        sendMessage(Protocol.buildCommand(Protocol.MSG_OK, String.valueOf(message.getId())));
+        ServerLogger.logMessage(senderUsername, receiverUsername);
+        sendMessage(Protocol.MSG_OK, String.valueOf(message.getId()));
+        // Nouvelle conversation: chacun reçoit désormais les changements de présence de l'autre
+        presence.fanout().conversation(senderUsername, receiverUsername);
+
+        // Envoyer au destinataire s'il est connecté, ici ou sur un autre nœud du cluster
+        // INCOMING_MSG|sender|date|id|content (content last so it may contain |)
+        presence.reads().received(receiverUsername, senderUsername, message.getId());
+        MessageRouter.Route route = presence.router().deliver(receiverUsername, false,
+                Protocol.INCOMING_MSG,
+                senderUsername,
+                message.getDateEnvoi().toString(),
+                String.valueOf(message.getId()),
+                contenu
+        );
+        if (route == MessageRouter.Route.LOCAL) {
+            messageDAO.updateStatus(message.getId(), MessageStatus.RECU);
+        }
+        // RG6: si hors ligne, le message reste en BDD avec statut ENVOYE (REMOTE: RECU posé par le nœud du destinataire)
+        metrics.messageDelivered(route != MessageRouter.Route.OFFLINE);
+    }
 
-        // Envoyer au destinataire s'il est connecté
-        ClientHandler receiverHandler;
-        synchronized (connectedClients) {
-            receiverHandler = connectedClients.get(receiverUsername);
+    /** TYPING_START|receiver / TYPING_STOP|receiver: relayed in memory, never answered (see TypingRelay). */
+    private void handleTyping(Frame frame, boolean start) {
+        if (currentUser == null || frame.size() < 2) return;
+        String receiver = frame.field(1);
+        if (start) {
+            presence.typing().start(currentUser.getUsername(), receiver);
+        } else {
+            presence.typing().stop(currentUser.getUsername(), receiver);
         }
+    }
 
-        if (receiverHandler != null) {
-            // INCOMING_MSG|sender|date|id|content (content last so it may contain |)
-            receiverHandler.sendMessage(Protocol.buildCommand(
-                    Protocol.INCOMING_MSG,
-                    currentUser.getUsername(),
-                    message.getDateEnvoi().toString(),
-                    String.valueOf(message.getId()),
-                    contenu
-            ));
-            messageDAO.updateStatus(message.getId(), MessageStatus.RECU);
+    /** MSG_READ|sender|upToId: read watermark of the conversation with sender (see ReadReceipts), never answered. */
+    private void handleRead(Frame frame) {
+        if (currentUser == null || frame.size() < 3) return;
+        long upToId;
+        try {
+            upToId = frame.longField(2);
+        } catch (NumberFormatException e) {
+            return;
+        }
+        User sender = users.findByUsername(frame.field(1));
+        if (sender == null || upToId <= 0 || sender.getId().equals(currentUser.getId())) return;
+        presence.reads().markRead(currentUser, sender, upToId);
+    }
+
+    /**
+     * ADD_REACTION|messageId|username|emoji[|ADD/REMOVE]: toggles the connected user's reaction and, if it
+     * changed, sends the delta REACTION_ADDED|messageId|username|emoji|action|count to both participants.
+     */
+    private void handleReaction(Frame frame) {
+        if (currentUser == null) {
+            sendMessage(Protocol.ERROR, "Non authentifié");
+            return;
+        }
+        if (frame.size() < 4) {
+            sendMessage(Protocol.ERROR, "Paramètres manquants");
+            return;
+        }
+        long messageId;
+        try {
+            messageId = frame.longField(1);
+        } catch (NumberFormatException e) {
+            sendMessage(Protocol.ERROR, "Paramètres invalides");
+            return;
+        }
+        String emoji = frame.field(3);
+        if (frame.isBlank(3) || emoji.length() > Reaction.MAX_EMOJI_LENGTH || !Protocol.isValidField(emoji)) {
+            sendMessage(Protocol.ERROR, "Réaction invalide");
+            return;
+        }
+        boolean add = frame.size() < 5 || !frame.fieldEquals(4, Protocol.REACTION_REMOVE);
+
+        ReactionDAO.Toggle toggle = reactionDAO.toggle(messageId, currentUser.getId(), emoji, add);
+        if (toggle == null) {
+            sendMessage(Protocol.ERROR, "Message introuvable");
+            return;
+        }
+        if (!toggle.changed()) return;
+        String[] delta = {Protocol.REACTION_ADDED, String.valueOf(messageId), currentUser.getUsername(), emoji,
+                add ? Protocol.REACTION_ADD : Protocol.REACTION_REMOVE, String.valueOf(toggle.count())};
+        sendMessage(delta);
+        Message message = toggle.message();
+        String other = message.getSender().getId().equals(currentUser.getId())
+                ? message.getReceiver().getUsername() : message.getSender().getUsername();
+        presence.router().deliver(other, false, delta);
+    }
+
+    /** PRESENCE_SUB|user1,user2,...: live status of these users too, until disconnection; never answered. */
+    private void handlePresenceSubscription(Frame frame) {
+        if (currentUser == null || frame.size() < 2) return;
+        for (String target : frame.field(1).split(",")) {
+            if (target.isBlank() || target.equals(currentUser.getUsername()) || users.findByUsername(target) == null) continue;
+            if (!presence.fanout().subscribe(currentUser.getUsername(), target)) break; // limite atteinte
         }
-        // RG6: si hors ligne, le message reste en BDD avec statut ENVOYE
     }
 
-    private void handleGetUsers() {
+    /** STATS: every server metric in one STATS_DATA frame (admin only, see AppConfig.getAdminUsers). */
+    private void handleStats() {
         if (currentUser == null) {
-            sendMessage(Protocol.buildCommand(Protocol.ERROR, "Non authentifié"));
+            sendMessage(Protocol.ERROR, "Non authentifié");
+            return;
+        }
+        Set<String> admins = AppConfig.getAdminUsers();
+        boolean allowed = admins.isEmpty()
+                ? connection != null && connection.remoteAddress() != null && connection.remoteAddress().isLoopbackAddress()
+                : admins.contains(currentUser.getUsername());
+        if (!allowed) {
+            sendMessage(Protocol.ERROR, "Commande réservée aux administrateurs");
             return;
         }
+        sendMessage(Protocol.STATS_DATA, metrics.snapshotLine());
+    }
 
-        List<User> users = userDAO.findAll();
-        String userListStr = users.stream()
+    /**
+     * USERLIST|sinceVersion: only the presence changes since that version when the server still has them;
+     * otherwise (or without version) the full list, stamped with the presence version it reflects.
+     */
+    private void handleGetUsers(Frame frame) {
+        if (currentUser == null) {
+            sendMessage(Protocol.ERROR, "Non authentifié");
+            return;
+        }
+
+        if (frame.size() > 1 && !frame.isBlank(1)) {
+            List<PresenceRegistry.Change> changes;
+            try {
+                changes = presence.changesSince(frame.longField(1));
+            } catch (NumberFormatException e) {
+                changes = null;
+            }
+            if (changes != null) {
+                StringBuilder sb = new StringBuilder();
+                long version = presence.version();
+                for (PresenceRegistry.Change c : changes) {
+                    if (c.username().equals(currentUser.getUsername())) continue;
+                    if (sb.length() > 0) sb.append(',');
+                    sb.append(c.username()).append(':').append(c.status().name()).append(':').append(c.version());
+                    version = Math.max(version, c.version());
+                }
+                metrics.presenceSync(false);
+                sendMessage(Protocol.PRESENCE_DELTA, String.valueOf(version), sb.toString());
+                return;
+            }
+        }
+
+        // Version lue avant le parcours: tout changement ultérieur arrivera par USER_STATUS_CHANGE
+        long version = presence.version();
+        // Statuts lus dans le registre de présence, pas en BDD
+        List<User> all = users.isComplete() ? users.all() : userDAO.findAll();
+        String userListStr = all.stream()
                 .filter(u -> !u.getUsername().equals(currentUser.getUsername()))
-                .map(u -> u.getUsername() + ":" + u.getStatus().name())
+                .map(u -> u.getUsername() + ":" + presence.statusOf(u.getUsername()).name())
                 .collect(Collectors.joining(","));
 
-        sendMessage(Protocol.buildCommand(Protocol.USER_LIST, userListStr));
+        metrics.presenceSync(true);
+        sendMessage(Protocol.USER_LIST, userListStr, String.valueOf(version));
     }
 
-    private void handleGetHistory(String[] parts) {
+    private void handleGetHistory(Frame frame) {
         if (currentUser == null) {
-            sendMessage(Protocol.buildCommand(Protocol.ERROR, "Non authentifié"));
+            sendMessage(Protocol.ERROR, "Non authentifié");
             return;
         }
-        if (parts.length < 2) {
-            sendMessage(Protocol.buildCommand(Protocol.ERROR, "Paramètres manquants"));
+        if (frame.size() < 2) {
+            sendMessage(Protocol.ERROR, "Paramètres manquants");
             return;
         }
 
-        String otherUsername = parts[1];
-        User otherUser = userDAO.findByUsername(otherUsername);
+        String otherUsername = frame.field(1);
+        User otherUser = users.findByUsername(otherUsername);
         if (otherUser == null) {
-            sendMessage(Protocol.buildCommand(Protocol.ERROR, "Utilisateur introuvable"));
+            sendMessage(Protocol.ERROR, "Utilisateur introuvable");
+            return;
+        }
+
+        if (frame.size() >= 3) {
+            streamHistory(otherUser, frame);
             return;
         }
 
         List<Message> messages = messageDAO.getConversation(currentUser.getId(), otherUser.getId());
+        Map<Long, String> reactions = reactionSummaries(messages);
         StringBuilder sb = new StringBuilder();
         for (Message m : messages) {
-            if (sb.length() > 0) sb.append(Protocol.HISTORY_SEP);
-            // Contenu en Base64 pour éviter que "::" ou ";;" dans le texte casse le parsing
-            String contentEncoded = Protocol.encodePayload(m.getContenu());
-            sb.append(m.getSender().getUsername())
-              .append(Protocol.HISTORY_FIELD_SEP).append(contentEncoded)
-              .append(Protocol.HISTORY_FIELD_SEP).append(m.getDateEnvoi().toString())
-              .append(Protocol.HISTORY_FIELD_SEP).append(m.getId())
-              .append(Protocol.HISTORY_FIELD_SEP).append(m.getStatut().name());
+            appendHistoryRecord(sb, m, reactions.getOrDefault(m.getId(), ""), protocolVersion);
+        }
+        sendMessage(Protocol.HISTORY_DATA, historyPayload(sb, protocolVersion));
+    }
+
+    /**
+     * HISTORY|other|limit[|BEFORE|AFTER|id]: one keyset page (limit 0 = whole conversation, or everything before /
+     * after id, read from the DB page by page), sent as bounded HISTORY_CHUNK frames so that neither side holds the full history.
+     */
+    private void streamHistory(User otherUser, Frame frame) {
+        int limit;
+        Long beforeId = null;
+        Long afterId = null;
+        String direction = Protocol.HISTORY_LATEST;
+        try {
+            limit = Math.min(Math.max(frame.intField(2), 0), Protocol.HISTORY_MAX_PAGE_SIZE);
+            if (frame.size() >= 5) {
+                long cursor = frame.longField(4);
+                if (frame.fieldEquals(3, Protocol.HISTORY_BEFORE)) {
+                    direction = Protocol.HISTORY_BEFORE;
+                    beforeId = cursor;
+                } else if (frame.fieldEquals(3, Protocol.HISTORY_AFTER)) {
+                    direction = Protocol.HISTORY_AFTER;
+                    afterId = cursor;
+                }
+            }
+        } catch (NumberFormatException e) {
+            sendMessage(Protocol.ERROR, "Paramètres invalides");
+            return;
+        }
+
+        String other = otherUser.getUsername();
+        HistoryStream stream = new HistoryStream(other);
+        sendMessage(Protocol.HISTORY_BEGIN, other, direction);
+        boolean hasMore;
+        if (limit == 0) {
+            // Toute la conversation, du plus ancien au plus récent, par pages keyset; BEFORE en est la borne haute
+            Long cursor = afterId != null ? afterId : 0L;
+            boolean last;
+            do {
+                List<Message> page = messageDAO.getConversationPage(currentUser.getId(), otherUser.getId(), null, cursor,
+                        Protocol.HISTORY_MAX_PAGE_SIZE);
+                last = page.size() < Protocol.HISTORY_MAX_PAGE_SIZE;
+                if (beforeId != null) {
+                    int end = 0;
+                    while (end < page.size() && page.get(end).getId() < beforeId) end++;
+                    if (end < page.size()) {
+                        page = page.subList(0, end);
+                        last = true;
+                    }
+                }
+                stream.addAll(page);
+                if (!page.isEmpty()) cursor = page.get(page.size() - 1).getId();
+            } while (!last);
+            hasMore = false;
+        } else {
+            // limit + 1 pour savoir s'il reste des messages au-delà de la page
+            List<Message> messages = messageDAO.getConversationPage(currentUser.getId(), otherUser.getId(), beforeId, afterId, limit + 1);
+            hasMore = messages.size() > limit;
+            if (hasMore) {
+                messages = afterId != null ? messages.subList(0, limit) : messages.subList(1, messages.size());
+            }
+            stream.addAll(messages);
+        }
+        stream.flush();
+        sendMessage(Protocol.HISTORY_END, other, String.valueOf(stream.seq), String.valueOf(hasMore));
+    }
+
+    /** Accumulates history records and emits a HISTORY_CHUNK each time HISTORY_CHUNK_SIZE is reached. */
+    private final class HistoryStream {
+        private final String other;
+        private final StringBuilder sb = new StringBuilder(Protocol.HISTORY_CHUNK_SIZE + 256);
+        private int seq;
+
+        HistoryStream(String other) {
+            this.other = other;
+        }
+
+        /** One DB page: its reactions are loaded with one query, then each record is appended. */
+        void addAll(List<Message> page) {
+            Map<Long, String> reactions = reactionSummaries(page);
+            for (Message m : page) {
+                appendHistoryRecord(sb, m, reactions.getOrDefault(m.getId(), ""), protocolVersion);
+                if (sb.length() >= Protocol.HISTORY_CHUNK_SIZE) flush();
+            }
+        }
+
+        void flush() {
+            if (sb.length() == 0) return;
+            sendMessage(Protocol.HISTORY_CHUNK, other, String.valueOf(seq++), historyPayload(sb, protocolVersion));
+            sb.setLength(0);
+        }
+    }
+
+    /**
+     * Reaction field of each message that has reactions (version 3 only), seen from the connected user;
+     * loaded in queries of at most HISTORY_MAX_PAGE_SIZE ids.
+     */
+    private Map<Long, String> reactionSummaries(List<Message> messages) {
+        Map<Long, String> summaries = new HashMap<>();
+        if (protocolVersion < Protocol.VERSION_3 || messages.isEmpty()) return summaries;
+        Map<Long, StringBuilder> builders = new HashMap<>();
+        for (int from = 0; from < messages.size(); from += Protocol.HISTORY_MAX_PAGE_SIZE) {
+            List<Long> ids = new ArrayList<>();
+            for (Message m : messages.subList(from, Math.min(messages.size(), from + Protocol.HISTORY_MAX_PAGE_SIZE))) {
+                ids.add(m.getId());
+            }
+            for (Reaction r : reactionDAO.findByMessageIds(ids)) {
+                Protocol.appendReaction(builders.computeIfAbsent(r.getMessageId(), id -> new StringBuilder()),
+                        r.getEmoji(), r.getCount(), r.hasUser(currentUser.getId()));
+            }
         }
+        builders.forEach((id, sb) -> summaries.put(id, sb.toString()));
+        return summaries;
+    }
+
+    /** Static so that the history serialization can be benchmarked on its own (see benchmarks/). */
+    static void appendHistoryRecord(StringBuilder sb, Message m, int protocolVersion) {
+        appendHistoryRecord(sb, m, "", protocolVersion);
+    }
+
+    /** @param reactions reaction field (Protocol.appendReaction), sent from version 3 on */
+    static void appendHistoryRecord(StringBuilder sb, Message m, String reactions, int protocolVersion) {
+        if (protocolVersion >= Protocol.VERSION_3) {
+            Protocol.appendHistoryRecord(sb, m.getSender().getUsername(), m.getContenu(),
+                    m.getDateEnvoi().toString(), m.getId(), m.getStatut().name(), reactions);
+        } else if (protocolVersion >= Protocol.VERSION_2) {
+            Protocol.appendHistoryRecord(sb, m.getSender().getUsername(), m.getContenu(),
+                    m.getDateEnvoi().toString(), m.getId(), m.getStatut().name());
+        } else {
+            Protocol.appendLegacyHistoryRecord(sb, m.getSender().getUsername(), m.getContenu(),
+                    m.getDateEnvoi().toString(), m.getId(), m.getStatut().name());
+        }
+    }
 
-        sendMessage(Protocol.buildCommand(Protocol.HISTORY_DATA, Protocol.encodePayload(sb.toString())));
+    /** v2: records sent as is (last field of the frame); v1: whole payload Base64-encoded once more. */
+    static String historyPayload(StringBuilder sb, int protocolVersion) {
+        return protocolVersion >= Protocol.VERSION_2 ? sb.toString() : Protocol.encodePayload(sb.toString());
     }
 
     private void deliverPendingMessages() {
         if (currentUser == null) return;
         List<Message> pending = messageDAO.getPendingMessages(currentUser.getId());
         for (Message m : pending) {
-            sendMessage(Protocol.buildCommand(
+            sendMessage(
                     Protocol.INCOMING_MSG,
                     m.getSender().getUsername(),
                     m.getDateEnvoi().toString(),
                     String.valueOf(m.getId()),
                     m.getContenu()
-            ));
+            );
             messageDAO.updateStatus(m.getId(), MessageStatus.RECU);
         }
+        metrics.pendingDelivered(pending.size());
     }
 
-    private void broadcastStatusChange(String username, String status) {
-        synchronized (connectedClients) {
-            for (Map.Entry<String, ClientHandler> entry : connectedClients.entrySet()) {
-                if (!entry.getKey().equals(username)) {
-                    entry.getValue().sendMessage(
-                            Protocol.buildCommand(Protocol.USER_STATUS_CHANGE, username, status)
-                    );
-                }
-            }
-        }
+    /** Versions the change now; its contacts are told later, from the presence scheduler (see PresenceFanout). */
+    private void broadcastStatusChange(String username, UserStatus status) {
+        presence.publish(username, status);
+    }
+
+    /** Sends one frame {command, field1, ...} in the framing negotiated by this client. */
+    public void sendMessage(String... fields) {
+        send(fields, false);
+    }
+
+    /** Frame that may be dropped if this client does not keep up (presence, typing). */
+    void sendLossy(String... fields) {
+        send(fields, true);
     }
 
-    public void sendMessage(String message) {
-        if (out != null) {
-            out.println(message);
+    private void send(String[] fields, boolean lossy) {
+        if (connection == null) return;
+        try {
+            connection.send(fields, lossy);
+        } catch (IllegalArgumentException e) {
+            // Champ non représentable en mode texte (Framing.encode): la trame est écartée, pas la connexion
+            ServerLogger.logError("Trame " + fields[0] + " écartée: " + e.getMessage());
         }
     }
 
-    private void disconnect() {
+    /** Closes this session from another thread (cluster RG3); its own thread then runs disconnect(). */
+    void drop() {
+        if (connection != null) connection.drop();
+    }
+
+    void disconnect() {
         running = false;
         if (currentUser != null) {
             String username = currentUser.getUsername();
-            // RG4: statut OFFLINE
-            userDAO.updateStatus(currentUser.getId(), UserStatus.OFFLINE);
-            synchronized (connectedClients) {
-                connectedClients.remove(username);
-            }
-            broadcastStatusChange(username, "OFFLINE");
+            // RG4: statut OFFLINE (en mémoire), dernière connexion écrite en différé
+            if (connectedClients.unregister(username, this)) presence.router().loggedOut(username);
+            presence.fanout().disconnected(username);
+            presence.typing().clear(username);
+            presence.reads().clear(username);
+            presence.markSeen(currentUser);
+            broadcastStatusChange(username, UserStatus.OFFLINE);
             ServerLogger.logDisconnection(username);
             currentUser = null;
         }
-        try {
-            socket.close();
-        } catch (IOException e) {
-            // ignore
+        if (connection != null) {
+            connection.close();
+        } else if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
         }
     }
 }
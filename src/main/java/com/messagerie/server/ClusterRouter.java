@@ -0,0 +1,239 @@
+package com.messagerie.server;
+
+import com.messagerie.dao.MessageDAO;
+import com.messagerie.dao.UserDirectory;
+import com.messagerie.model.UserStatus;
+import com.messagerie.protocol.Frame;
+import com.messagerie.protocol.Opcode;
+import com.messagerie.protocol.Protocol;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One node of a cluster behind a load balancer, all nodes sharing the database. Each node announces the
+ * logins and logouts of its own sessions to the others, so every node holds a directory user -> node of the
+ * users connected elsewhere; a frame for such a user (INCOMING_MSG, typing, read receipts, reactions) is
+ * forwarded to that node, which hands it to the session. Presence changes announced by a peer go through the
+ * local PresenceRegistry like local ones: each node versions and fans out presence for its own clients.
+ *
+ * RG3 across nodes: a login is refused if the directory already places the user elsewhere; two logins racing
+ * on two nodes are settled by the earliest login time (then the smallest node id), the other session being
+ * closed by its own node. A forwarded INCOMING_MSG is marked RECU by the receiving node, once handed to the
+ * session: the presence database thread does it every RECEIVED_FLUSH_MILLIS in one UPDATE, so the transport
+ * thread of a peer never waits on the database. If the user left meanwhile it stays ENVOYE and is delivered
+ * at the next login (RG6).
+ *
+ * Node-to-node lines: NODE_LOGIN|user|loginMillis, NODE_LOGOUT|user, NODE_REGISTER|user and
+ * NODE_DELIVER|user|lossy (0/1)|frame (text line of the frame, Base64, so that it may contain | or \n).
+ */
+final class ClusterRouter implements MessageRouter, ClusterTransport.Listener {
+
+    private static final String LOGIN = "NODE_LOGIN";
+    private static final String LOGOUT = "NODE_LOGOUT";
+    private static final String REGISTER = "NODE_REGISTER";
+    private static final String DELIVER = "NODE_DELIVER";
+    private static final long RECEIVED_FLUSH_MILLIS = 100;
+
+    /** Where a user connected elsewhere is, and since when (tie-break of concurrent logins). */
+    private record Location(String node, long loginMillis) {
+
+        boolean before(Location other) {
+            return loginMillis != other.loginMillis ? loginMillis < other.loginMillis : node.compareTo(other.node) < 0;
+        }
+    }
+
+    /** INCOMING_MSG handed to a local session, waiting for its RECU and its presence link. */
+    private record HandedOver(long messageId, String sender, String receiver) {}
+
+    private final String nodeId;
+    private final ClusterTransport transport;
+    private final PresenceRegistry presence;
+    private final SessionRegistry<ClientHandler> sessions;
+    private final Map<String, Location> directory = new ConcurrentHashMap<>();
+    private final Map<String, Long> localLogins = new ConcurrentHashMap<>();
+    private final Queue<HandedOver> handedOver = new ConcurrentLinkedQueue<>();
+    /** Thread d'écriture en base de PresenceRegistry: tout accès JDBC pour une ligne d'un pair passe par lui. */
+    private final ScheduledExecutorService database;
+    private final MessageDAO messageDAO = new MessageDAO();
+    private final UserDirectory users = UserDirectory.getInstance();
+    private final ServerMetrics metrics = ServerMetrics.getInstance();
+
+    ClusterRouter(String nodeId, ClusterTransport transport, PresenceRegistry presence, ScheduledExecutorService scheduler) {
+        this.nodeId = nodeId;
+        this.transport = transport;
+        this.presence = presence;
+        this.sessions = presence.sessions();
+        this.database = scheduler;
+        scheduler.scheduleWithFixedDelay(this::flushReceived, RECEIVED_FLUSH_MILLIS, RECEIVED_FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void start() {
+        transport.start(nodeId, this);
+    }
+
+    @Override
+    public Route deliver(String username, boolean lossy, String... fields) {
+        ClientHandler handler = sessions.get(username);
+        if (handler != null) {
+            if (lossy) handler.sendLossy(fields);
+            else handler.sendMessage(fields);
+            return Route.LOCAL;
+        }
+        Location location = directory.get(username);
+        if (location == null) return Route.OFFLINE;
+        transport.send(location.node(), Protocol.buildCommand(DELIVER, username, lossy ? "1" : "0",
+                Protocol.encodePayload(Protocol.buildCommand(fields))));
+        metrics.clusterRouted();
+        return Route.REMOTE;
+    }
+
+    @Override
+    public boolean isOnline(String username) {
+        return sessions.isOnline(username) || directory.containsKey(username);
+    }
+
+    @Override
+    public boolean isRemote(String username) {
+        return directory.containsKey(username);
+    }
+
+    @Override
+    public void loggedIn(String username) {
+        long now = System.currentTimeMillis();
+        localLogins.put(username, now);
+        transport.broadcast(Protocol.buildCommand(LOGIN, username, String.valueOf(now)));
+    }
+
+    @Override
+    public void loggedOut(String username) {
+        localLogins.remove(username);
+        transport.broadcast(Protocol.buildCommand(LOGOUT, username));
+    }
+
+    @Override
+    public void registered(String username) {
+        transport.broadcast(Protocol.buildCommand(REGISTER, username));
+    }
+
+    @Override
+    public void shutdown() {
+        transport.close();
+    }
+
+    // --- Lignes des autres nœuds ---
+
+    @Override
+    public void peerUp(String peer) {
+        // Le pair repart de zéro (démarrage ou reconnexion): toutes nos sessions lui sont annoncées
+        for (Map.Entry<String, Long> login : localLogins.entrySet()) {
+            transport.send(peer, Protocol.buildCommand(LOGIN, login.getKey(), String.valueOf(login.getValue())));
+        }
+        ServerLogger.logInfo("Nœud " + peer + " joignable (" + localLogins.size() + " sessions annoncées).");
+    }
+
+    /** Logins and logouts: peerUp announces every current session again, the deliveries must still go. */
+    @Override
+    public boolean replacedByPeerUp(String line) {
+        return line.startsWith(LOGIN + Protocol.SEPARATOR) || line.startsWith(LOGOUT + Protocol.SEPARATOR);
+    }
+
+    @Override
+    public void peerDown(String peer) {
+        for (Map.Entry<String, Location> entry : directory.entrySet()) {
+            if (entry.getValue().node().equals(peer) && directory.remove(entry.getKey(), entry.getValue())) {
+                if (!sessions.isOnline(entry.getKey())) presence.publish(entry.getKey(), UserStatus.OFFLINE);
+            }
+        }
+    }
+
+    @Override
+    public void received(String from, String line) {
+        String[] fields = Protocol.parseCommand(line);
+        try {
+            switch (fields[0]) {
+                case LOGIN -> remoteLogin(fields[1], new Location(from, Long.parseLong(fields[2])));
+                case LOGOUT -> remoteLogout(fields[1], from);
+                case REGISTER -> database.execute(() -> remoteRegister(fields[1]));
+                case DELIVER -> handOver(fields[1], "1".equals(fields[2]), Protocol.decodePayload(fields[3]));
+                default -> ServerLogger.logWarning("Cluster: ligne inconnue du nœud " + from + ": " + fields[0]);
+            }
+            metrics.clusterReceived();
+        } catch (RuntimeException e) {
+            ServerLogger.logError("Cluster: ligne invalide du nœud " + from + ": " + e.getMessage());
+        }
+    }
+
+    private void remoteLogin(String username, Location location) {
+        Long localLogin = localLogins.get(username);
+        if (localLogin != null) {
+            if (!location.before(new Location(nodeId, localLogin))) return; // notre session est la plus ancienne
+            // RG3: session ouverte plus tôt sur un autre nœud, la nôtre est fermée
+            ClientHandler handler = sessions.get(username);
+            if (handler != null) {
+                handler.sendMessage(Protocol.ERROR, "Session déjà ouverte sur un autre serveur");
+                handler.drop(); // pas disconnect(): ClientHandler ne s'exécute que sur son propre thread
+            }
+        }
+        boolean[] appeared = new boolean[1];
+        directory.compute(username, (u, current) -> {
+            appeared[0] = current == null;
+            return current == null || current.node().equals(location.node()) || location.before(current) ? location : current;
+        });
+        if (appeared[0] && !sessions.isOnline(username)) presence.publish(username, UserStatus.ONLINE);
+    }
+
+    /** Database thread: a user registered on another node, unknown to the local directory until loaded. */
+    private void remoteRegister(String username) {
+        try {
+            users.findByUsername(username);
+        } catch (RuntimeException e) {
+            ServerLogger.logError("Cluster: chargement de l'utilisateur " + username + " impossible: " + e.getMessage());
+        }
+        presence.publish(username, UserStatus.OFFLINE);
+    }
+
+    private void remoteLogout(String username, String from) {
+        Location location = directory.get(username);
+        if (location == null || !location.node().equals(from) || !directory.remove(username, location)) return;
+        if (!sessions.isOnline(username)) presence.publish(username, UserStatus.OFFLINE);
+    }
+
+    /** NODE_DELIVER: the frame goes to the local session; a message handed over is queued for its RECU. */
+    private void handOver(String username, boolean lossy, String line) {
+        ClientHandler handler = sessions.get(username);
+        if (handler == null) return; // parti entre-temps: le message reste ENVOYE (RG6)
+        Frame frame = new Frame().parseText(line);
+        String[] fields = frame.toArray();
+        if (lossy) handler.sendLossy(fields);
+        else handler.sendMessage(fields);
+        if (frame.opcode() == Opcode.INCOMING_MSG && fields.length > 3) {
+            long messageId = Long.parseLong(fields[3]);
+            presence.reads().received(username, fields[1], messageId);
+            handedOver.add(new HandedOver(messageId, fields[1], username));
+        }
+    }
+
+    /** Presence database thread: RECU for every message handed over since the last run, in a single UPDATE. */
+    private void flushReceived() {
+        if (handedOver.isEmpty()) return;
+        List<Long> ids = new ArrayList<>();
+        for (HandedOver h; (h = handedOver.poll()) != null; ) {
+            ids.add(h.messageId());
+            // Même effet que handleSendMessage côté expéditeur: chacun suit désormais la présence de l'autre
+            presence.fanout().conversation(h.sender(), h.receiver());
+        }
+        try {
+            messageDAO.markReceived(ids);
+        } catch (RuntimeException e) {
+            ServerLogger.logError("Cluster: mise à jour RECU impossible: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.messagerie.server;
+
+import com.messagerie.config.AppConfig;
+
+/**
+ * Node-to-node link of a cluster: text lines sent to one node or to all, in order per destination, without
+ * blocking the caller. Implementations: InProcessTransport (nodes of the same JVM, for tests and the load
+ * generator) and TcpTransport (one TCP connection per peer and direction, peers from cluster.peers).
+ */
+interface ClusterTransport {
+
+    /** Callbacks of the transport, from its own threads; the lines of one peer arrive in order. */
+    interface Listener {
+
+        /** Lines can now reach this peer (first connection or reconnection): time to send it our state. */
+        void peerUp(String nodeId);
+
+        void received(String fromNode, String line);
+
+        /** The peer is gone: everything it announced is no longer true. */
+        void peerDown(String nodeId);
+
+        /** True for a queued line that peerUp sends again anyway, so a reconnecting transport may drop it. */
+        default boolean replacedByPeerUp(String line) {
+            return false;
+        }
+    }
+
+    void start(String nodeId, Listener listener);
+
+    /** Queues the line for the node; dropped (and counted) if the node is unknown or too far behind. */
+    void send(String nodeId, String line);
+
+    void broadcast(String line);
+
+    void close();
+
+    /** Transport named by cluster.transport ("tcp" or "inproc"). */
+    static ClusterTransport create(String name) {
+        return switch (name.toLowerCase()) {
+            case "tcp" -> new TcpTransport(AppConfig.getClusterBindAddress(), AppConfig.getClusterPort(),
+                    AppConfig.getClusterPeers(), AppConfig.getClusterSecret(), AppConfig.getClusterQueueSize());
+            case "inproc" -> new InProcessTransport();
+            default -> throw new IllegalArgumentException("Transport de cluster inconnu: " + name);
+        };
+    }
+}
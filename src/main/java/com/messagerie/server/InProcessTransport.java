@@ -0,0 +1,74 @@
+package com.messagerie.server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Cluster transport between the nodes of one JVM (several ChatServer instances, e.g. LoadGenerator --nodes):
+ * a line is handed to the receiving node's single inbound thread, so it keeps its order and never runs on
+ * the sender's thread. Nothing is serialized beyond the line itself.
+ */
+final class InProcessTransport implements ClusterTransport {
+
+    private static final Map<String, InProcessTransport> NODES = new ConcurrentHashMap<>();
+
+    private final ServerMetrics metrics = ServerMetrics.getInstance();
+    private String nodeId;
+    private Listener listener;
+    private ExecutorService inbound;
+
+    @Override
+    public void start(String nodeId, Listener listener) {
+        this.nodeId = nodeId;
+        this.listener = listener;
+        this.inbound = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "cluster-" + nodeId);
+            t.setDaemon(true);
+            return t;
+        });
+        if (NODES.putIfAbsent(nodeId, this) != null) {
+            throw new IllegalStateException("Nœud " + nodeId + " déjà présent dans cette JVM");
+        }
+        for (InProcessTransport peer : NODES.values()) {
+            if (peer == this) continue;
+            peer.post(() -> peer.listener.peerUp(nodeId));
+            post(() -> listener.peerUp(peer.nodeId));
+        }
+    }
+
+    @Override
+    public void send(String nodeId, String line) {
+        InProcessTransport peer = NODES.get(nodeId);
+        if (peer == null || !peer.post(() -> peer.listener.received(this.nodeId, line))) {
+            metrics.clusterDropped();
+        }
+    }
+
+    @Override
+    public void broadcast(String line) {
+        for (String peer : NODES.keySet()) {
+            if (!peer.equals(nodeId)) send(peer, line);
+        }
+    }
+
+    private boolean post(Runnable task) {
+        try {
+            inbound.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false; // nœud arrêté
+        }
+    }
+
+    @Override
+    public void close() {
+        if (nodeId == null || !NODES.remove(nodeId, this)) return;
+        for (InProcessTransport peer : NODES.values()) {
+            peer.post(() -> peer.listener.peerDown(nodeId));
+        }
+        inbound.shutdown();
+    }
+}
@@ -0,0 +1,80 @@
+package com.messagerie.server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram in microseconds, recorded from many threads at once (command handlers,
+ * load generator listeners).
+ * Log-linear buckets: exact below 128 µs, then 64 buckets per power of two (about 1.5 % precision),
+ * up to 2^40 µs; a percentile is reported as the upper bound of its bucket.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 64;
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+    private static final int MAX_MAGNITUDE = 40;
+
+    private final AtomicLongArray counts = new AtomicLongArray(LINEAR_LIMIT + (MAX_MAGNITUDE - 6) * SUB_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void recordNanos(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        micros = Math.min(micros, (1L << MAX_MAGNITUDE) - 1);
+        counts.incrementAndGet(index(micros));
+        count.increment();
+        sum.add(micros);
+        max.accumulate(micros);
+    }
+
+    private static int index(long micros) {
+        if (micros < LINEAR_LIMIT) return (int) micros;
+        int magnitude = 63 - Long.numberOfLeadingZeros(micros); // >= 7
+        int shift = magnitude - 6;
+        return LINEAR_LIMIT + (magnitude - 7) * SUB_BUCKETS + (int) ((micros >>> shift) - SUB_BUCKETS);
+    }
+
+    private static long upperBound(int index) {
+        if (index < LINEAR_LIMIT) return index;
+        int j = index - LINEAR_LIMIT;
+        int shift = j / SUB_BUCKETS + 1;
+        long sub = j % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long maxMicros() {
+        return max.get();
+    }
+
+    public double meanMicros() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /** @param quantile between 0 and 1, e.g. 0.999 for p999 */
+    public long percentileMicros(double quantile) {
+        long n = count.sum();
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(quantile * n));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    /** "p50=.. p99=.. p999=.. max=.." in milliseconds. */
+    public String summary() {
+        return String.format("p50=%.2f ms p99=%.2f ms p999=%.2f ms max=%.2f ms",
+                percentileMicros(0.50) / 1000.0, percentileMicros(0.99) / 1000.0,
+                percentileMicros(0.999) / 1000.0, maxMicros() / 1000.0);
+    }
+}
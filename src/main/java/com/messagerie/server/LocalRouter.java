@@ -0,0 +1,50 @@
+package com.messagerie.server;
+
+/** Standalone server: every connected user has a session in this JVM. */
+final class LocalRouter implements MessageRouter {
+
+    private final SessionRegistry<ClientHandler> sessions;
+
+    LocalRouter(SessionRegistry<ClientHandler> sessions) {
+        this.sessions = sessions;
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public Route deliver(String username, boolean lossy, String... fields) {
+        ClientHandler handler = sessions.get(username);
+        if (handler == null) return Route.OFFLINE;
+        if (lossy) handler.sendLossy(fields);
+        else handler.sendMessage(fields);
+        return Route.LOCAL;
+    }
+
+    @Override
+    public boolean isOnline(String username) {
+        return sessions.isOnline(username);
+    }
+
+    @Override
+    public boolean isRemote(String username) {
+        return false;
+    }
+
+    @Override
+    public void loggedIn(String username) {
+    }
+
+    @Override
+    public void loggedOut(String username) {
+    }
+
+    @Override
+    public void registered(String username) {
+    }
+
+    @Override
+    public void shutdown() {
+    }
+}
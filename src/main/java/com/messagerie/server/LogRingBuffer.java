@@ -0,0 +1,87 @@
+package com.messagerie.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded multi-producer / single-consumer ring of log events for ServerLogger. Slots are preallocated
+ * (parallel arrays, one sequence number per slot, as in a bounded Vyukov queue): a producer claims a slot
+ * with one CAS, fills it and publishes it; it never blocks and never allocates. When the ring is full the
+ * event is dropped and counted, the caller goes on.
+ */
+final class LogRingBuffer {
+
+    interface Consumer {
+        void accept(long timeMillis, ServerLogger.Level level, ServerLogger.Kind kind, String first, String second);
+    }
+
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final long[] times;
+    private final ServerLogger.Level[] levels;
+    private final ServerLogger.Kind[] kinds;
+    private final String[] firsts;
+    private final String[] seconds;
+    private final AtomicLong tail = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private long head; // lu et écrit par le seul consommateur
+
+    /** @param capacity rounded up to a power of two */
+    LogRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mask = size - 1;
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) sequences.set(i, i);
+        times = new long[size];
+        levels = new ServerLogger.Level[size];
+        kinds = new ServerLogger.Kind[size];
+        firsts = new String[size];
+        seconds = new String[size];
+    }
+
+    /** @return false if the ring was full and the event was dropped */
+    boolean offer(long timeMillis, ServerLogger.Level level, ServerLogger.Kind kind, String first, String second) {
+        long pos = tail.get();
+        while (true) {
+            long diff = sequences.getAcquire((int) pos & mask) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) break;
+                pos = tail.get();
+            } else if (diff < 0) {
+                dropped.increment(); // le consommateur n'a pas encore libéré ce slot: plein
+                return false;
+            } else {
+                pos = tail.get(); // un autre producteur a pris ce slot
+            }
+        }
+        int i = (int) pos & mask;
+        times[i] = timeMillis;
+        levels[i] = level;
+        kinds[i] = kind;
+        firsts[i] = first;
+        seconds[i] = second;
+        sequences.setRelease(i, pos + 1);
+        return true;
+    }
+
+    /** Consumer thread only: hands at most {@code max} published events to {@code consumer}, oldest first. */
+    int drain(Consumer consumer, int max) {
+        int n = 0;
+        while (n < max) {
+            int i = (int) head & mask;
+            if (sequences.getAcquire(i) != head + 1) break;
+            consumer.accept(times[i], levels[i], kinds[i], firsts[i], seconds[i]);
+            firsts[i] = null;
+            seconds[i] = null;
+            sequences.setRelease(i, head + mask + 1);
+            head++;
+            n++;
+        }
+        return n;
+    }
+
+    long dropped() {
+        return dropped.sum();
+    }
+}
@@ -0,0 +1,35 @@
+package com.messagerie.server;
+
+/**
+ * Where frames for a user go. A standalone server (LocalRouter) only knows its own sessions; a cluster node
+ * (ClusterRouter) also knows, through a cluster-wide directory, the node every other user is connected to
+ * and forwards their frames there.
+ */
+interface MessageRouter {
+
+    /** Outcome of a delivery: queued on this node, forwarded to the user's node, or user offline everywhere. */
+    enum Route { LOCAL, REMOTE, OFFLINE }
+
+    /** Joins the other nodes; called once, before clients are accepted. */
+    void start();
+
+    /** Queues the frame {command, field1, ...} for the user wherever they are connected, without waiting. */
+    Route deliver(String username, boolean lossy, String... fields);
+
+    /** Connected to this node or to another one. */
+    boolean isOnline(String username);
+
+    /** Connected to another node (RG3 holds across the cluster). */
+    boolean isRemote(String username);
+
+    /** The user's session was just registered on this node. */
+    void loggedIn(String username);
+
+    /** The user's session on this node was just removed. */
+    void loggedOut(String username);
+
+    /** A new account was created on this node. */
+    void registered(String username);
+
+    void shutdown();
+}
@@ -0,0 +1,177 @@
+package com.messagerie.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Server mode "nio": a few Selector loops multiplex every client channel instead of one thread per socket.
+ * Lines are framed like BufferedReader.readLine(); commands go through the same ClientHandler dispatch,
+ * executed on a worker pool (one command at a time per connection) so that JDBC never blocks a selector.
+ */
+class NioChatServer {
+
+    private final int port;
+    private final PresenceRegistry presence;
+    private final EventLoop[] loops;
+    private final ExecutorService workers;
+    private ServerSocketChannel serverChannel;
+
+    NioChatServer(int port, PresenceRegistry presence, int selectorThreads, int workerThreads) {
+        this.port = port;
+        this.presence = presence;
+        this.loops = new EventLoop[selectorThreads];
+        AtomicInteger workerIds = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerThreads, r -> {
+            Thread t = new Thread(r, "nio-worker-" + workerIds.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Accepts connections on the calling thread and hands each channel to a selector loop (round robin). */
+    void run() throws IOException {
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop();
+            Thread t = new Thread(loops[i], "nio-selector-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        ServerLogger.logInfo("Serveur (nio, " + loops.length + " selectors) démarré sur le port " + port);
+        ServerLogger.logInfo("En attente de connexions...");
+
+        int next = 0;
+        while (serverChannel.isOpen()) {
+            SocketChannel channel = serverChannel.accept();
+            ServerLogger.logInfo("Nouvelle connexion depuis " + channel.socket().getInetAddress().getHostAddress());
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            loops[next].register(channel);
+            next = (next + 1) % loops.length;
+        }
+    }
+
+    void close() {
+        try {
+            if (serverChannel != null) serverChannel.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        for (EventLoop loop : loops) {
+            if (loop != null) loop.close();
+        }
+        workers.shutdownNow();
+    }
+
+    /** One Selector and its thread; other threads only talk to it through the two queues + wakeup(). */
+    final class EventLoop implements Runnable {
+
+        private final Selector selector;
+        private final Queue<SocketChannel> pendingRegistrations = new ConcurrentLinkedQueue<>();
+        private final Queue<NioConnection> pendingWrites = new ConcurrentLinkedQueue<>();
+
+        EventLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        void register(SocketChannel channel) {
+            pendingRegistrations.add(channel);
+            selector.wakeup();
+        }
+
+        /** Called from any thread once a connection has frames queued. */
+        void requestWrite(NioConnection connection) {
+            pendingWrites.add(connection);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (selector.isOpen()) {
+                    selector.select();
+                    registerPending();
+                    enableWrites();
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        NioConnection connection = (NioConnection) key.attachment();
+                        if (!key.isValid()) {
+                            connection.onClosed();
+                            continue;
+                        }
+                        try {
+                            if (key.isReadable()) {
+                                connection.onReadable();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.onWritable();
+                            }
+                        } catch (CancelledKeyException e) {
+                            // Connexion fermée par un worker (LOGOUT, client lent) entre isValid() et l'accès à la clé
+                            connection.onClosed();
+                        }
+                    }
+                }
+            } catch (ClosedSelectorException e) {
+                // arrêt du serveur
+            } catch (IOException e) {
+                ServerLogger.logError("Boucle selector arrêtée: " + e.getMessage());
+            }
+        }
+
+        private void registerPending() {
+            SocketChannel channel;
+            while ((channel = pendingRegistrations.poll()) != null) {
+                try {
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                    NioConnection connection = new NioConnection(channel, key, this, workers, ChatServer.newOutboundQueue());
+                    connection.attach(new ClientHandler(connection, presence));
+                    key.attach(connection);
+                } catch (IOException e) {
+                    ServerLogger.logError("Enregistrement du canal impossible: " + e.getMessage());
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                        // ignore
+                    }
+                }
+            }
+        }
+
+        private void enableWrites() {
+            NioConnection connection;
+            while ((connection = pendingWrites.poll()) != null) {
+                try {
+                    connection.onWritable();
+                } catch (CancelledKeyException e) {
+                    connection.onClosed(); // fermée par un worker depuis la demande d'écriture
+                }
+            }
+        }
+
+        void close() {
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
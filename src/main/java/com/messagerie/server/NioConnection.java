@@ -0,0 +1,284 @@
+package com.messagerie.server;
+
+import com.messagerie.protocol.BinaryProtocol;
+import com.messagerie.protocol.FrameReader;
+import com.messagerie.protocol.Framing;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Non-blocking transport of one client (mode nio).
+ * Reads and writes happen on the owning selector thread only; send() may be called from any thread.
+ * The framing is chosen from the first bytes received (BinaryProtocol.MAGIC or a text line).
+ * Incoming frames are handed to the ClientHandler through a serial queue, so commands of one client
+ * keep their order while different clients run in parallel on the worker pool. A command waiting for I/O
+ * (await, e.g. the group commit of a message) gives its worker back; the queue resumes once it completes.
+ */
+class NioConnection implements ClientConnection {
+
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final NioChatServer.EventLoop loop;
+    private final Executor workers;
+    private ClientHandler handler;
+
+    /** Octets reçus pas encore découpés en trames (mode écriture entre deux lectures). */
+    private ByteBuffer inbound = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    /** Octets de la ligne en cours déjà parcourus sans trouver de \n (mode texte). */
+    private int scanned;
+    private volatile Framing framing; // null jusqu'aux premiers octets
+
+    private final OutboundQueue outbound;
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+    private final AtomicBoolean writeRequested = new AtomicBoolean();
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    /** Posé par await() pendant une commande, repris par drain() juste après, sur le même thread. */
+    private CompletableFuture<Runnable> suspended;
+
+    NioConnection(SocketChannel channel, SelectionKey key, NioChatServer.EventLoop loop, Executor workers,
+                  OutboundQueue outbound) {
+        this.channel = channel;
+        this.key = key;
+        this.loop = loop;
+        this.workers = workers;
+        this.outbound = outbound;
+        writeBuffer.flip(); // vide, prêt à être lu
+        ServerMetrics.getInstance().connectionOpened();
+    }
+
+    void attach(ClientHandler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public void send(String[] fields, boolean lossy) {
+        Framing f = framing;
+        if (f == null) return; // aucune commande reçue: personne ne peut encore lui écrire
+        sendRaw(f.encode(fields), lossy);
+    }
+
+    private void sendRaw(byte[] bytes, boolean lossy) {
+        if (closed.get()) return;
+        switch (outbound.offer(bytes, lossy)) {
+            case QUEUED -> {
+                if (writeRequested.compareAndSet(false, true)) loop.requestWrite(this);
+            }
+            case DROPPED -> { }
+            case OVERFLOW -> {
+                ServerLogger.logError("Client trop lent (" + outbound.depth() + " trames en attente), déconnexion.");
+                onClosed();
+            }
+        }
+    }
+
+    @Override
+    public InetAddress remoteAddress() {
+        return channel.socket().getInetAddress();
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) return;
+        ServerMetrics.getInstance().connectionClosed();
+        outbound.clear();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    /** A cancelled key is never selected again: the disconnect is queued here, behind pending commands. */
+    @Override
+    public void drop() {
+        onClosed();
+    }
+
+    /** Selector thread: read what is available and dispatch every complete frame. */
+    void onReadable() {
+        int n;
+        try {
+            n = channel.read(inbound);
+        } catch (IOException e) {
+            n = -1;
+        }
+        if (n < 0) {
+            onClosed();
+            return;
+        }
+        ServerMetrics.getInstance().bytesIn(n);
+        inbound.flip();
+        try {
+            if (framing == null && !negotiate()) {
+                inbound.compact();
+                return;
+            }
+            if (framing == Framing.BINARY) {
+                dispatchFrames();
+            } else {
+                dispatchLines();
+            }
+        } catch (IllegalArgumentException e) {
+            ServerLogger.logError(e.getMessage() + ", connexion fermée.");
+            onClosed();
+            return;
+        }
+        inbound.compact();
+        if (!inbound.hasRemaining()) {
+            // Trame incomplète plus grande que le buffer (bornée par FrameReader.MAX_LINE_BYTES / MAX_FRAME_BYTES)
+            ByteBuffer larger = ByteBuffer.allocate(inbound.capacity() * 2);
+            inbound.flip();
+            inbound = larger.put(inbound);
+        }
+    }
+
+    /** @return false while the first bytes do not tell the framing yet */
+    private boolean negotiate() {
+        if (!inbound.hasRemaining()) return false;
+        if (inbound.get(inbound.position()) != BinaryProtocol.MAGIC[0]) {
+            framing = Framing.TEXT;
+            return true;
+        }
+        if (inbound.remaining() < BinaryProtocol.MAGIC.length) return false;
+        if (!BinaryProtocol.isMagic(inbound)) throw new IllegalArgumentException("Poignée de main binaire invalide");
+        inbound.position(inbound.position() + BinaryProtocol.MAGIC.length);
+        framing = Framing.BINARY;
+        sendRaw(BinaryProtocol.MAGIC, false);
+        return true;
+    }
+
+    /** Frames are copied out of the read buffer (reused by the next read), then parsed on the worker. */
+    private void dispatchFrames() {
+        int len;
+        while ((len = BinaryProtocol.completeFrame(inbound)) >= 0) {
+            byte[] bytes = new byte[len];
+            inbound.get(bytes);
+            execute(() -> handler.handleBinary(bytes, 0, bytes.length));
+        }
+    }
+
+    private void dispatchLines() {
+        byte[] bytes = inbound.array();
+        int lineStart = inbound.position();
+        for (int i = lineStart + scanned; i < inbound.limit(); i++) {
+            if (bytes[i] != '\n') continue;
+            int end = i;
+            if (end > lineStart && bytes[end - 1] == '\r') end--; // même comportement que readLine()
+            byte[] line = Arrays.copyOfRange(bytes, lineStart, end);
+            execute(() -> handler.handleText(line, 0, line.length));
+            lineStart = i + 1;
+        }
+        inbound.position(lineStart);
+        scanned = inbound.remaining();
+        if (scanned > FrameReader.MAX_LINE_BYTES) throw new IllegalArgumentException("Ligne trop longue");
+    }
+
+    /** Selector thread: pack every queued frame into the write buffer and send it in one write. */
+    void onWritable() {
+        writeRequested.set(false);
+        if (!key.isValid()) return;
+        try {
+            while (true) {
+                if (!writeBuffer.hasRemaining() && !fillWriteBuffer()) break;
+                ServerMetrics.getInstance().bytesOut(channel.write(writeBuffer));
+                if (writeBuffer.hasRemaining()) break; // buffer socket plein: attendre OP_WRITE
+            }
+            boolean pending = writeBuffer.hasRemaining() || !outbound.isEmpty();
+            key.interestOps(pending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        } catch (IOException e) {
+            onClosed();
+        }
+    }
+
+    private boolean fillWriteBuffer() {
+        if (writeBuffer.capacity() > WRITE_BUFFER_SIZE) {
+            writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+        }
+        writeBuffer.clear();
+        byte[] frame;
+        while ((frame = outbound.peek()) != null) {
+            if (frame.length > writeBuffer.remaining()) {
+                if (writeBuffer.position() > 0) break;
+                writeBuffer = ByteBuffer.allocate(frame.length); // trame plus grande que le buffer
+            }
+            outbound.poll();
+            writeBuffer.put(frame);
+        }
+        writeBuffer.flip();
+        return writeBuffer.hasRemaining();
+    }
+
+    /** End of stream or I/O error: let the handler run its usual disconnect after pending commands. */
+    void onClosed() {
+        close();
+        execute(handler::disconnect);
+    }
+
+    private void execute(Runnable task) {
+        tasks.add(task);
+        if (draining.compareAndSet(false, true)) {
+            try {
+                workers.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                draining.set(false); // serveur en cours d'arrêt
+            }
+        }
+    }
+
+    @Override
+    public <T> void await(CompletableFuture<T> future, Consumer<T> continuation) {
+        suspended = future.handle((value, error) -> () -> continuation.accept(error == null ? value : null));
+    }
+
+    private void drain() {
+        drain(null);
+    }
+
+    /** Runs {@code first} (if any) then the queued commands, until the queue is empty or a command awaits. */
+    private void drain(Runnable first) {
+        do {
+            for (Runnable task = first != null ? first : tasks.poll(); task != null; task = tasks.poll()) {
+                first = null;
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    ServerLogger.logError("Erreur de traitement: " + e.getMessage());
+                }
+                CompletableFuture<Runnable> next = suspended;
+                if (next != null) {
+                    // draining reste vrai: les commandes suivantes s'accumulent sans worker jusqu'à la reprise
+                    suspended = null;
+                    next.thenAccept(this::resume);
+                    return;
+                }
+            }
+            draining.set(false);
+        } while (!tasks.isEmpty() && draining.compareAndSet(false, true));
+    }
+
+    private void resume(Runnable continuation) {
+        try {
+            workers.execute(() -> drain(continuation));
+        } catch (RejectedExecutionException e) {
+            draining.set(false); // serveur en cours d'arrêt
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.messagerie.server;
+
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded queue of encoded frames waiting to be written to one client, drained by that connection's writer.
+ * A slow receiver therefore never blocks the thread that produced the frame.
+ *
+ * Lossy frames (presence, typing) can be dropped; essential frames (messages, responses) are never
+ * dropped silently: if they do not fit, the connection is reported as overflowing and must be closed.
+ */
+final class OutboundQueue {
+
+    enum OverflowPolicy {
+        /** Lossy frames are dropped once the queue is half full; an essential frame that does not fit disconnects. */
+        DROP_LOSSY,
+        /** Any frame that does not fit disconnects the slow consumer. */
+        DISCONNECT
+    }
+
+    enum Result { QUEUED, DROPPED, OVERFLOW }
+
+    private static final LongAdder TOTAL_DROPPED = new LongAdder();
+    private static final LongAdder TOTAL_OVERFLOWS = new LongAdder();
+
+    private final ArrayBlockingQueue<byte[]> frames;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final LongAdder dropped = new LongAdder();
+
+    OutboundQueue(int capacity, OverflowPolicy policy) {
+        this.frames = new ArrayBlockingQueue<>(capacity);
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    Result offer(byte[] frame, boolean lossy) {
+        if (lossy && policy == OverflowPolicy.DROP_LOSSY && frames.size() >= capacity / 2) {
+            return drop();
+        }
+        if (frames.offer(frame)) {
+            return Result.QUEUED;
+        }
+        if (lossy && policy == OverflowPolicy.DROP_LOSSY) {
+            return drop();
+        }
+        TOTAL_OVERFLOWS.increment();
+        return Result.OVERFLOW;
+    }
+
+    private Result drop() {
+        dropped.increment();
+        TOTAL_DROPPED.increment();
+        return Result.DROPPED;
+    }
+
+    byte[] take() throws InterruptedException {
+        return frames.take();
+    }
+
+    byte[] peek() {
+        return frames.peek();
+    }
+
+    byte[] poll() {
+        return frames.poll();
+    }
+
+    int drainTo(Collection<? super byte[]> batch, int max) {
+        return frames.drainTo(batch, max);
+    }
+
+    boolean isEmpty() {
+        return frames.isEmpty();
+    }
+
+    void clear() {
+        frames.clear();
+    }
+
+    int depth() {
+        return frames.size();
+    }
+
+    long dropped() {
+        return dropped.sum();
+    }
+
+    /** Lossy frames dropped on all connections since startup. */
+    static long totalDropped() {
+        return TOTAL_DROPPED.sum();
+    }
+
+    /** Slow consumers disconnected because an essential frame did not fit. */
+    static long totalOverflows() {
+        return TOTAL_OVERFLOWS.sum();
+    }
+}
@@ -0,0 +1,147 @@
+package com.messagerie.server;
+
+import com.messagerie.config.AppConfig;
+import com.messagerie.protocol.Protocol;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scoped presence fan-out: a status change is sent only to the connected users who have a conversation with
+ * that user (loaded at login, extended by every message sent) or who subscribed to them (PRESENCE_SUB).
+ *
+ * Changes are published from the presence scheduler, never from the handler that caused them: the first
+ * change of a user opens a coalescing window (presence.coalesce.ms) and only the last status of the window
+ * is sent, or nothing at all if the user is back to the status last published (ONLINE/OFFLINE flap). Every
+ * change still gets its presence version in the registry log, so USERLIST|sinceVersion sees them all.
+ *
+ * USER_STATUS_CHANGE carries the version of the previous change published for the same user: a client that
+ * knows an older state for that user missed one frame (lossy lane, or it was not a watcher yet) and resyncs
+ * with a delta.
+ */
+final class PresenceFanout {
+
+    /** What one connected user watches: its conversation partners plus its explicit subscriptions. */
+    private static final class Interest {
+        final Set<String> targets = ConcurrentHashMap.newKeySet();
+        int subscriptions; // seul le handler du client y touche (une commande à la fois)
+    }
+
+    private final SessionRegistry<ClientHandler> sessions;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Interest> interests = new ConcurrentHashMap<>();
+    // Sens inverse: utilisateur -> clients connectés à prévenir de ses changements
+    private final Map<String, Set<String>> watchers = new ConcurrentHashMap<>();
+    private final Map<String, PresenceRegistry.Change> pending = new ConcurrentHashMap<>();
+    private final Map<String, PresenceRegistry.Change> published = new ConcurrentHashMap<>();
+    private final ServerMetrics metrics = ServerMetrics.getInstance();
+    private final long coalesceMillis = AppConfig.getPresenceCoalesceMillis();
+    private final int maxSubscriptions = AppConfig.getPresenceMaxSubscriptions();
+
+    PresenceFanout(SessionRegistry<ClientHandler> sessions, ScheduledExecutorService scheduler) {
+        this.sessions = sessions;
+        this.scheduler = scheduler;
+    }
+
+    /** Login: {@code username} watches its conversation partners; call it before publishing its ONLINE. */
+    void connected(String username, Collection<String> partners) {
+        Interest interest = new Interest();
+        interests.put(username, interest);
+        for (String partner : partners) watch(username, interest, partner);
+    }
+
+    /** Logout: {@code username} stops watching anyone (those who watch it keep doing so). */
+    void disconnected(String username) {
+        Interest interest = interests.remove(username);
+        if (interest == null) return;
+        for (String target : interest.targets) unwatch(username, target);
+    }
+
+    /** A message was sent between the two users: each connected one now watches the other. */
+    void conversation(String sender, String receiver) {
+        link(sender, receiver);
+        link(receiver, sender);
+    }
+
+    /** PRESENCE_SUB: explicit interest in a user without conversation (e.g. the one just opened). */
+    boolean subscribe(String subscriber, String target) {
+        Interest interest = interests.get(subscriber);
+        if (interest == null || subscriber.equals(target)) return false;
+        if (interest.targets.contains(target)) return true;
+        if (interest.subscriptions >= maxSubscriptions) return false;
+        interest.subscriptions++;
+        watch(subscriber, interest, target);
+        return true;
+    }
+
+    private void link(String from, String to) {
+        Interest interest = interests.get(from);
+        if (interest != null && !from.equals(to) && !interest.targets.contains(to)) watch(from, interest, to);
+    }
+
+    private void watch(String watcher, Interest interest, String target) {
+        interest.targets.add(target);
+        watchers.compute(target, (t, set) -> {
+            if (set == null) set = ConcurrentHashMap.newKeySet();
+            set.add(watcher); // dans compute: un unwatch concurrent ne peut pas retirer l'ensemble entre-temps
+            return set;
+        });
+        // Déconnecté entre-temps: ne pas laisser d'entrée orpheline
+        if (interests.get(watcher) != interest) unwatch(watcher, target);
+    }
+
+    private void unwatch(String watcher, String target) {
+        watchers.computeIfPresent(target, (t, set) -> {
+            set.remove(watcher);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    /** Queues a versioned change; the first one of a user schedules its publication at the end of the window. */
+    void publish(PresenceRegistry.Change change) {
+        boolean[] first = new boolean[1];
+        // Deux handlers (ancienne et nouvelle session) peuvent publier en même temps: la version la plus haute gagne
+        pending.compute(change.username(), (u, queued) -> {
+            first[0] = queued == null;
+            return queued == null || change.version() > queued.version() ? change : queued;
+        });
+        if (first[0]) {
+            scheduler.schedule(() -> flush(change.username()), coalesceMillis, TimeUnit.MILLISECONDS);
+        } else {
+            metrics.presenceCoalesced();
+        }
+    }
+
+    private void flush(String username) {
+        PresenceRegistry.Change change = pending.remove(username);
+        if (change == null) return;
+        PresenceRegistry.Change last = published.get(username);
+        if (last != null && (change.version() <= last.version() || last.status() == change.status())) {
+            metrics.presenceCoalesced(); // aller-retour dans la fenêtre: rien n'a changé pour les abonnés
+            return;
+        }
+        published.put(username, change);
+        send(change, last != null ? last.version() : 0);
+    }
+
+    private void send(PresenceRegistry.Change change, long previousVersion) {
+        String[] update = {Protocol.USER_STATUS_CHANGE, change.username(), change.status().name(),
+                String.valueOf(change.version()), String.valueOf(previousVersion)};
+        int recipients = 0;
+        Set<String> targets = watchers.get(change.username());
+        if (targets != null) {
+            for (String watcher : targets) {
+                ClientHandler handler = sessions.get(watcher);
+                if (handler != null) {
+                    handler.sendLossy(update);
+                    recipients++;
+                }
+            }
+        }
+        metrics.statusBroadcast(recipients);
+    }
+}
@@ -0,0 +1,187 @@
+package com.messagerie.server;
+
+import com.messagerie.config.AppConfig;
+import com.messagerie.dao.UserDAO;
+import com.messagerie.model.User;
+import com.messagerie.model.UserStatus;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Authoritative presence (RG4): a user is ONLINE exactly while a ClientHandler is registered for them in
+ * the session registry. Nothing is written to the DB on login/logout any more; only the "last seen"
+ * time is persisted, coalesced per user and flushed in one background transaction every few seconds.
+ *
+ * Two background threads: "presence" runs the latency-sensitive work (presence fan-out, typing expiry) and
+ * never touches the database; "presence-db" runs every deferred write (last seen, read watermarks, RECU of
+ * forwarded messages), so that a slow database or an exhausted pool never holds up a presence update.
+ *
+ * Every status change gets the next presence version and is kept in a bounded log (presence.log.size), so
+ * a client that knows version X receives only the changes since X (PRESENCE_DELTA) instead of a full list.
+ * Live changes are pushed only to the users concerned, coalesced (see PresenceFanout).
+ */
+final class PresenceRegistry {
+
+    private static final long LAST_SEEN_FLUSH_SECONDS = 5;
+
+    private final SessionRegistry<ClientHandler> connectedClients = new SessionRegistry<>();
+    private final Map<Long, LocalDateTime> pendingLastSeen = new ConcurrentHashMap<>();
+    private final UserDAO userDAO = new UserDAO();
+    // Journal circulaire des changements de présence; ReentrantLock plutôt qu'un moniteur (virtual threads)
+    private final ReentrantLock changesLock = new ReentrantLock();
+    private final Change[] changes = new Change[AppConfig.getPresenceLogSize()];
+    // Versions propres à ce démarrage de ce nœud: une version venue d'un autre nœud, ou d'avant un redémarrage,
+    // est toujours hors du journal (instantané complet) au lieu de désigner d'autres changements
+    private final long epoch = ThreadLocalRandom.current().nextLong(1, 1 << 22) << 40;
+    private volatile long version = epoch;
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "presence");
+        t.setDaemon(true);
+        return t;
+    });
+    // Écritures différées en base, hors du thread de diffusion: une attente JDBC ne fige pas la présence
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "presence-db");
+        t.setDaemon(true);
+        return t;
+    });
+    private final PresenceFanout fanout = new PresenceFanout(connectedClients, flusher);
+    private final MessageRouter router;
+    private final TypingRelay typing;
+    private final ReadReceipts reads;
+
+    /** Standalone server. */
+    PresenceRegistry() {
+        this(null, null);
+    }
+
+    /** Node {@code clusterNode} of a cluster reached through {@code transport}, or standalone if null. */
+    PresenceRegistry(String clusterNode, ClusterTransport transport) {
+        router = clusterNode == null ? new LocalRouter(connectedClients) : new ClusterRouter(clusterNode, transport, this, writer);
+        typing = new TypingRelay(router, flusher);
+        reads = new ReadReceipts(router, writer);
+        writer.scheduleWithFixedDelay(this::flushLastSeen, LAST_SEEN_FLUSH_SECONDS, LAST_SEEN_FLUSH_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /** Frames for users who may be connected to another node (see ClusterRouter). */
+    MessageRouter router() {
+        return router;
+    }
+
+    /** Connected clients by username (RG3: at most one handler per user). */
+    SessionRegistry<ClientHandler> sessions() {
+        return connectedClients;
+    }
+
+    /** Typing indicators, relayed in memory (same scheduler as the last-seen flush for their expiry). */
+    TypingRelay typing() {
+        return typing;
+    }
+
+    /** Read watermarks, written by the same database thread as the last-seen times. */
+    ReadReceipts reads() {
+        return reads;
+    }
+
+    /** Who is told about whose presence changes, published from the same scheduler. */
+    PresenceFanout fanout() {
+        return fanout;
+    }
+
+    /** Connected to this node or, in a cluster, to another one. */
+    boolean isOnline(String username) {
+        return router.isOnline(username);
+    }
+
+    UserStatus statusOf(String username) {
+        return isOnline(username) ? UserStatus.ONLINE : UserStatus.OFFLINE;
+    }
+
+    /** One presence change: {@code username} became {@code status} at presence version {@code version}. */
+    record Change(String username, UserStatus status, long version) {}
+
+    /**
+     * Assigns the next presence version to a change, once it is visible in the sessions map (login, logout)
+     * or in the user directory (registration, as OFFLINE).
+     */
+    Change recordChange(String username, UserStatus status) {
+        changesLock.lock();
+        try {
+            long v = version + 1;
+            Change change = new Change(username, status, v);
+            changes[(int) (v % changes.length)] = change;
+            version = v;
+            return change;
+        } finally {
+            changesLock.unlock();
+        }
+    }
+
+    /** Versions the change, then lets PresenceFanout tell the users concerned (from the presence scheduler). */
+    void publish(String username, UserStatus status) {
+        fanout.publish(recordChange(username, status));
+    }
+
+    /** Current presence version; read it before building a snapshot so that no later change is missed. */
+    long version() {
+        return version;
+    }
+
+    /**
+     * Latest change of each user after {@code sinceVersion}, oldest first, or null if the log no longer holds
+     * them all (or sinceVersion is unknown): the client then needs a full snapshot.
+     */
+    List<Change> changesSince(long sinceVersion) {
+        changesLock.lock();
+        try {
+            if (sinceVersion < epoch || sinceVersion > version || version - sinceVersion > changes.length) return null;
+            Map<String, Change> latest = new LinkedHashMap<>();
+            for (long v = sinceVersion + 1; v <= version; v++) {
+                Change c = changes[(int) (v % changes.length)];
+                latest.remove(c.username());
+                latest.put(c.username(), c);
+            }
+            return new ArrayList<>(latest.values());
+        } finally {
+            changesLock.unlock();
+        }
+    }
+
+    /** Records the disconnection time; written asynchronously, the latest value per user wins. */
+    void markSeen(User user) {
+        pendingLastSeen.put(user.getId(), LocalDateTime.now());
+    }
+
+    private void flushLastSeen() {
+        if (pendingLastSeen.isEmpty()) return;
+        Map<Long, LocalDateTime> batch = new HashMap<>();
+        for (Long id : pendingLastSeen.keySet()) {
+            LocalDateTime t = pendingLastSeen.remove(id);
+            if (t != null) batch.put(id, t);
+        }
+        try {
+            userDAO.updateLastSeen(batch);
+        } catch (RuntimeException e) {
+            ServerLogger.logError("Mise à jour de la dernière connexion impossible: " + e.getMessage());
+        }
+    }
+
+    void shutdown() {
+        router.shutdown();
+        flusher.shutdown();
+        writer.shutdown();
+        flushLastSeen();
+        reads.flush();
+    }
+}
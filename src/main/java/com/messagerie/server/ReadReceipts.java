@@ -0,0 +1,98 @@
+package com.messagerie.server;
+
+import com.messagerie.dao.MessageDAO;
+import com.messagerie.model.User;
+import com.messagerie.protocol.Protocol;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cumulative read receipts: MSG_READ|sender|upToId means the reader has read every message the sender sent
+ * them up to that id. Only a watermark higher than the last one of the (reader, sender) pair counts: it is
+ * fanned out at once to the sender as one MSG_STATUS_UPDATE range event, and persisted by the presence
+ * database thread every READ_FLUSH_MILLIS as one UPDATE per conversation, the latest watermark winning.
+ *
+ * A watermark never goes past the last message the sender actually sent to the reader: the messages handed
+ * to the reader on this node are noted (received), and a claim beyond them is checked against the database.
+ * Without this bound, one MSG_READ with a huge id would pin the watermark and announce LU for future ids.
+ */
+final class ReadReceipts {
+
+    private static final long READ_FLUSH_MILLIS = 1000;
+
+    /** Une conversation (lecteur, expéditeur), tant que le lecteur est connecté. */
+    private static final class Conversation {
+        /** Dernier filigrane accepté. */
+        final AtomicLong read = new AtomicLong();
+        /** Plus grand id de l'expéditeur remis au lecteur, connu sans la base. */
+        final AtomicLong received = new AtomicLong();
+    }
+
+    private final MessageRouter router;
+    /** lecteur -> expéditeur -> conversation, retiré à la déconnexion du lecteur. */
+    private final Map<String, Map<String, Conversation>> conversations = new ConcurrentHashMap<>();
+    /** Filigranes à écrire; une reconnexion crée une autre Conversation, les deux UPDATE restent justes. */
+    private final Map<Conversation, MessageDAO.ReadMark> pending = new ConcurrentHashMap<>();
+    private final MessageDAO messageDAO = new MessageDAO();
+    private final ServerMetrics metrics = ServerMetrics.getInstance();
+
+    ReadReceipts(MessageRouter router, ScheduledExecutorService scheduler) {
+        this.router = router;
+        scheduler.scheduleWithFixedDelay(this::flush, READ_FLUSH_MILLIS, READ_FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /** Message {@code messageId} from sender handed to the reader's session on this node. */
+    void received(String reader, String sender, long messageId) {
+        Map<String, Conversation> byReader = conversations.get(reader);
+        Conversation conversation = byReader != null ? byReader.get(sender) : null;
+        if (conversation != null) conversation.received.accumulateAndGet(messageId, Math::max);
+    }
+
+    /** @return false if the watermark does not move forward (already known, older, or beyond any message) */
+    boolean markRead(User reader, User sender, long upToId) {
+        Conversation conversation = conversations
+                .computeIfAbsent(reader.getUsername(), r -> new ConcurrentHashMap<>())
+                .computeIfAbsent(sender.getUsername(), s -> new Conversation());
+        if (upToId > conversation.received.get()) {
+            // Au-delà des messages vus passer ici (envoyés hors ligne, via un autre nœud...): la base tranche
+            long last = messageDAO.getLastReceivedId(sender.getId(), reader.getId());
+            upToId = Math.min(upToId, conversation.received.accumulateAndGet(last, Math::max));
+        }
+        long previous;
+        do {
+            previous = conversation.read.get();
+            if (upToId <= previous) return false;
+        } while (!conversation.read.compareAndSet(previous, upToId));
+        pending.merge(conversation, new MessageDAO.ReadMark(reader.getId(), sender.getId(), upToId),
+                (a, b) -> a.upToId() >= b.upToId() ? a : b);
+        metrics.readReceipt();
+        router.deliver(sender.getUsername(), false,
+                Protocol.MSG_STATUS_UPDATE, String.valueOf(upToId), "LU", reader.getUsername());
+        return true;
+    }
+
+    /** Reader disconnected: its watermarks are forgotten (those not yet written stay pending). */
+    void clear(String reader) {
+        conversations.remove(reader);
+    }
+
+    void flush() {
+        if (pending.isEmpty()) return;
+        List<MessageDAO.ReadMark> batch = new ArrayList<>();
+        for (Conversation key : pending.keySet()) {
+            MessageDAO.ReadMark mark = pending.remove(key);
+            if (mark != null) batch.add(mark);
+        }
+        try {
+            messageDAO.markRead(batch);
+        } catch (RuntimeException e) {
+            ServerLogger.logError("Mise à jour des accusés de lecture impossible: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.messagerie.server;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Log file rolled by size: server.log is renamed server.log.1 (older files shifted up to maxFiles, the
+ * oldest deleted) once it would exceed maxBytes. Used by the ServerLogger writer thread only.
+ */
+final class RollingLogFile {
+
+    private final Path path;
+    private final long maxBytes;
+    private final int maxFiles;
+    private OutputStream out;
+    private long size;
+
+    RollingLogFile(Path path, long maxBytes, int maxFiles) throws IOException {
+        this.path = path;
+        this.maxBytes = Math.max(1024, maxBytes);
+        this.maxFiles = Math.max(1, maxFiles);
+        Path dir = path.toAbsolutePath().getParent();
+        if (dir != null) Files.createDirectories(dir);
+        open();
+    }
+
+    private void open() throws IOException {
+        out = new BufferedOutputStream(Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND), 64 * 1024);
+        size = Files.size(path);
+    }
+
+    void write(byte[] bytes) throws IOException {
+        if (size > 0 && size + bytes.length > maxBytes) roll();
+        out.write(bytes);
+        size += bytes.length;
+    }
+
+    void flush() throws IOException {
+        out.flush();
+    }
+
+    private void roll() throws IOException {
+        out.close();
+        Files.deleteIfExists(archive(maxFiles));
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            Path from = archive(i);
+            if (Files.exists(from)) Files.move(from, archive(i + 1), StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.move(path, archive(1), StandardCopyOption.REPLACE_EXISTING);
+        open();
+    }
+
+    private Path archive(int index) {
+        return path.resolveSibling(path.getFileName() + "." + index);
+    }
+
+    void close() throws IOException {
+        out.close();
+    }
+}
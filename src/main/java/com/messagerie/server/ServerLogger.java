@@ -1,33 +1,230 @@
 package com.messagerie.server;
 
+import com.messagerie.config.AppConfig;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Asynchronous server log. Callers only claim a slot in a preallocated ring (LogRingBuffer) and store the
+ * raw arguments: no formatting, no lock, no I/O on the handler thread. A daemon writer thread drains the ring
+ * in batches, formats each line ("[yyyy-MM-dd HH:mm:ss] ..." with the timestamp formatted once per second)
+ * and writes the batch to the console and/or a rolling file (log.file) with one flush.
+ *
+ * Overflow policy: when the ring (log.buffer.size) is full the event is dropped rather than blocking the
+ * caller; the writer then logs how many lines were lost, and the total is exported as log.dropped in STATS.
+ * Events below log.level are discarded before touching the ring.
+ */
 public class ServerLogger {
 
+    public enum Level {
+        DEBUG("DEBUG"), INFO("INFO"), WARN("ATTENTION"), ERROR("ERREUR");
+
+        private final String label;
+
+        Level(String label) {
+            this.label = label;
+        }
+
+        static Level parse(String value) {
+            try {
+                return valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                return INFO;
+            }
+        }
+    }
+
+    /** Shape of the line, rendered by the writer thread from the raw arguments. */
+    enum Kind { RAW, TEXT, CONNECTION, DISCONNECTION, MESSAGE }
+
     private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final int MAX_BATCH = 512;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static final Level threshold = Level.parse(AppConfig.getLogLevel());
+    private static final LogRingBuffer ring = new LogRingBuffer(AppConfig.getLogBufferSize());
+    private static final PrintStream console = AppConfig.isLogConsole() ? System.out : null;
+    private static final RollingLogFile file = openFile();
+    private static final Thread writer;
+    private static volatile boolean running = true;
+
+    // État du thread d'écriture uniquement
+    private static final StringBuilder batch = new StringBuilder(16 * 1024);
+    private static long stampSecond = Long.MIN_VALUE;
+    private static String stamp;
+    private static long reportedDrops;
+
+    static {
+        writer = new Thread(ServerLogger::writeLoop, "server-logger");
+        writer.setDaemon(true);
+        writer.start();
+        // Les lignes encore dans l'anneau sont écrites même si le serveur s'arrête sans shutdown()
+        Runtime.getRuntime().addShutdownHook(new Thread(ServerLogger::shutdown, "server-logger-flush"));
+    }
+
+    private static RollingLogFile openFile() {
+        String path = AppConfig.getLogFile();
+        if (path.isBlank()) return null;
+        try {
+            return new RollingLogFile(Path.of(path), AppConfig.getLogFileMaxBytes(), AppConfig.getLogFileCount());
+        } catch (IOException e) {
+            System.err.println("Journal " + path + " inaccessible, console uniquement: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(threshold) >= 0;
+    }
 
     public static void log(String message) {
-        System.out.println("[" + LocalDateTime.now().format(FORMATTER) + "] " + message);
+        publish(Level.INFO, Kind.RAW, message, null);
+    }
+
+    public static void log(Level level, String message) {
+        publish(level, Kind.TEXT, message, null);
     }
 
     public static void logConnection(String username) {
-        log("CONNEXION: " + username + " s'est connecté.");
+        publish(Level.INFO, Kind.CONNECTION, username, null);
     }
 
     public static void logDisconnection(String username) {
-        log("DECONNEXION: " + username + " s'est déconnecté.");
+        publish(Level.INFO, Kind.DISCONNECTION, username, null);
     }
 
+    // RG12: journalisation des messages (expéditeur -> destinataire, jamais le contenu)
     public static void logMessage(String sender, String receiver) {
-        log("MESSAGE: " + sender + " -> " + receiver);
+        publish(Level.INFO, Kind.MESSAGE, sender, receiver);
     }
 
     public static void logError(String error) {
-        log("ERREUR: " + error);
+        publish(Level.ERROR, Kind.TEXT, error, null);
+    }
+
+    public static void logWarning(String warning) {
+        publish(Level.WARN, Kind.TEXT, warning, null);
     }
 
     public static void logInfo(String info) {
-        log("INFO: " + info);
+        publish(Level.INFO, Kind.TEXT, info, null);
+    }
+
+    public static void logDebug(String debug) {
+        publish(Level.DEBUG, Kind.TEXT, debug, null);
+    }
+
+    /** Lines lost because the ring was full. */
+    public static long getDroppedCount() {
+        return ring.dropped();
+    }
+
+    private static void publish(Level level, Kind kind, String first, String second) {
+        if (!isEnabled(level)) return;
+        if (!running) {
+            // Après l'arrêt du thread d'écriture (fichier fermé): écriture directe sur la console, rare
+            if (console != null) console.println(render(new StringBuilder(), format(System.currentTimeMillis()), level, kind, first, second));
+            return;
+        }
+        ring.offer(System.currentTimeMillis(), level, kind, first, second);
+    }
+
+    /** Flushes the pending lines and stops the writer thread; later lines go straight to the console, if enabled. */
+    public static void shutdown() {
+        if (!running) return;
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(2));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void writeLoop() {
+        while (true) {
+            boolean stopping = !running;
+            int n = ring.drain(ServerLogger::append, MAX_BATCH);
+            reportDrops();
+            if (batch.length() > 0) {
+                flushBatch(n == MAX_BATCH && !stopping);
+            }
+            if (n == 0) {
+                if (stopping) break;
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static void append(long timeMillis, Level level, Kind kind, String first, String second) {
+        render(batch, timestamp(timeMillis), level, kind, first, second).append('\n');
+    }
+
+    private static StringBuilder render(StringBuilder sb, String stamp, Level level, Kind kind, String first, String second) {
+        sb.append(stamp);
+        switch (kind) {
+            case RAW -> sb.append(first);
+            case TEXT -> sb.append(level.label).append(": ").append(first);
+            case CONNECTION -> sb.append("CONNEXION: ").append(first).append(" s'est connecté.");
+            case DISCONNECTION -> sb.append("DECONNEXION: ").append(first).append(" s'est déconnecté.");
+            case MESSAGE -> sb.append("MESSAGE: ").append(first).append(" -> ").append(second);
+        }
+        return sb;
+    }
+
+    /** Writer thread: "[yyyy-MM-dd HH:mm:ss] ", formatted again only when the second changes. */
+    private static String timestamp(long timeMillis) {
+        long second = Math.floorDiv(timeMillis, 1000);
+        if (second != stampSecond) {
+            stampSecond = second;
+            stamp = format(timeMillis);
+        }
+        return stamp;
+    }
+
+    private static String format(long timeMillis) {
+        return "[" + LocalDateTime.ofInstant(Instant.ofEpochMilli(timeMillis), ZoneId.systemDefault()).format(FORMATTER) + "] ";
+    }
+
+    private static void reportDrops() {
+        long dropped = ring.dropped();
+        if (dropped != reportedDrops) {
+            render(batch, timestamp(System.currentTimeMillis()), Level.WARN, Kind.TEXT,
+                    (dropped - reportedDrops) + " ligne(s) de journal perdue(s), tampon plein", null).append('\n');
+            reportedDrops = dropped;
+        }
+    }
+
+    /** One console write and one file write per batch; {@code more} = ring not drained, flush the file later. */
+    private static void flushBatch(boolean more) {
+        if (console != null) {
+            console.print(batch);
+            console.flush();
+        }
+        if (file != null) {
+            try {
+                file.write(batch.toString().getBytes(StandardCharsets.UTF_8));
+                if (!more) file.flush();
+            } catch (IOException e) {
+                System.err.println("Écriture du journal impossible: " + e.getMessage());
+            }
+        }
+        batch.setLength(0);
     }
 }
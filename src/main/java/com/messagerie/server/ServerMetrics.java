@@ -0,0 +1,307 @@
+package com.messagerie.server;
+
+import com.messagerie.dao.DaoMetrics;
+import com.messagerie.dao.HibernateUtil;
+import com.messagerie.dao.MessageWriteBehind;
+import com.messagerie.dao.PoolMetrics;
+import com.messagerie.dao.UserDirectory;
+import com.messagerie.protocol.Opcode;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Server metrics registry: latency per command, connection gauges, bytes in/out and fan-out counts,
+ * plus the DAO, pool, outbound queue, user directory and write-behind counters, all read from one place.
+ * Recording only touches LongAdder / LongAccumulator / LatencyHistogram (no lock), from any handler thread.
+ * Exposed through JMX (com.messagerie:type=ServerMetrics) and the admin STATS command.
+ */
+public final class ServerMetrics implements ServerMetricsMXBean {
+
+    private static final Opcode[] OPCODES = Opcode.values();
+    private static final ServerMetrics INSTANCE = new ServerMetrics();
+
+    private final long startedAt = System.nanoTime();
+    /** Un histogramme par commande client -> serveur (codes < 32), null pour les réponses. */
+    private final LatencyHistogram[] commandLatency = new LatencyHistogram[OPCODES.length];
+    private final LongAdder unknownCommands = new LongAdder();
+    private final LongAdder openConnections = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder deliveredLive = new LongAdder();
+    private final LongAdder storedOffline = new LongAdder();
+    private final LongAdder pendingDelivered = new LongAdder();
+    private final LongAdder statusBroadcasts = new LongAdder();
+    private final LongAdder statusFanOut = new LongAdder();
+    private final LongAccumulator maxStatusFanOut = new LongAccumulator(Math::max, 0);
+    private final LongAdder typingForwarded = new LongAdder();
+    private final LongAdder typingSuppressed = new LongAdder();
+    private final LongAdder typingExpired = new LongAdder();
+    private final LongAdder readReceipts = new LongAdder();
+    private final LongAdder presenceSnapshots = new LongAdder();
+    private final LongAdder presenceDeltas = new LongAdder();
+    private final LongAdder presenceCoalesced = new LongAdder();
+    private final LongAdder clusterRouted = new LongAdder();
+    private final LongAdder clusterReceived = new LongAdder();
+    private final LongAdder clusterDropped = new LongAdder();
+    // Une entrée par serveur démarré (plusieurs nœuds d'un cluster peuvent partager la JVM)
+    private final List<SessionRegistry<ClientHandler>> sessions = new CopyOnWriteArrayList<>();
+
+    private ServerMetrics() {
+        for (Opcode op : OPCODES) {
+            if (op.code() < 32) commandLatency[op.ordinal()] = new LatencyHistogram();
+        }
+    }
+
+    public static ServerMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /** Registers the MXBean (once per JVM) and binds the connected clients gauge; called by ChatServer.start. */
+    void register(PresenceRegistry presence) {
+        sessions.add(presence.sessions());
+        try {
+            ObjectName name = new ObjectName("com.messagerie:type=ServerMetrics");
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            ServerLogger.logError("Métriques non exposées en JMX: " + e.getMessage());
+        }
+    }
+
+    void recordCommand(Opcode opcode, long startNanos) {
+        LatencyHistogram histogram = commandLatency[opcode.ordinal()];
+        if (histogram != null) histogram.recordNanos(System.nanoTime() - startNanos);
+    }
+
+    void recordUnknownCommand() {
+        unknownCommands.increment();
+    }
+
+    void connectionOpened() {
+        openConnections.increment();
+    }
+
+    void connectionClosed() {
+        openConnections.decrement();
+    }
+
+    void bytesIn(long n) {
+        bytesIn.add(n);
+    }
+
+    void bytesOut(long n) {
+        bytesOut.add(n);
+    }
+
+    /** Counts every byte read through the returned stream (blocking modes). */
+    InputStream countingBytesIn(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) bytesIn.increment();
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buf, int off, int len) throws IOException {
+                int n = super.read(buf, off, len);
+                if (n > 0) bytesIn.add(n);
+                return n;
+            }
+        };
+    }
+
+    void messageDelivered(boolean live) {
+        (live ? deliveredLive : storedOffline).increment();
+    }
+
+    void pendingDelivered(int count) {
+        pendingDelivered.add(count);
+    }
+
+    void statusBroadcast(int recipients) {
+        statusBroadcasts.increment();
+        statusFanOut.add(recipients);
+        maxStatusFanOut.accumulate(recipients);
+    }
+
+    void typingForwarded() {
+        typingForwarded.increment();
+    }
+
+    /** TYPING_START / TYPING_STOP not forwarded: coalesced with the previous START, or over the sender's rate. */
+    void typingSuppressed() {
+        typingSuppressed.increment();
+    }
+
+    void typingExpired() {
+        typingExpired.increment();
+    }
+
+    /** Presence change never sent: superseded within the coalescing window, or a flap back to the published status. */
+    void presenceCoalesced() {
+        presenceCoalesced.increment();
+    }
+
+    /** Frame forwarded to the node the user is connected to. */
+    void clusterRouted() {
+        clusterRouted.increment();
+    }
+
+    /** Line received from another node (login, logout, registration, forwarded frame). */
+    void clusterReceived() {
+        clusterReceived.increment();
+    }
+
+    /** Line for another node dropped: node unknown, stopped, or too far behind (cluster.queue.size). */
+    void clusterDropped() {
+        clusterDropped.increment();
+    }
+
+    /** USERLIST answered with the full list (snapshot) or with the changes since the client's version. */
+    void presenceSync(boolean snapshot) {
+        (snapshot ? presenceSnapshots : presenceDeltas).increment();
+    }
+
+    /** Read watermark accepted (and fanned out); repeated or older ones are not counted. */
+    void readReceipt() {
+        readReceipts.increment();
+    }
+
+    @Override
+    public long getUptimeSeconds() {
+        return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startedAt);
+    }
+
+    @Override
+    public long getOpenConnections() {
+        return openConnections.sum();
+    }
+
+    @Override
+    public int getConnectedClients() {
+        int connected = 0;
+        for (SessionRegistry<ClientHandler> registry : sessions) connected += registry.size();
+        return connected;
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getMessagesDeliveredLive() {
+        return deliveredLive.sum();
+    }
+
+    @Override
+    public long getMessagesStoredOffline() {
+        return storedOffline.sum();
+    }
+
+    @Override
+    public long getStatusFanOut() {
+        return statusFanOut.sum();
+    }
+
+    /** Latency of one command type, or null for server -> client opcodes. */
+    public LatencyHistogram getCommandLatency(Opcode opcode) {
+        return commandLatency[opcode.ordinal()];
+    }
+
+    /** Every metric by name (insertion order), values already formatted; commands never received are left out. */
+    @Override
+    public Map<String, String> getSnapshot() {
+        Map<String, String> m = new LinkedHashMap<>();
+        m.put("uptime_s", String.valueOf(getUptimeSeconds()));
+        m.put("connections.open", String.valueOf(getOpenConnections()));
+        m.put("clients.online", String.valueOf(getConnectedClients()));
+        m.put("bytes.in", String.valueOf(getBytesIn()));
+        m.put("bytes.out", String.valueOf(getBytesOut()));
+        m.put("messages.live", String.valueOf(getMessagesDeliveredLive()));
+        m.put("messages.offline", String.valueOf(getMessagesStoredOffline()));
+        m.put("messages.pending_delivered", String.valueOf(pendingDelivered.sum()));
+        m.put("status.broadcasts", String.valueOf(statusBroadcasts.sum()));
+        m.put("status.fanout", String.valueOf(getStatusFanOut()));
+        m.put("status.fanout_max", String.valueOf(maxStatusFanOut.get()));
+        m.put("presence.snapshots", String.valueOf(presenceSnapshots.sum()));
+        m.put("presence.deltas", String.valueOf(presenceDeltas.sum()));
+        m.put("presence.coalesced", String.valueOf(presenceCoalesced.sum()));
+        m.put("cluster.routed", String.valueOf(clusterRouted.sum()));
+        m.put("cluster.received", String.valueOf(clusterReceived.sum()));
+        m.put("cluster.dropped", String.valueOf(clusterDropped.sum()));
+        m.put("typing.forwarded", String.valueOf(typingForwarded.sum()));
+        m.put("typing.suppressed", String.valueOf(typingSuppressed.sum()));
+        m.put("typing.expired", String.valueOf(typingExpired.sum()));
+        m.put("reads.watermarks", String.valueOf(readReceipts.sum()));
+        m.put("commands.unknown", String.valueOf(unknownCommands.sum()));
+        for (Opcode op : OPCODES) {
+            LatencyHistogram h = commandLatency[op.ordinal()];
+            if (h == null || h.count() == 0) continue;
+            String prefix = "cmd." + op.name() + ".";
+            m.put(prefix + "count", String.valueOf(h.count()));
+            m.put(prefix + "p50_us", String.valueOf(h.percentileMicros(0.50)));
+            m.put(prefix + "p99_us", String.valueOf(h.percentileMicros(0.99)));
+            m.put(prefix + "p999_us", String.valueOf(h.percentileMicros(0.999)));
+            m.put(prefix + "max_us", String.valueOf(h.maxMicros()));
+        }
+        for (DaoMetrics.Operation op : DaoMetrics.Operation.values()) {
+            long calls = DaoMetrics.getCalls(op);
+            if (calls == 0) continue;
+            String prefix = "dao." + op.name() + ".";
+            m.put(prefix + "count", String.valueOf(calls));
+            m.put(prefix + "mean_us", String.format("%.0f", DaoMetrics.getMeanMicros(op)));
+            m.put(prefix + "max_us", String.valueOf(DaoMetrics.getMaxMicros(op)));
+        }
+        PoolMetrics pool = HibernateUtil.getPoolMetrics();
+        m.put("pool.active", String.valueOf(pool.getActiveConnections()));
+        m.put("pool.total", String.valueOf(pool.getTotalConnections()));
+        m.put("pool.waiting", String.valueOf(pool.getThreadsAwaitingConnection()));
+        m.put("pool.acquire_mean_us", String.format("%.0f", pool.getMeanAcquireMicros()));
+        m.put("pool.acquire_max_us", String.valueOf(pool.getMaxAcquireMicros()));
+        m.put("pool.timeouts", String.valueOf(pool.getTimeouts()));
+        m.put("outbound.dropped", String.valueOf(OutboundQueue.totalDropped()));
+        m.put("outbound.overflows", String.valueOf(OutboundQueue.totalOverflows()));
+        m.put("log.dropped", String.valueOf(ServerLogger.getDroppedCount()));
+        UserDirectory users = UserDirectory.getInstance();
+        m.put("users.cached", String.valueOf(users.size()));
+        m.put("users.hits", String.valueOf(users.getHits()));
+        m.put("users.misses", String.valueOf(users.getMisses()));
+        MessageWriteBehind writeBehind = MessageWriteBehind.getInstance();
+        m.put("writebehind.committed", String.valueOf(writeBehind.getCommittedMessages()));
+        m.put("writebehind.batches", String.valueOf(writeBehind.getCommittedBatches()));
+        m.put("writebehind.failed", String.valueOf(writeBehind.getFailedMessages()));
+        m.put("writebehind.queue", String.valueOf(writeBehind.getQueueDepth()));
+        return m;
+    }
+
+    /** STATS_DATA payload: name=value pairs separated by commas. */
+    String snapshotLine() {
+        StringBuilder sb = new StringBuilder(2048);
+        for (Map.Entry<String, String> e : getSnapshot().entrySet()) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(e.getKey()).append('=').append(e.getValue());
+        }
+        return sb.toString();
+    }
+}
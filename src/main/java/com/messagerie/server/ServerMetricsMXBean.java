@@ -0,0 +1,26 @@
+package com.messagerie.server;
+
+import java.util.Map;
+
+/** JMX view of ServerMetrics, registered as com.messagerie:type=ServerMetrics. */
+public interface ServerMetricsMXBean {
+
+    long getUptimeSeconds();
+
+    long getOpenConnections();
+
+    int getConnectedClients();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getMessagesDeliveredLive();
+
+    long getMessagesStoredOffline();
+
+    long getStatusFanOut();
+
+    /** Every metric by name, same content as the STATS command. */
+    Map<String, String> getSnapshot();
+}
@@ -0,0 +1,46 @@
+package com.messagerie.server;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Connected sessions by username, without any lock held by callers: single login (RG3) is one atomic
+ * putIfAbsent, delivery lookups are plain reads, and iteration is weakly consistent (a session added or
+ * removed meanwhile may or may not be seen, nothing is ever seen twice, no ConcurrentModificationException).
+ *
+ * {@code H} is ClientHandler in the server; the type parameter lets SessionRegistryBenchmark measure the
+ * registry under contention without sockets or a database.
+ */
+final class SessionRegistry<H> {
+
+    private final Map<String, H> sessions = new ConcurrentHashMap<>();
+
+    /** RG3: registers the session unless the user already has one; false if they do. */
+    boolean register(String username, H handler) {
+        return sessions.putIfAbsent(username, handler) == null;
+    }
+
+    /** Removes the session only if it is still this one (a newer login of the same user is kept). */
+    boolean unregister(String username, H handler) {
+        return sessions.remove(username, handler);
+    }
+
+    /** @return the user's session, or null if they are offline */
+    H get(String username) {
+        return sessions.get(username);
+    }
+
+    boolean isOnline(String username) {
+        return sessions.containsKey(username);
+    }
+
+    int size() {
+        return sessions.size();
+    }
+
+    /** Weakly consistent view of the connected sessions: iterating it never holds back a login or a logout. */
+    Collection<H> handlers() {
+        return sessions.values();
+    }
+}
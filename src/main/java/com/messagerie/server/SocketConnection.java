@@ -0,0 +1,104 @@
+package com.messagerie.server;
+
+import com.messagerie.protocol.Framing;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Blocking transport (modes threaded and virtual): frames, encoded in the framing chosen by the client,
+ * go through a bounded OutboundQueue and a dedicated writer (virtual thread) sends every frame available
+ * in one flush.
+ */
+class SocketConnection implements ClientConnection {
+
+    private static final int MAX_BATCH = 256;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final Socket socket;
+    private final OutputStream out;
+    private final OutboundQueue queue;
+    private final Framing framing;
+    private final Thread writer;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    SocketConnection(Socket socket, OutboundQueue queue, Framing framing) throws IOException {
+        this.socket = socket;
+        this.out = new BufferedOutputStream(socket.getOutputStream(), WRITE_BUFFER_SIZE);
+        this.queue = queue;
+        this.framing = framing;
+        this.writer = Thread.ofVirtual().name("writer-" + socket.getPort()).start(this::writeLoop);
+        ServerMetrics.getInstance().connectionOpened();
+    }
+
+    @Override
+    public void send(String[] fields, boolean lossy) {
+        sendRaw(framing.encode(fields), lossy);
+    }
+
+    /** Queues bytes as they are (handshake reply). */
+    void sendRaw(byte[] bytes) {
+        sendRaw(bytes, false);
+    }
+
+    private void sendRaw(byte[] bytes, boolean lossy) {
+        if (closed.get()) return;
+        if (queue.offer(bytes, lossy) == OutboundQueue.Result.OVERFLOW) {
+            ServerLogger.logError("Client trop lent (" + queue.depth() + " trames en attente), déconnexion.");
+            close(); // le thread lecteur sort de sa lecture et déclenche disconnect()
+        }
+    }
+
+    private void writeLoop() {
+        List<byte[]> batch = new ArrayList<>(MAX_BATCH);
+        try {
+            while (!closed.get()) {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH - 1);
+                long written = 0;
+                for (byte[] frame : batch) {
+                    out.write(frame);
+                    written += frame.length;
+                }
+                out.flush();
+                ServerMetrics.getInstance().bytesOut(written);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // fermeture
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    @Override
+    public InetAddress remoteAddress() {
+        return socket.getInetAddress();
+    }
+
+    /** The reader thread leaves its blocking read with an IOException and runs disconnect(). */
+    @Override
+    public void drop() {
+        close();
+    }
+
+    @Override
+    public void close() {
+        // Écrivain (IOException) et lecteur (disconnect) peuvent fermer en même temps: une seule fois
+        if (!closed.compareAndSet(false, true)) return;
+        ServerMetrics.getInstance().connectionClosed();
+        writer.interrupt();
+        queue.clear();
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.messagerie.server;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cluster transport over plain TCP, one line per event. Each node listens on cluster.bind:cluster.port for
+ * the lines of its peers and keeps one outgoing connection per peer (cluster.peers), fed by a bounded queue and its own
+ * writer thread, so a slow or dead peer never blocks a client handler: when the queue is full the line is
+ * dropped and counted. A lost outgoing connection is retried every second; the lines that peerUp rebuilds
+ * (logins and logouts) are then dropped from the queue, the others (deliveries) are still sent. A lost incoming connection means the peer is down.
+ *
+ * An incoming connection must open with NODE_HELLO|nodeId|secret, nodeId being listed in cluster.peers and
+ * secret equal to cluster.secret; anything else is closed unread, since a peer may deliver frames to any user
+ * and close sessions (RG3). The secret travels in clear: the cluster link belongs on a private network.
+ */
+final class TcpTransport implements ClusterTransport {
+
+    private static final String HELLO = "NODE_HELLO";
+    private static final long RECONNECT_MILLIS = 1000;
+
+    private final String bindAddress;
+    private final int port;
+    private final byte[] secret;
+    private final Map<String, Peer> peers = new HashMap<>();
+    private final ServerMetrics metrics = ServerMetrics.getInstance();
+    private volatile boolean running;
+    private String nodeId;
+    private Listener listener;
+    private ServerSocket serverSocket;
+
+    private final class Peer {
+        final String id;
+        final InetSocketAddress address;
+        final BlockingQueue<String> queue;
+        volatile Socket socket;
+
+        Peer(String id, InetSocketAddress address, int capacity) {
+            this.id = id;
+            this.address = address;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        void run() {
+            while (running) {
+                try (Socket s = new Socket()) {
+                    s.connect(address, (int) RECONNECT_MILLIS);
+                    s.setTcpNoDelay(true);
+                    socket = s;
+                    Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8));
+                    out.write(HELLO + "|" + nodeId + "|" + new String(secret, StandardCharsets.UTF_8) + "\n");
+                    queue.removeIf(listener::replacedByPeerUp); // remplacé par l'état complet envoyé par peerUp
+                    listener.peerUp(id);
+                    while (running) {
+                        String line = queue.poll(RECONNECT_MILLIS, TimeUnit.MILLISECONDS);
+                        if (line == null) {
+                            out.flush();
+                            continue;
+                        }
+                        out.write(line);
+                        out.write('\n');
+                        if (queue.isEmpty()) out.flush();
+                    }
+                } catch (IOException e) {
+                    if (running) ServerLogger.logDebug("Nœud " + id + " injoignable: " + e.getMessage());
+                } catch (InterruptedException e) {
+                    return;
+                } finally {
+                    socket = null;
+                }
+                sleepQuietly(RECONNECT_MILLIS);
+            }
+        }
+    }
+
+    /** @param peers "node2=host:port,node3=host:port" */
+    TcpTransport(String bindAddress, int port, String peers, String secret, int queueCapacity) {
+        if (secret.isBlank()) throw new IllegalArgumentException("cluster.secret est obligatoire avec le transport tcp");
+        this.bindAddress = bindAddress;
+        this.port = port;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        for (String entry : peers.split(",")) {
+            if (entry.isBlank()) continue;
+            int eq = entry.indexOf('=');
+            int colon = entry.lastIndexOf(':');
+            if (eq <= 0 || colon < eq) throw new IllegalArgumentException("cluster.peers invalide: " + entry);
+            String id = entry.substring(0, eq).trim();
+            InetSocketAddress address = new InetSocketAddress(entry.substring(eq + 1, colon).trim(),
+                    Integer.parseInt(entry.substring(colon + 1).trim()));
+            this.peers.put(id, new Peer(id, address, queueCapacity));
+        }
+    }
+
+    @Override
+    public void start(String nodeId, Listener listener) {
+        this.nodeId = nodeId;
+        this.listener = listener;
+        this.running = true;
+        try {
+            serverSocket = new ServerSocket();
+            serverSocket.bind(new InetSocketAddress(bindAddress, port));
+        } catch (IOException e) {
+            throw new IllegalStateException("Port de cluster " + bindAddress + ":" + port + " indisponible: " + e.getMessage(), e);
+        }
+        peers.remove(nodeId); // liste commune à tous les nœuds: pas de connexion vers soi-même
+        Thread.ofPlatform().daemon().name("cluster-accept").start(this::accept);
+        for (Peer peer : peers.values()) {
+            Thread.ofPlatform().daemon().name("cluster-out-" + peer.id).start(peer::run);
+        }
+    }
+
+    private void accept() {
+        while (running) {
+            try {
+                Socket s = serverSocket.accept();
+                Thread.ofPlatform().daemon().name("cluster-in").start(() -> read(s));
+            } catch (IOException e) {
+                if (running) ServerLogger.logError("Cluster: " + e.getMessage());
+            }
+        }
+    }
+
+    private void read(Socket s) {
+        String peer = null;
+        try (s; BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8))) {
+            s.setSoTimeout((int) RECONNECT_MILLIS * 5); // poignée de main seulement
+            String hello = in.readLine();
+            String[] fields = hello == null ? new String[0] : hello.split("\\|", 3);
+            if (fields.length < 3 || !HELLO.equals(fields[0]) || !peers.containsKey(fields[1])
+                    || !MessageDigest.isEqual(secret, fields[2].getBytes(StandardCharsets.UTF_8))) {
+                ServerLogger.logWarning("Cluster: connexion refusée depuis " + s.getInetAddress().getHostAddress()
+                        + " (nœud inconnu ou secret invalide)");
+                return;
+            }
+            s.setSoTimeout(0);
+            peer = fields[1];
+            Thread.currentThread().setName("cluster-in-" + peer);
+            ServerLogger.logInfo("Nœud " + peer + " connecté.");
+            String line;
+            while ((line = in.readLine()) != null) {
+                listener.received(peer, line);
+            }
+        } catch (IOException e) {
+            if (running) ServerLogger.logDebug("Cluster: " + e.getMessage());
+        } finally {
+            if (peer != null && running) {
+                ServerLogger.logWarning("Nœud " + peer + " déconnecté.");
+                listener.peerDown(peer);
+            }
+        }
+    }
+
+    @Override
+    public void send(String nodeId, String line) {
+        Peer peer = peers.get(nodeId);
+        if (peer == null || !peer.queue.offer(line)) metrics.clusterDropped();
+    }
+
+    @Override
+    public void broadcast(String line) {
+        for (Peer peer : peers.values()) {
+            if (!peer.queue.offer(line)) metrics.clusterDropped();
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            if (serverSocket != null) serverSocket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        for (Peer peer : peers.values()) {
+            Socket s = peer.socket;
+            try {
+                if (s != null) s.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
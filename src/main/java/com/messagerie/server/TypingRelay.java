@@ -0,0 +1,133 @@
+package com.messagerie.server;
+
+import com.messagerie.config.AppConfig;
+import com.messagerie.protocol.Protocol;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Relays TYPING_START / TYPING_STOP as TYPING_INDICATOR frames, in memory only (no DB access).
+ *
+ * One entry per (sender, receiver) pair while the sender is typing. A START for an active pair only pushes
+ * back its expiry; it is forwarded again only once the coalescing window (typing.coalesce.ms) has elapsed,
+ * in case the previous lossy frame was dropped. A pair whose STOP never arrives is stopped by the sweeper
+ * after typing.expiry.ms. Each sender may cause at most typing.rate.per.sec forwarded transitions per
+ * second; the excess is dropped (a dropped STOP is then sent by expiry). Frames go out on the lossy lane
+ * (ClientHandler.sendLossy) so they never hold back messages.
+ */
+final class TypingRelay {
+
+    private static final long SWEEP_MILLIS = 1000;
+
+    private static final class Typing {
+        final String sender;
+        final String receiver;
+        volatile long expiresAt;
+        volatile long forwardedAt;
+
+        Typing(String sender, String receiver) {
+            this.sender = sender;
+            this.receiver = receiver;
+        }
+    }
+
+    /** Fixed one-second window; only touched by the sender's handler (one command at a time per client). */
+    private static final class Budget {
+        long windowStart;
+        int used;
+    }
+
+    private final MessageRouter router;
+    private final Map<String, Typing> active = new ConcurrentHashMap<>();
+    private final Map<String, Budget> budgets = new ConcurrentHashMap<>();
+    private final ServerMetrics metrics = ServerMetrics.getInstance();
+    private final long coalesceMillis = AppConfig.getTypingCoalesceMillis();
+    private final long expiryMillis = AppConfig.getTypingExpiryMillis();
+    private final int ratePerSecond = AppConfig.getTypingRatePerSecond();
+
+    TypingRelay(MessageRouter router, ScheduledExecutorService scheduler) {
+        this.router = router;
+        scheduler.scheduleWithFixedDelay(this::expire, SWEEP_MILLIS, SWEEP_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private static String key(String sender, String receiver) {
+        return sender + '\n' + receiver; // \n refusé dans un nom à l'inscription (Protocol.isValidUsername)
+    }
+
+    void start(String sender, String receiver) {
+        if (sender.equals(receiver) || !router.isOnline(receiver)) return;
+        long now = System.currentTimeMillis();
+        String key = key(sender, receiver);
+        Typing typing = active.get(key);
+        if (typing != null) {
+            typing.expiresAt = now + expiryMillis;
+            if (now - typing.forwardedAt < coalesceMillis || !allow(sender, now)) {
+                metrics.typingSuppressed();
+                return;
+            }
+        } else {
+            if (!allow(sender, now)) {
+                metrics.typingSuppressed();
+                return;
+            }
+            typing = new Typing(sender, receiver);
+            typing.expiresAt = now + expiryMillis;
+            active.put(key, typing);
+        }
+        typing.forwardedAt = now;
+        forward(receiver, sender, "START");
+    }
+
+    void stop(String sender, String receiver) {
+        Typing typing = active.get(key(sender, receiver));
+        if (typing == null) return; // START jamais relayé: rien à annuler
+        if (!allow(sender, System.currentTimeMillis())) {
+            metrics.typingSuppressed(); // l'entrée reste: l'expiration enverra le STOP
+            return;
+        }
+        if (active.remove(key(sender, receiver), typing)) forward(receiver, sender, "STOP");
+    }
+
+    /** Sender disconnected: every indicator it had raised is cleared. */
+    void clear(String sender) {
+        budgets.remove(sender);
+        for (Typing typing : active.values()) {
+            if (typing.sender.equals(sender) && active.remove(key(sender, typing.receiver), typing)) {
+                forward(typing.receiver, sender, "STOP");
+            }
+        }
+    }
+
+    private boolean allow(String sender, long now) {
+        Budget budget = budgets.computeIfAbsent(sender, s -> new Budget());
+        if (now - budget.windowStart >= 1000) {
+            budget.windowStart = now;
+            budget.used = 0;
+        }
+        return budget.used++ < ratePerSecond;
+    }
+
+    private void expire() {
+        if (active.isEmpty()) return;
+        long now = System.currentTimeMillis();
+        for (Typing typing : active.values()) {
+            if (typing.expiresAt <= now && active.remove(key(typing.sender, typing.receiver), typing)) {
+                metrics.typingExpired();
+                forward(typing.receiver, typing.sender, "STOP");
+            }
+        }
+    }
+
+    private void forward(String receiver, String sender, String action) {
+        if (router.deliver(receiver, true, Protocol.TYPING_INDICATOR, sender, action) != MessageRouter.Route.OFFLINE) {
+            metrics.typingForwarded();
+        }
+    }
+
+    int activeCount() {
+        return active.size();
+    }
+}
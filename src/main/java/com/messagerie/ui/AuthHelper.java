@@ -1,6 +1,7 @@
 package com.messagerie.ui;
 
 import com.messagerie.client.ChatClient;
+import com.messagerie.protocol.Frame;
 import javafx.application.Platform;
 
 import java.io.IOException;
@@ -17,13 +18,13 @@ public final class AuthHelper {
      * Creates a ChatClient, connects to the server, and sets the message handler and disconnect callback.
      * @param server host
      * @param port port
-     * @param onMessage called on each line received (may be from any thread)
+     * @param onMessage called on each frame received, as a detached copy (may be from any thread)
      * @param onDisconnect called when connection is lost (will be run on JavaFX thread if needed)
      * @return connected client
      * @throws IOException if connection fails
      */
     public static ChatClient connect(String server, int port,
-                                    Consumer<String> onMessage,
+                                    Consumer<Frame> onMessage,
                                     Runnable onDisconnect) throws IOException {
         ChatClient client = new ChatClient();
         client.setMessageHandler(onMessage);
@@ -1,7 +1,12 @@
 package com.messagerie.ui;
 
 import com.messagerie.client.ChatClient;
+import com.messagerie.protocol.Frame;
 import com.messagerie.protocol.Protocol;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.PauseTransition;
+import javafx.animation.Timeline;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -13,6 +18,7 @@ import javafx.scene.layout.HBox;
 import javafx.scene.layout.StackPane;
 import javafx.scene.layout.VBox;
 import javafx.scene.shape.Circle;
+import javafx.util.Duration;
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
@@ -39,10 +45,34 @@ public class ChatController {
     private String selectedUser;
     private final Map<String, String> userStatuses = new HashMap<>();
     private final ObservableList<String> userList = FXCollections.observableArrayList();
-    private final Map<String, Long> lastMessageIds = new HashMap<>(); // messageId pour chaque conversation
+    private static final String ONLINE = "ONLINE";
+    // Présence versionnée: instantané une fois, puis changements (USER_STATUS_CHANGE, PRESENCE_DELTA)
+    private final Map<String, Long> presenceVersions = new HashMap<>(); // version du dernier changement appliqué
+    private long presenceVersion; // tous les statuts sont connus jusqu'à cette version (USER_LIST, PRESENCE_DELTA)
+    private boolean presenceResyncPending;
+    // Les USER_STATUS_CHANGE ne concernent que les contacts: les autres statuts sont rafraîchis par delta
+    private final Timeline presenceRefresh = new Timeline(new KeyFrame(Duration.millis(Protocol.PRESENCE_REFRESH_MILLIS), e -> resyncPresence()));
+    private boolean updatingUserList; // repositionnement en cours: la sélection ne doit pas changer de conversation
+    private final Map<String, Long> readWatermarks = new HashMap<>(); // dernier MSG_READ envoyé par conversation
     private final Map<String, String> typingUsers = new HashMap<>(); // username -> "typing..."
-    private final Map<Long, HBox> messageBubbles = new HashMap<>(); // messageId -> bubble
+    private final Map<Long, HBox> messageBubbles = new HashMap<>(); // messageId -> bubble (conversation affichée)
+    private final Map<Long, Set<String>> myReactions = new HashMap<>(); // messageId -> emojis de l'utilisateur
+    private final Deque<HBox> unacknowledgedBubbles = new ArrayDeque<>(); // messages envoyés en attente de MSG_OK|id
+    // Accusé de lecture différé: un seul MSG_READ pour tous les messages affichés pendant READ_DEBOUNCE_MILLIS
+    private final PauseTransition readDebounce = new PauseTransition(Duration.millis(Protocol.READ_DEBOUNCE_MILLIS));
+    private String readPendingUser;
+    private long readPendingUpTo;
     private Timer typingTimer;
+    // Pagination de l'historique (keyset sur l'id du plus ancien message affiché)
+    private Long oldestLoadedId;
+    private boolean hasOlderHistory;
+    private boolean loadingHistory;
+    private long lastTypingStart;
+    // Flux HISTORY_BEGIN/CHUNK/END en cours
+    private String historyStreamUser;
+    private String historyDirection;
+    private int historyInsertIndex;
+    private int historyNextSeq;
     private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm");
     private static final DateTimeFormatter DATE_TIME_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm");
 
@@ -53,6 +83,7 @@ public class ChatController {
 
         currentUserLabel.setText("Connecté : " + username);
 
+        readDebounce.setOnFinished(e -> flushReadWatermark());
         client.setMessageHandler(this::handleServerMessage);
         client.setOnDisconnect(() -> Platform.runLater(this::handleDisconnect));
 
@@ -60,7 +91,7 @@ public class ChatController {
         userListView.setCellFactory(lv -> new UserListCell());
 
         userListView.getSelectionModel().selectedItemProperty().addListener((obs, oldVal, newVal) -> {
-            if (newVal != null) {
+            if (newVal != null && !updatingUserList && !newVal.equals(selectedUser)) {
                 selectUser(newVal);
             }
         });
@@ -68,40 +99,56 @@ public class ChatController {
         // Ajouter le listener pour le typing indicator
         messageInput.textProperty().addListener((obs, oldVal, newVal) -> {
             if (selectedUser != null && client != null) {
-                if (newVal.length() > 0 && oldVal.length() == 0) {
-                    // L'utilisateur commence à écrire
-                    client.send(Protocol.buildCommand(Protocol.TYPING_START, selectedUser));
+                long now = System.currentTimeMillis();
+                if (newVal.length() > 0 && (oldVal.length() == 0 || now - lastTypingStart >= Protocol.TYPING_REFRESH_MILLIS)) {
+                    // L'utilisateur commence (ou continue) à écrire: le serveur expire l'indicateur sans rappel
+                    client.send(Protocol.TYPING_START, selectedUser);
+                    lastTypingStart = now;
                 } else if (newVal.length() == 0 && oldVal.length() > 0) {
                     // L'utilisateur arrête d'écrire
-                    client.send(Protocol.buildCommand(Protocol.TYPING_STOP, selectedUser));
+                    client.send(Protocol.TYPING_STOP, selectedUser);
                 }
             }
         });
 
+        // Arrivé en haut de la conversation: charger la page précédente
+        messagesScroll.vvalueProperty().addListener((obs, oldVal, newVal) -> {
+            if (newVal.doubleValue() <= 0.0 && hasOlderHistory && !loadingHistory && selectedUser != null) {
+                loadingHistory = true;
+                client.requestHistoryPage(selectedUser, Protocol.HISTORY_PAGE_SIZE, Protocol.HISTORY_BEFORE, oldestLoadedId);
+            }
+        });
+
         client.requestUserList();
+        presenceRefresh.setCycleCount(Animation.INDEFINITE);
+        presenceRefresh.play();
     }
 
-    private void handleServerMessage(String raw) {
-        String[] parts = Protocol.parseCommand(raw);
-        if (parts.length == 0) return;
+    private void handleServerMessage(Frame frame) {
+        if (frame.opcode() == null) {
+            // Ignorer silencieusement les commandes inconnues pour éviter les erreurs
+            System.err.println("Commande inconnue ignorée: " + frame.field(0));
+            return;
+        }
 
         Platform.runLater(() -> {
             try {
-                switch (parts[0]) {
-                    case Protocol.USER_LIST -> handleUserList(parts);
-                    case Protocol.INCOMING_MSG -> handleIncomingMessage(raw);
-                    case Protocol.MSG_OK -> {}
-                    case Protocol.MSG_FAIL -> handleMsgFail(parts);
-                    case Protocol.HISTORY_DATA -> handleHistoryData(parts);
-                    case Protocol.USER_STATUS_CHANGE -> handleUserStatusChange(parts);
-                    case Protocol.TYPING_INDICATOR -> handleTypingIndicator(parts);
-                    case Protocol.REACTION_ADDED -> handleReactionAdded(parts);
-                    case Protocol.MSG_STATUS_UPDATE -> handleMessageStatusUpdate(parts);
-                    case Protocol.ERROR -> handleError(parts);
-                    default -> {
-                        // Ignorer silencieusement les commandes inconnues pour éviter les erreurs
-                        System.err.println("Commande inconnue ignorée: " + raw);
-                    }
+                switch (frame.opcode()) {
+                    case USER_LIST -> handleUserList(frame);
+                    case INCOMING_MSG -> handleIncomingMessage(frame);
+                    case MSG_OK -> handleMsgOk(frame);
+                    case MSG_FAIL -> handleMsgFail(frame);
+                    case HISTORY_DATA -> handleHistoryData(frame);
+                    case HISTORY_BEGIN -> handleHistoryBegin(frame);
+                    case HISTORY_CHUNK -> handleHistoryChunk(frame);
+                    case HISTORY_END -> handleHistoryEnd(frame);
+                    case USER_STATUS_CHANGE -> handleUserStatusChange(frame);
+                    case PRESENCE_DELTA -> handlePresenceDelta(frame);
+                    case TYPING_INDICATOR -> handleTypingIndicator(frame);
+                    case REACTION_ADDED -> handleReactionAdded(frame);
+                    case MSG_STATUS_UPDATE -> handleMessageStatusUpdate(frame);
+                    case ERROR -> handleError(frame);
+                    default -> {}
                 }
             } catch (Exception e) {
                 System.err.println("Erreur lors du traitement du message: " + e.getMessage());
@@ -109,143 +156,269 @@ public class ChatController {
         });
     }
 
-    private void handleUserList(String[] parts) {
-        if (parts.length < 2 || parts[1].isBlank()) return;
-
-        String[] users = parts[1].split(",");
-        userStatuses.clear();
-        userList.clear();
-
+    /** USER_LIST|user:STATUS,...|version: full snapshot, received once; then only deltas (see requestPresence). */
+    private void handleUserList(Frame frame) {
+        long version = frame.size() > 2 ? parseVersion(frame.field(2)) : 0;
         List<String> onlineUsers = new ArrayList<>();
         List<String> offlineUsers = new ArrayList<>();
-
-        for (String u : users) {
-            String[] info = u.split(":");
-            if (info.length == 2) {
-                String name = info[0];
-                String status = info[1];
+        Map<String, String> previous = new HashMap<>(userStatuses);
+        userStatuses.clear();
+        if (frame.size() >= 2 && !frame.isBlank(1)) {
+            for (String u : frame.field(1).split(",")) {
+                int colon = u.lastIndexOf(':');
+                if (colon <= 0) continue;
+                String name = u.substring(0, colon);
+                String status = u.substring(colon + 1);
+                // Changement reçu avant l'instantané mais plus récent que lui: il reste valable
+                Long known = presenceVersions.get(name);
+                if (known != null && known > version) status = previous.getOrDefault(name, status);
                 userStatuses.put(name, status);
-                if ("ONLINE".equals(status)) {
-                    onlineUsers.add(name);
-                } else {
-                    offlineUsers.add(name);
-                }
+                (ONLINE.equals(status) ? onlineUsers : offlineUsers).add(name);
             }
         }
-
         Collections.sort(onlineUsers);
         Collections.sort(offlineUsers);
-        userList.addAll(onlineUsers);
-        userList.addAll(offlineUsers);
+        onlineUsers.addAll(offlineUsers);
+        presenceVersion = Math.max(presenceVersion, version);
+        presenceResyncPending = false;
+        updatingUserList = true;
+        try {
+            userList.setAll(onlineUsers);
+            if (selectedUser != null) userListView.getSelectionModel().select(selectedUser);
+        } finally {
+            updatingUserList = false;
+        }
+    }
+
+    /** PRESENCE_DELTA|version|user:STATUS:v,...: only the users whose presence changed since our version. */
+    private void handlePresenceDelta(Frame frame) {
+        if (frame.size() < 2) return;
+        long version = parseVersion(frame.field(1));
+        if (frame.size() >= 3 && !frame.isBlank(2)) {
+            for (String entry : frame.field(2).split(",")) {
+                int second = entry.lastIndexOf(':');
+                int first = second > 0 ? entry.lastIndexOf(':', second - 1) : -1;
+                if (first <= 0) continue;
+                applyStatus(entry.substring(0, first), entry.substring(first + 1, second),
+                        parseVersion(entry.substring(second + 1)));
+            }
+        }
+        presenceVersion = Math.max(presenceVersion, version);
+        presenceResyncPending = false;
     }
 
-    private void handleIncomingMessage(String raw) {
+    /** Changes since our version (a delta, usually empty); at most one request in flight. */
+    private void resyncPresence() {
+        if (presenceVersion == 0 || presenceResyncPending || client == null) return;
+        presenceResyncPending = true;
+        client.requestUserList(presenceVersion);
+    }
+
+    private void handleIncomingMessage(Frame frame) {
         // INCOMING_MSG|sender|date|id|content (content last, may contain |)
-        String[] parts = Protocol.parseCommand(raw, 5);
-        if (parts.length < 5) return;
-        String senderUsername = parts[1];
-        String dateStr = parts[2];
-        String contenu = parts[4];
+        if (frame.size() < 5) return;
+        String senderUsername = frame.field(1);
+        String dateStr = frame.field(2);
+        String contenu = frame.field(4);
 
         if (senderUsername.equals(selectedUser)) {
-            addMessageBubble(senderUsername, contenu, dateStr, false, "RECU");
+            Long id = parseId(frame.field(3));
+            addMessageBubble(id, senderUsername, contenu, dateStr, false, "RECU", -1);
             scrollToBottom();
         }
 
-        if (!userList.contains(senderUsername)) {
-            userStatuses.put(senderUsername, "ONLINE");
-            userList.add(0, senderUsername);
+        if (!userStatuses.containsKey(senderUsername)) {
+            placeUser(senderUsername, ONLINE);
+        }
+    }
+
+    /** MSG_OK|id: answers the oldest message sent and not yet acknowledged (the server handles them in order). */
+    private void handleMsgOk(Frame frame) {
+        HBox row = unacknowledgedBubbles.poll();
+        Long id = frame.size() > 1 ? parseId(frame.field(1)) : null;
+        if (row != null && id != null && row.getParent() == messagesContainer) {
+            messageBubbles.put(id, row);
         }
     }
 
-    private void handleMsgFail(String[] parts) {
-        String msg = parts.length > 1 ? parts[1] : "Erreur d'envoi.";
+    private void handleMsgFail(Frame frame) {
+        unacknowledgedBubbles.poll();
+        String msg = frame.size() > 1 ? frame.field(1) : "Erreur d'envoi.";
         showErrorBanner(msg);
     }
 
-    private void handleHistoryData(String[] parts) {
+    private void handleHistoryData(Frame frame) {
         messagesContainer.getChildren().clear();
-        if (parts.length < 2 || parts[1].isBlank()) return;
+        if (frame.size() < 2 || frame.isBlank(1)) return;
 
-        String payload;
         try {
-            payload = Protocol.decodePayload(parts[1]);
+            renderHistory(frame.field(1), -1);
         } catch (IllegalArgumentException e) {
             return;
         }
-        String[] messages = payload.split(Protocol.HISTORY_SEP);
-        for (String m : messages) {
-            if (m.isBlank()) continue;
-            String[] fields = m.split(Protocol.HISTORY_FIELD_SEP, -1);
-            // Format: sender::base64(content)::date::id::status (5 champs pour éviter que "::" dans le contenu casse le parsing)
-            if (fields.length >= 5) {
-                String sender = fields[0];
-                String contentEncoded = fields[1];
-                String dateStr = fields[2];
-                String statusStr = fields[4];
-                String contenu;
-                try {
-                    contenu = Protocol.decodePayload(contentEncoded);
-                } catch (IllegalArgumentException e) {
-                    contenu = contentEncoded; // fallback si pas du base64
-                }
-                boolean isMine = sender.equals(currentUsername);
-                addMessageBubble(sender, contenu, dateStr, isMine, statusStr);
-            } else if (fields.length >= 3) {
-                // Ancien format sans statut / contenu non encodé (rétrocompat)
-                String sender = fields[0];
-                String contenu = fields[1];
-                String dateStr = fields[2];
-                boolean isMine = sender.equals(currentUsername);
-                addMessageBubble(sender, contenu, dateStr, isMine, null);
+        scrollToBottom();
+    }
+
+    /** HISTORY_BEGIN|other|LATEST/BEFORE/AFTER */
+    private void handleHistoryBegin(Frame frame) {
+        if (frame.size() < 3 || !frame.field(1).equals(selectedUser)) {
+            historyStreamUser = null; // flux d'une autre conversation: ses chunks seront ignorés
+            return;
+        }
+        historyStreamUser = frame.field(1);
+        historyDirection = frame.field(2);
+        historyNextSeq = 0;
+        if (Protocol.HISTORY_BEFORE.equals(historyDirection)) {
+            historyInsertIndex = 0;
+        } else {
+            if (Protocol.HISTORY_LATEST.equals(historyDirection)) {
+                messagesContainer.getChildren().clear();
             }
+            historyInsertIndex = -1;
         }
-        scrollToBottom();
     }
 
-    private void handleUserStatusChange(String[] parts) {
-        if (parts.length < 3) return;
-        String username = parts[1];
-        String status = parts[2];
+    /** HISTORY_CHUNK|other|seq|base64(records): rendered as soon as it arrives. */
+    private void handleHistoryChunk(Frame frame) {
+        if (frame.size() < 4 || historyStreamUser == null || !historyStreamUser.equals(frame.field(1))) return;
+        if (!String.valueOf(historyNextSeq).equals(frame.field(2))) {
+            System.err.println("Chunk d'historique inattendu: " + frame.field(2) + " (attendu " + historyNextSeq + ")");
+        }
+        historyNextSeq++;
+
+        String payload = frame.field(3);
+        if (Protocol.HISTORY_BEFORE.equals(historyDirection)) {
+            // Insérer au-dessus en conservant la position de lecture
+            double oldHeight = messagesContainer.getHeight();
+            historyInsertIndex = renderHistory(payload, historyInsertIndex);
+            messagesScroll.applyCss();
+            messagesScroll.layout();
+            double newHeight = messagesContainer.getHeight();
+            double scrollable = newHeight - messagesScroll.getViewportBounds().getHeight();
+            if (scrollable > 0) {
+                messagesScroll.setVvalue((newHeight - oldHeight) / scrollable);
+            }
+        } else {
+            renderHistory(payload, -1);
+            scrollToBottom();
+        }
+    }
 
-        userStatuses.put(username, status);
+    /** HISTORY_END|other|chunkCount|hasMore */
+    private void handleHistoryEnd(Frame frame) {
+        if (frame.size() < 4 || historyStreamUser == null || !historyStreamUser.equals(frame.field(1))) return;
+        if (!Protocol.HISTORY_AFTER.equals(historyDirection)) {
+            hasOlderHistory = Boolean.parseBoolean(frame.field(3));
+        }
+        historyStreamUser = null;
+        loadingHistory = false;
+    }
 
-        if (!userList.contains(username)) {
-            userList.add(username);
+    /**
+     * Renders history records (oldest first) at {@code index}, or appended when index is -1;
+     * returns the index following the last inserted bubble (-1 when appending).
+     * @throws IllegalArgumentException if the payload is malformed
+     */
+    private int renderHistory(String payload, int index) {
+        int insertAt = index;
+        for (String[] fields : Protocol.decodeHistory(payload, client.getProtocolVersion())) {
+            String sender = fields[0];
+            String contenu = fields[1];
+            String dateStr = fields[2];
+            String statusStr = null;
+            Long id = null;
+            if (fields.length >= Protocol.HISTORY_RECORD_FIELDS) {
+                statusStr = fields[4];
+                id = parseId(fields[3]); // absent: pas de pagination possible au-delà
+                if (id != null && (oldestLoadedId == null || id < oldestLoadedId)) oldestLoadedId = id;
+            }
+            boolean isMine = sender.equals(currentUsername);
+            addMessageBubble(id, sender, contenu, dateStr, isMine, statusStr, insertAt);
+            if (id != null && fields.length >= Protocol.HISTORY_RECORD_FIELDS_V3) {
+                // Réactions agrégées incluses dans la page: pas d'aller-retour supplémentaire
+                for (String[] r : Protocol.decodeReactions(fields[5])) {
+                    showReaction(id, r[0], Integer.parseInt(r[1]), "1".equals(r[2]));
+                }
+            }
+            if (insertAt >= 0) insertAt++;
         }
+        return insertAt;
+    }
 
-        sortUserList();
+    /**
+     * USER_STATUS_CHANGE|username|status|version|previousVersion, only for contacts: if we know an older state of
+     * that user than previousVersion, a change was missed (dropped lossy frame) and a delta resync fills it in.
+     */
+    private void handleUserStatusChange(Frame frame) {
+        if (frame.size() < 3) return;
+        String username = frame.field(1);
+        long version = frame.size() > 3 ? parseVersion(frame.field(3)) : 0;
+        long previous = frame.size() > 4 ? parseVersion(frame.field(4)) : 0;
+        long known = Math.max(presenceVersions.getOrDefault(username, 0L), presenceVersion);
+        if (previous > known) resyncPresence();
+        applyStatus(username, frame.field(2), version);
+    }
 
+    /** Applies one presence change unless a more recent one for the same user was already applied. */
+    private void applyStatus(String username, String status, long version) {
+        Long known = presenceVersions.get(username);
+        if (version > 0) {
+            if (known != null && known >= version) return;
+            presenceVersions.put(username, version);
+        }
+        if (username.equals(currentUsername)) return;
+        placeUser(username, status);
         if (username.equals(selectedUser)) {
             updateChatHeader();
         }
-
-        userListView.refresh();
     }
 
-    private void sortUserList() {
-        List<String> online = new ArrayList<>();
-        List<String> offline = new ArrayList<>();
-
-        for (String u : userList) {
-            String status = userStatuses.getOrDefault(u, "OFFLINE");
-            if ("ONLINE".equals(status)) {
-                online.add(u);
-            } else {
-                offline.add(u);
+    /** Moves one user to its place (online first, then by name) with a binary search, instead of re-sorting the list. */
+    private void placeUser(String username, String status) {
+        String previous = userStatuses.put(username, status);
+        updatingUserList = true;
+        try {
+            if (previous != null) {
+                int old = indexOfUser(username, previous);
+                if (old >= 0) userList.remove(old);
             }
+            int pos = indexOfUser(username, status);
+            userList.add(pos >= 0 ? pos : -pos - 1, username);
+            if (username.equals(selectedUser)) userListView.getSelectionModel().select(username);
+        } finally {
+            updatingUserList = false;
         }
+    }
 
-        Collections.sort(online);
-        Collections.sort(offline);
+    /** Binary search on the list order: index of the user, or -(insertion point) - 1. */
+    private int indexOfUser(String username, String status) {
+        int low = 0;
+        int high = userList.size() - 1;
+        boolean online = ONLINE.equals(status);
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            String other = userList.get(mid);
+            boolean otherOnline = ONLINE.equals(userStatuses.get(other));
+            // Le statut de l'élément recherché est celui sous lequel il a été placé (avant mise à jour)
+            if (other.equals(username)) otherOnline = online;
+            int cmp = otherOnline == online ? other.compareTo(username) : (otherOnline ? -1 : 1);
+            if (cmp < 0) low = mid + 1;
+            else if (cmp > 0) high = mid - 1;
+            else return mid;
+        }
+        return -(low + 1);
+    }
 
-        userList.clear();
-        userList.addAll(online);
-        userList.addAll(offline);
+    private static long parseVersion(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
     }
 
-    private void handleError(String[] parts) {
-        String msg = parts.length > 1 ? parts[1] : "Erreur inconnue.";
+    private void handleError(Frame frame) {
+        String msg = frame.size() > 1 ? frame.field(1) : "Erreur inconnue.";
         
         // Ne pas afficher les erreurs de commande inconnue pour éviter les notifications intempestives
         if (msg.contains("Commande inconnue") || msg.contains("commande inconnue")) {
@@ -257,13 +430,14 @@ public class ChatController {
     }
 
     private void handleDisconnect() {
+        presenceRefresh.stop();
         showErrorBanner("Connexion au serveur perdue.");
     }
 
-    private void handleTypingIndicator(String[] parts) {
-        if (parts.length < 3) return;
-        String username = parts[1];
-        String action = parts[2];
+    private void handleTypingIndicator(Frame frame) {
+        if (frame.size() < 3) return;
+        String username = frame.field(1);
+        String action = frame.field(2);
         
         if (!username.equals(selectedUser)) return;
         
@@ -276,26 +450,40 @@ public class ChatController {
         });
     }
 
-    private void handleReactionAdded(String[] parts) {
-        if (parts.length < 4) return;
+    /** REACTION_ADDED|messageId|username|emoji|ADD/REMOVE|count: delta applied to the bubble, if displayed. */
+    private void handleReactionAdded(Frame frame) {
+        if (frame.size() < 4) return;
         try {
-            Long messageId = Long.parseLong(parts[1]);
-            String username = parts[2];
-            String emoji = parts[3];
-            
-            Platform.runLater(() -> addReactionToMessage(messageId, username, emoji));
+            Long messageId = frame.longField(1);
+            String username = frame.field(2);
+            String emoji = frame.field(3);
+            boolean add = frame.size() < 5 || !frame.fieldEquals(4, Protocol.REACTION_REMOVE);
+            int count = frame.size() >= 6 ? frame.intField(5) : (add ? 1 : 0);
+            boolean mine = myReactions.getOrDefault(messageId, Set.of()).contains(emoji);
+            if (username.equals(currentUsername)) mine = add;
+            showReaction(messageId, emoji, count, mine);
         } catch (NumberFormatException e) {
             // Ignorer si l'ID n'est pas valide
         }
     }
 
-    private void handleMessageStatusUpdate(String[] parts) {
-        if (parts.length < 3) return;
+    /** MSG_STATUS_UPDATE|id|status, or MSG_STATUS_UPDATE|upToId|LU|reader for a whole range (read receipt). */
+    private void handleMessageStatusUpdate(Frame frame) {
+        if (frame.size() < 3) return;
         try {
-            Long messageId = Long.parseLong(parts[1]);
-            String status = parts[2];
-            
-            Platform.runLater(() -> updateMessageStatus(messageId, status));
+            Long messageId = frame.longField(1);
+            String status = frame.field(2);
+            if (frame.size() < 4) {
+                updateMessageStatus(messageId, status);
+                return;
+            }
+            if (!frame.field(3).equals(selectedUser)) return; // relu à l'ouverture de la conversation
+            for (Map.Entry<Long, HBox> entry : messageBubbles.entrySet()) {
+                VBox bubble = (VBox) entry.getValue().getChildren().get(0);
+                if (entry.getKey() <= messageId && bubble.getStyleClass().contains("message-bubble-sent")) {
+                    updateMessageStatus(entry.getKey(), status);
+                }
+            }
         } catch (NumberFormatException e) {
             // Ignorer si l'ID n'est pas valide
         }
@@ -333,13 +521,14 @@ public class ChatController {
         }
     }
 
-    private void addReactionToMessage(Long messageId, String username, String emoji) {
+    /** Shows the aggregated count of one emoji under a message (removed at 0); clicking it toggles ours. */
+    private void showReaction(Long messageId, String emoji, int count, boolean mine) {
+        Set<String> mineSet = myReactions.computeIfAbsent(messageId, id -> new HashSet<>());
+        if (mine) mineSet.add(emoji); else mineSet.remove(emoji);
+
         HBox messageRow = messageBubbles.get(messageId);
         if (messageRow == null) return;
-        
         VBox bubble = (VBox) messageRow.getChildren().get(0);
-        
-        // Chercher si une réaction existe déjà
         HBox reactionBox = null;
         for (var child : bubble.getChildren()) {
             if (child.getStyleClass().contains("reaction-container")) {
@@ -347,21 +536,33 @@ public class ChatController {
                 break;
             }
         }
-        
-        if (reactionBox == null) {
-            reactionBox = new HBox(4);
-            reactionBox.getStyleClass().add("reaction-container");
-            reactionBox.setAlignment(Pos.CENTER_LEFT);
-            reactionBox.setPadding(new Insets(4, 0, 0, 0));
-            bubble.getChildren().add(reactionBox);
+        if (reactionBox == null) return;
+
+        Button reactionBtn = null;
+        for (var child : reactionBox.getChildren()) {
+            if (emoji.equals(child.getUserData())) {
+                reactionBtn = (Button) child;
+                break;
+            }
         }
-        
-        // Ajouter la réaction
-        Button reactionBtn = new Button(emoji);
-        reactionBtn.getStyleClass().add("reaction-btn");
-        reactionBtn.setOnAction(e -> removeReaction(messageId, username, emoji));
-        
-        reactionBox.getChildren().add(reactionBtn);
+        if (count <= 0) {
+            if (reactionBtn != null) reactionBox.getChildren().remove(reactionBtn);
+            return;
+        }
+        if (reactionBtn == null) {
+            reactionBtn = new Button();
+            reactionBtn.setUserData(emoji);
+            reactionBtn.getStyleClass().add("reaction-btn");
+            reactionBtn.setOnAction(e -> toggleReaction(messageId, emoji));
+            reactionBox.getChildren().add(reactionBtn);
+        }
+        reactionBtn.setText(count > 1 ? emoji + " " + count : emoji);
+    }
+
+    private void toggleReaction(Long messageId, String emoji) {
+        if (client == null) return;
+        boolean mine = myReactions.getOrDefault(messageId, Set.of()).contains(emoji);
+        client.react(messageId, emoji, !mine);
     }
 
     private void updateMessageStatus(Long messageId, String status) {
@@ -394,15 +595,11 @@ public class ChatController {
         }
     }
 
-    private void removeReaction(Long messageId, String username, String emoji) {
-        // Envoyer la commande pour supprimer la réaction
-        if (client != null) {
-            client.send(Protocol.buildCommand(Protocol.ADD_REACTION, messageId.toString(), username, emoji, "REMOVE"));
-        }
-    }
-
     private void selectUser(String username) {
+        flushReadWatermark();
         this.selectedUser = username;
+        // Conversation ouverte: son statut en direct même sans message échangé
+        client.subscribePresence(username);
 
         noChatPlaceholder.setVisible(false);
         noChatPlaceholder.setManaged(false);
@@ -415,8 +612,14 @@ public class ChatController {
 
         updateChatHeader();
         messagesContainer.getChildren().clear();
-
-        client.requestHistory(username);
+        messageBubbles.clear();
+        myReactions.clear();
+
+        // Dernière page d'abord; les pages plus anciennes sont chargées en remontant
+        oldestLoadedId = null;
+        hasOlderHistory = false;
+        loadingHistory = true;
+        client.requestHistoryPage(username, Protocol.HISTORY_PAGE_SIZE, Protocol.HISTORY_LATEST, null);
         messageInput.requestFocus();
     }
 
@@ -441,7 +644,7 @@ public class ChatController {
         }
 
         client.sendMessage(selectedUser, content);
-        addMessageBubble(currentUsername, content, LocalDateTime.now().toString(), true, "ENVOYE");
+        unacknowledgedBubbles.add(addMessageBubble(null, currentUsername, content, LocalDateTime.now().toString(), true, "ENVOYE", -1));
         scrollToBottom();
         messageInput.clear();
         messageInput.requestFocus();
@@ -451,17 +654,18 @@ public class ChatController {
 
     @FXML
     public void handleLogout() {
+        presenceRefresh.stop();
         if (client != null) {
             client.logout();
         }
         MainApp.getInstance().showLogin();
     }
 
-    private void addMessageBubble(String sender, String content, String dateStr, boolean isMine) {
-        addMessageBubble(sender, content, dateStr, isMine, null);
-    }
-
-    private void addMessageBubble(String sender, String content, String dateStr, boolean isMine, String statusStr) {
+    /**
+     * @param messageId server id, or null while unknown (own message waiting for MSG_OK)
+     * @param index position in messagesContainer, or -1 to append
+     */
+    private HBox addMessageBubble(Long messageId, String sender, String content, String dateStr, boolean isMine, String statusStr, int index) {
         VBox bubble = new VBox(4);
         bubble.setPadding(new Insets(0));
         bubble.setMaxWidth(400);
@@ -520,13 +724,15 @@ public class ChatController {
             bubble.setAlignment(Pos.CENTER_LEFT);
             
             // Ajouter un menu contextuel pour les réactions sur les messages reçus
-            ContextMenu contextMenu = new ContextMenu();
-            for (String emoji : Arrays.asList("👍", "❤️", "😂", "😮", "😢", "😡")) {
-                MenuItem item = new MenuItem(emoji + " " + emoji);
-                item.setOnAction(e -> addReactionToMessage(sender, emoji));
-                contextMenu.getItems().add(item);
+            if (messageId != null) {
+                ContextMenu contextMenu = new ContextMenu();
+                for (String emoji : Arrays.asList("👍", "❤️", "😂", "😮", "😢", "😡")) {
+                    MenuItem item = new MenuItem(emoji + " " + emoji);
+                    item.setOnAction(e -> toggleReaction(messageId, emoji));
+                    contextMenu.getItems().add(item);
+                }
+                bubble.setOnContextMenuRequested(e -> contextMenu.show(bubble, e.getScreenX(), e.getScreenY()));
             }
-            bubble.setOnContextMenuRequested(e -> contextMenu.show(bubble, e.getScreenX(), e.getScreenY()));
         }
 
         HBox row = new HBox();
@@ -538,37 +744,49 @@ public class ChatController {
         }
         row.getChildren().add(bubble);
 
-        messagesContainer.getChildren().add(row);
-        
-        // Stocker le message pour les mises à jour futures
-        // Pour l'instant, on utilise un hash simple comme ID (à améliorer avec de vrais IDs du serveur)
-        Long messageId = (long) (sender + content + dateTimeStr).hashCode();
-        messageBubbles.put(messageId, row);
+        if (index >= 0) {
+            messagesContainer.getChildren().add(index, row);
+        } else {
+            messagesContainer.getChildren().add(row);
+        }
         
-        // Envoyer la commande de lecture si c'est un message reçu
-        if (!isMine && client != null) {
-            client.send(Protocol.buildCommand(Protocol.MSG_READ, selectedUser, messageId.toString()));
+        // Stocker le message pour les mises à jour futures (statut, réactions)
+        if (messageId != null) {
+            messageBubbles.put(messageId, row);
+            // Message reçu affiché: avance le filigrane de lecture, envoyé après READ_DEBOUNCE_MILLIS
+            if (!isMine && !"LU".equalsIgnoreCase(statusStr)) {
+                noteRead(sender, messageId);
+            }
         }
+        return row;
     }
 
-    private void addReactionToMessage(String sender, String emoji) {
-        // Trouver le dernier message de l'expéditeur et ajouter la réaction
-        for (var entry : messageBubbles.entrySet()) {
-            HBox row = entry.getValue();
-            VBox bubble = (VBox) row.getChildren().get(0);
-            
-            // Vérifier si c'est un message reçu (pas le nôtre)
-            if (bubble.getStyleClass().contains("message-bubble-received")) {
-                Label textLabel = (Label) bubble.getChildren().get(0);
-                // Simple vérification - à améliorer avec de vrais IDs
-                if (textLabel.getText().length() > 0) {
-                    if (client != null) {
-                        client.send(Protocol.buildCommand(Protocol.ADD_REACTION, 
-                            entry.getKey().toString(), currentUsername, emoji));
-                    }
-                    break;
-                }
-            }
+    private void noteRead(String sender, long messageId) {
+        if (!sender.equals(readPendingUser)) {
+            flushReadWatermark();
+            readPendingUser = sender;
+            readPendingUpTo = 0;
+        }
+        if (messageId > readPendingUpTo) readPendingUpTo = messageId;
+        readDebounce.playFromStart();
+    }
+
+    private void flushReadWatermark() {
+        readDebounce.stop();
+        if (readPendingUser == null || client == null) return;
+        Long sent = readWatermarks.get(readPendingUser);
+        if (sent == null || readPendingUpTo > sent) {
+            client.markRead(readPendingUser, readPendingUpTo);
+            readWatermarks.put(readPendingUser, readPendingUpTo);
+        }
+        readPendingUser = null;
+    }
+
+    private static Long parseId(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return null;
         }
     }
 
@@ -2,7 +2,7 @@ package com.messagerie.ui;
 
 import com.messagerie.client.ChatClient;
 import com.messagerie.config.AppConfig;
-import com.messagerie.protocol.Protocol;
+import com.messagerie.protocol.Frame;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.scene.control.Label;
@@ -61,26 +61,25 @@ public class LoginController {
         }
     }
 
-    private void handleServerResponse(String raw) {
-        String[] parts = Protocol.parseCommand(raw);
-        if (parts.length == 0) return;
+    private void handleServerResponse(Frame frame) {
+        if (frame.opcode() == null) return;
 
         Platform.runLater(() -> {
-            switch (parts[0]) {
-                case Protocol.LOGIN_OK -> {
-                    if (parts.length >= 3) {
-                        Long userId = Long.parseLong(parts[1]);
-                        String username = parts[2];
+            switch (frame.opcode()) {
+                case LOGIN_OK -> {
+                    if (frame.size() >= 3) {
+                        Long userId = frame.longField(1);
+                        String username = frame.field(2);
                         MainApp.getInstance().showChat(client, userId, username);
                     }
                 }
-                case Protocol.LOGIN_FAIL -> {
-                    String msg = parts.length > 1 ? parts[1] : "Échec de la connexion.";
+                case LOGIN_FAIL -> {
+                    String msg = frame.size() > 1 ? frame.field(1) : "Échec de la connexion.";
                     showError(msg);
                     if (client != null) client.disconnect();
                 }
-                case Protocol.ALREADY_CONNECTED -> {
-                    String msg = parts.length > 1 ? parts[1] : "Cet utilisateur est déjà connecté.";
+                case ALREADY_CONNECTED -> {
+                    String msg = frame.size() > 1 ? frame.field(1) : "Cet utilisateur est déjà connecté.";
                     showError(msg);
                     if (client != null) client.disconnect();
                 }
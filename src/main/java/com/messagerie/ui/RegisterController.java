@@ -2,7 +2,7 @@ package com.messagerie.ui;
 
 import com.messagerie.client.ChatClient;
 import com.messagerie.config.AppConfig;
-import com.messagerie.protocol.Protocol;
+import com.messagerie.protocol.Frame;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.scene.control.Label;
@@ -73,18 +73,17 @@ public class RegisterController {
         }
     }
 
-    private void handleServerResponse(String raw) {
-        String[] parts = Protocol.parseCommand(raw);
-        if (parts.length == 0) return;
+    private void handleServerResponse(Frame frame) {
+        if (frame.opcode() == null) return;
 
         Platform.runLater(() -> {
-            switch (parts[0]) {
-                case Protocol.REGISTER_OK -> {
+            switch (frame.opcode()) {
+                case REGISTER_OK -> {
                     if (client != null) client.disconnect();
                     MainApp.getInstance().showLogin();
                 }
-                case Protocol.REGISTER_FAIL -> {
-                    String msg = parts.length > 1 ? parts[1] : "Échec de l'inscription.";
+                case REGISTER_FAIL -> {
+                    String msg = frame.size() > 1 ? frame.field(1) : "Échec de l'inscription.";
                     showError(msg);
                     if (client != null) client.disconnect();
                 }
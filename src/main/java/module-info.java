@@ -3,9 +3,11 @@ module com.messagerie {
     requires javafx.fxml;
     requires transitive jakarta.persistence;
     requires org.hibernate.orm.core;
+    requires com.zaxxer.hikari;
     requires java.sql;
     requires jbcrypt;
     requires java.naming;
+    requires java.management;
 
     opens com.messagerie.model to org.hibernate.orm.core, javafx.base;
     opens com.messagerie.ui to javafx.fxml;
@@ -16,4 +18,5 @@ module com.messagerie {
     exports com.messagerie.client;
     exports com.messagerie.protocol;
     exports com.messagerie.ui;
+    exports com.messagerie.loadtest;
 }